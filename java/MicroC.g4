@@ -4,8 +4,8 @@ grammar MicroC;
 
 package compiler;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.LinkedList;
 import ast.*;
 import compiler.Scope.*;
 
@@ -39,13 +39,10 @@ import compiler.Scope.*;
 program : decls functions {ast = $functions.node;};
 
 /* Declarations */
-decls : var_decl decls
-      | str_decl decls
-      | func_decl decls
-	 | /* empty */ ;
+/* Lists are matched with loops rather than right recursion so the parser stack stays flat */
+decls : (var_decl | str_decl | func_decl)* ;
 
-var_decls : var_decl var_decls 
-          | /* emoty */ ;
+var_decls : var_decl* ;
 
 /* Identifiers and types */		  
 ident : IDENTIFIER ;
@@ -60,8 +57,9 @@ base_type returns [Scope.Type t]: 'int' {$t = Scope.Type.INT;}| 'float' {$t = Sc
 
 func_decl : base_type ident '(' params ')' ';' {st.addFunction($base_type.t, $ident.text, $params.types);};
 
-functions returns [FunctionListNode node] : function functions {$node = new FunctionListNode($function.node, $functions.node);}
-            | /* empty */ {$node = new FunctionListNode();};
+functions returns [FunctionListNode node]
+     @init {$node = new FunctionListNode();}
+     : (function {$node.addFunction($function.node);})* ;
 
 function returns [FunctionNode node] : base_type ident '(' params ')' 
       {
@@ -87,30 +85,18 @@ function returns [FunctionNode node] : base_type ident '(' params ')'
           st.popScope();
      };
 		 		 
-params returns [LinkedList<String> names, LinkedList<Scope.Type> types]: param params_rest 
-          {
-               $names = new LinkedList<String>();
-               $types = new LinkedList<Scope.Type>();
-               $names.add($param.name); $names.addAll($params_rest.names);
-               $types.add($param.type); $types.addAll($params_rest.types);
-          }
-       | /* empty */ {$names = new LinkedList<String>(); $types = new LinkedList<Scope.Type>();};
-		   
-params_rest returns [LinkedList<String> names, LinkedList<Scope.Type> types] : ',' param params_rest
-          {
-               $names = new LinkedList<String>();
-               $types = new LinkedList<Scope.Type>();
-               $names.add($param.name); $names.addAll($params_rest.names);
-               $types.add($param.type); $types.addAll($params_rest.types);
-          }
-            | /* empty */ {$names = new LinkedList<String>(); $types = new LinkedList<Scope.Type>();};
-			
+params returns [List<String> names, List<Scope.Type> types]
+     @init {$names = new ArrayList<String>(); $types = new ArrayList<Scope.Type>();}
+     : (p=param {$names.add($p.name); $types.add($p.type);}
+          (',' p=param {$names.add($p.name); $types.add($p.type);})*)? ;
+
 param returns [String name, Scope.Type type] : base_type ident {$name = $ident.text; $type = $base_type.t;};                   
 
 /* Statements */
 		 
-statements returns [StatementListNode node] : statement s=statements {$node = new StatementListNode($statement.node, $s.node);}
-            | /* empty */ {$node = new StatementListNode();};
+statements returns [StatementListNode node]
+     @init {$node = new StatementListNode();}
+     : (statement {$node.addStatement($statement.node);})* ;
 			
 statement returns [StatementNode node] : base_stmt ';' {$node = $base_stmt.node;}
 		  | if_stmt {$node = $if_stmt.node;} /* FILL IN FROM STEP 1 */ /* FILL IN ACTIONS FROM STEP 3 */
@@ -121,7 +107,7 @@ base_stmt returns [StatementNode node] : assign_stmt {$node = $assign_stmt.node;
 		| print_stmt {$node = $print_stmt.node;}
 		| return_stmt {$node = $return_stmt.node;};
 		 
-read_stmt returns [ReadNode node] : 'read' '(' ident ')' {$node = new ReadNode(new VarNode($ident.text));} ;
+read_stmt returns [ReadNode node] : 'read' '(' ident ')' {$node = new ReadNode(new VarNode($ident.text, st));} ;
 
 print_stmt returns [WriteNode node] : 'print' '(' expr ')' {$node = new WriteNode($expr.node);};
 /*
@@ -130,7 +116,7 @@ return_stmt returns [ReturnNode node] : 'return' expr {$node = new ReturnNode($e
 return_stmt returns [ReturnNode node] : 'return' expr 
      {FunctionSymbolTableEntry currFunc = st.getFunctionSymbol(st.currentScope().getName()); $node = new ReturnNode($expr.node, currFunc);};
 
-assign_stmt returns [AssignNode node] : ident '=' expr {$node = new AssignNode(new VarNode($ident.text), $expr.node);};
+assign_stmt returns [AssignNode node] : ident '=' expr {$node = new AssignNode(new VarNode($ident.text, st), $expr.node);};
 
 /* if_stmt rules go here */
 
@@ -150,7 +136,7 @@ while_stmt returns [WhileNode node] : 'while' '(' cond ')' '{' statements '}' {$
 	 
 /* Expressions */
 
-primary returns [ExpressionNode node] : ident {$node = new VarNode($ident.text);}
+primary returns [ExpressionNode node] : ident {$node = new VarNode($ident.text, st);}
         | '(' expr ')' {$node = $expr.node;}
         | unaryminus_expr {$node = $unaryminus_expr.node;}
         | call_expr {$node = $call_expr.node;}
@@ -160,13 +146,11 @@ primary returns [ExpressionNode node] : ident {$node = new VarNode($ident.text);
 unaryminus_expr returns [ExpressionNode node] : '-' expr {$node = new UnaryOpNode($expr.node, "-");}; /* FILL IN FROM STEP 2 */
 		 
 /* Call expressions */
-call_expr returns [CallNode node] : ident '(' arg_list ')' {$node = new CallNode($ident.text, $arg_list.args);};
+call_expr returns [CallNode node] : ident '(' arg_list ')' {$node = new CallNode($ident.text, $arg_list.args, st);};
 
-arg_list returns [List<ExpressionNode> args] : expr args_rest {$args = new LinkedList<ExpressionNode>(); $args.add($expr.node); $args.addAll($args_rest.args);}
-         | /* empty */ {$args = new LinkedList<ExpressionNode>();};
-		 
-args_rest returns [List<ExpressionNode> args] : ',' expr args_rest {$args = new LinkedList<ExpressionNode>(); $args.add($expr.node); $args.addAll($args_rest.args);}
-          | /* empty */ {$args = new LinkedList<ExpressionNode>();};
+arg_list returns [List<ExpressionNode> args]
+     @init {$args = new ArrayList<ExpressionNode>();}
+     : (e=expr {$args.add($e.node);} (',' e=expr {$args.add($e.node);})*)? ;
 
 /* This is left recursive, but ANTLR will clean this up */ 
 expr returns [ExpressionNode node] : term {$node = $term.node;}
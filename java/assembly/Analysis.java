@@ -0,0 +1,24 @@
+package assembly;
+
+/**
+ * Something a pass can ask the {@link PassManager} to compute about a function, such
+ * as its control-flow graph. The result is cached until a pass that does not
+ * preserve it changes the function.
+ *
+ * Each analysis is a single shared instance that also serves as its cache key.
+ *
+ * @param <T> The type of the result
+ */
+public interface Analysis<T> {
+
+	/**
+	 * @return A short name for statistics
+	 */
+	String getName();
+
+	/**
+	 * Compute the result for <code>f</code>. Other analyses it depends on can be
+	 * requested from <code>pm</code>.
+	 */
+	T compute(Function f, PassManager pm);
+}
@@ -0,0 +1,95 @@
+package assembly;
+
+import java.io.BufferedOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import assembly.instructions.Blank;
+import assembly.instructions.Instruction;
+import compiler.CompilationContext;
+import compiler.Scope;
+
+/**
+ * Writes the assembly for a program as it is produced.
+ *
+ * The code generator hands each function to {@link #emit(InstructionList)} as soon
+ * as its registers are allocated, so only one function's code is in memory at a time
+ * and the output goes out in large buffered writes instead of being rendered into one
+ * string at the end.
+ *
+ * The output is, in order: the symbol table (as comments), <code>.section .text</code>
+ * with the code, and <code>.section .strings</code> with the string constants. The
+ * symbol table, the IR header and the <code>;</code> ({@link Blank}) lines are only
+ * written when the corresponding option is set in the {@link CompilationContext}.
+ */
+public class AssemblyEmitter {
+
+	static final private int bufferSize = 1 << 16;
+
+	private CompilationContext context;
+	private PrintStream out;
+
+	/**
+	 * @param context The compilation whose code is being emitted
+	 * @param os Where to write the assembly. It is flushed by {@link #finish()}, not closed.
+	 */
+	public AssemblyEmitter(CompilationContext context, OutputStream os) {
+		this.context = context;
+		this.out = new PrintStream(new BufferedOutputStream(os, bufferSize), false, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Write everything that comes before the code: the symbol table comments (if
+	 * requested) and the start of the text section
+	 */
+	public void begin() {
+		if (context.emitsSymbolTable()) {
+			context.getSymbolTable().printTable(out);
+		}
+
+		out.println(".section .text");
+		if (context.emitsIRHeaders()) {
+			out.println(";Current temp: null");
+			out.println(";IR Code: ");
+		}
+	}
+
+	/**
+	 * Write a piece of finished code, one instruction per line
+	 */
+	public void emit(InstructionList code) {
+		for (Instruction i : code) {
+			emit(i);
+		}
+	}
+
+	public void emit(Instruction i) {
+		if (i instanceof Blank && !context.emitsBlankMarkers()) {
+			return;
+		}
+		out.print(i.toString());
+		out.print('\n');
+	}
+
+	/**
+	 * End the text section, write the string constants and flush the output
+	 */
+	public void finish() {
+		out.println();
+
+		out.println();
+		out.println(".section .strings");
+
+		Scope g = context.getSymbolTable().getGlobalScope();
+		for (Scope.SymbolTableEntry ste : g.getEntries()) {
+			if (ste.getType() == Scope.Type.STRING) {
+				Scope.StringSymbolTableEntry sste = (Scope.StringSymbolTableEntry) ste;
+				out.println(String.format("0x%x", sste.getAddress()) + " " + sste.getValue());
+			}
+		}
+
+		out.flush();
+	}
+
+}
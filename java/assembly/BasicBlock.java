@@ -0,0 +1,84 @@
+package assembly;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import assembly.instructions.Instruction;
+
+/**
+ * A straight-line run of instructions with one way in (the top) and one way out (the
+ * bottom), and its edges in the {@link ControlFlowGraph}.
+ *
+ * The entry and exit blocks of a graph have no code.
+ */
+public class BasicBlock {
+
+	final ControlFlowGraph graph;
+	private final int id;
+	private InstructionList code;
+	final List<BasicBlock> successors = new ArrayList<>(2);
+	final List<BasicBlock> predecessors = new ArrayList<>(2);
+	BasicBlock layoutPrev; //neighbours in program order; null at the ends and for entry/exit
+	BasicBlock layoutNext;
+
+	BasicBlock(ControlFlowGraph graph, int id) {
+		this.graph = graph;
+		this.id = id;
+		this.code = new InstructionList();
+	}
+
+	/**
+	 * @return The number of this block in its graph: the entry is 0, then the blocks in
+	 * their original program order, then the exit. Blocks added later come after the exit
+	 */
+	public int getId() {
+		return id;
+	}
+
+	public InstructionList getCode() {
+		return code;
+	}
+
+	void setCode(InstructionList code) {
+		this.code = code;
+	}
+
+	public boolean isEmpty() {
+		return code.isEmpty();
+	}
+
+	/**
+	 * @return The instruction that decides where control goes next
+	 */
+	public Instruction getLast() {
+		return code.getLast();
+	}
+
+	public List<BasicBlock> getSuccessors() {
+		return Collections.unmodifiableList(successors);
+	}
+
+	public List<BasicBlock> getPredecessors() {
+		return Collections.unmodifiableList(predecessors);
+	}
+
+	/**
+	 * @return The block after this one in program order, which it falls through to
+	 * unless it ends in a jump; null for the last block
+	 */
+	public BasicBlock getLayoutNext() {
+		return layoutNext;
+	}
+
+	void addSuccessor(BasicBlock b) {
+		if (!successors.contains(b)) { //a conditional branch to the next block is a single edge
+			successors.add(b);
+			b.predecessors.add(this);
+		}
+	}
+
+	public String toString() {
+		return "BB" + id;
+	}
+}
@@ -1,12 +1,15 @@
 package assembly;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import ast.visitor.AbstractASTVisitor;
 
 import ast.*;
 import assembly.instructions.*;
+import compiler.CompilationContext;
 import compiler.Scope;
 import compiler.Scope.SymbolTableEntry;
 
@@ -14,22 +17,39 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 
 	int intRegCount;
 	int floatRegCount;
-	static final public String intTempPrefix = "$t";
-	static final public String floatTempPrefix = "$f";
 	
-	int loopLabel;
-	int elseLabel;
-	int outLabel;
-
-	static public int numIntRegisters = 2048;
-	static public int numFloatRegisters = 2048;
+	CompilationContext context;
+	AssemblyEmitter emitter;
+	PassManager passes;
 
 	String currFunc;
+	LabelRef currFuncOutLabel;
+	Map<String, LabelRef> functionLabels = new HashMap<>(); //entry point of each function, by name
+
+	static final private StackSlot returnValueSlot = new StackSlot(8); //above the saved ra and old fp
 	
-	public CodeGenerator() {
-		loopLabel = 0;
-		elseLabel = 0;
-		outLabel = 0;
+	/**
+	 * @param context The compilation being generated
+	 * @param emitter Where to write each function once its code is final
+	 */
+	public CodeGenerator(CompilationContext context, AssemblyEmitter emitter) {
+		this.context = context;
+		this.emitter = emitter;
+		this.passes = new PassManager(context);
+		if (context.simplifiesLoops()) {
+			passes.add(new LoopSimplifyPass(context));
+		}
+		if (context.roundTripsSSA()) {
+			passes.add(new SSAConstructionPass());
+			passes.add(new SSADestructionPass(context));
+		}
+		if (context.getImageDirectory() != null) {
+			passes.add(new SaveImagePass(context.getImageDirectory(), "pre-ra"));
+		}
+		passes.add(new RegisterAllocationPass(context));
+		if (context.getImageDirectory() != null) {
+			passes.add(new SaveImagePass(context.getImageDirectory(), "post-ra"));
+		}
 		intRegCount = 0;		
 		floatRegCount = 0;
 	}
@@ -57,11 +77,7 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		CodeObject co = new CodeObject(sym);
 		co.lval = true;
 		co.type = node.getType();
-		if (sym.isLocal()) {
-			co.temp = "$l" + String.valueOf(sym.getAddress());
-		} else {
-			co.temp = "$g" + sym.getName();
-		}
+		co.temp = new Variable(sym);
 
 
 		return co;
@@ -79,7 +95,7 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		//The li and la instructions are the same, but it's helpful to distinguish
 		//for readability purposes.
 		//li tmp' value
-		Instruction i = new Li(generateTemp(Scope.Type.INT), node.getVal());
+		Instruction i = new Li(generateTemp(Scope.Type.INT), Immediate.of(node.getVal()));
 
 		co.code.add(i); //add this instruction to the code object
 		co.lval = false; //co holds an rval -- data
@@ -101,7 +117,7 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		//The li and la instructions are the same, but it's helpful to distinguish
 		//for readability purposes.
 		//li tmp' value
-		Instruction i = new FImm(generateTemp(Scope.Type.FLOAT), node.getVal());
+		Instruction i = new FImm(generateTemp(Scope.Type.FLOAT), new FloatImmediate(node.getVal()));
 
 		co.code.add(i); //add this instruction to the code object
 		co.lval = false; //co holds an rval -- data
@@ -134,12 +150,12 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		// if (left.lval) {
 		// 	left = rvalify(left);
 		// }
-		co.code.addAll(left.code);
+		co.code.splice(left.code);
 
 		// if (right.lval) {
 		// 	right = rvalify(right);
 		// }
-		co.code.addAll(right.code);
+		co.code.splice(right.code);
 
 		Instruction binaryOp;
 		if (node.getType() == Scope.Type.INT) {
@@ -211,7 +227,7 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		/* FILL IN FROM STEP 2 */
 		// if (expr.lval) {
 		// 	expr = rvalify(expr);
-		co.code.addAll(expr.code);
+		co.code.splice(expr.code);
 		// }
 		
 		Instruction unaryOp = null;
@@ -257,7 +273,7 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 
 		/* FILL IN FROM STEP 2 */
 
-		String offset = "0";
+		Operand offset = Immediate.ZERO;
 		// if (left.isVar()) {
 		// 	if (left.getSTE().isLocal()) {
 		// 		left.temp = "fp";
@@ -278,8 +294,8 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		// if (right.lval) {
 		// 	right = rvalify(right);
 		// }		
-		co.code.addAll(left.code);
-		co.code.addAll(right.code);
+		co.code.splice(left.code);
+		co.code.splice(right.code);
 		
 		Instruction store;
 		if (node.getType() == Scope.Type.FLOAT){
@@ -308,7 +324,7 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		CodeObject co = new CodeObject();
 		//add the code from each individual statement
 		for (CodeObject subcode : statements) {
-			co.code.addAll(subcode.code);
+			co.code.splice(subcode.code);
 		}
 		co.type = null; //set to null to trigger errors
 		return co;
@@ -351,7 +367,7 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 				throw new Error("Shouldn't read into other variable");
 		}
 		
-		co.code.addAll(il);
+		co.code.splice(il);
 
 		co.lval = false; //doesn't matter
 		co.temp = null; //set to null to trigger errors
@@ -392,7 +408,7 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 			co.code.add(write);
 		} else {			
 			//Step 1:
-			co.code.addAll(expr.code);
+			co.code.splice(expr.code);
 
 			//Step 2:
 			//if type of writenode is int, use puti, if float, use putf
@@ -447,14 +463,15 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		// if (left.lval) {
 		// 	left = rvalify(left);
 		// }
-		co.code.addAll(left.getCode());
+		co.code.splice(left.code);
 		
 		// if (right.lval) {
 		// 	right = rvalify(right);
 		// }
-		co.code.addAll(right.getCode());
+		co.code.splice(right.code);
 		
-		co.temp = left.temp + " " + right.temp;
+		co.temp = left.temp;
+		co.rightTemp = right.temp;
 		co.lval = false;
 		co.type = left.getType();
 		/* MODIFY THIS TO GENERATE 3AC */
@@ -492,12 +509,11 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		CodeObject co = new CodeObject();
 
 		/* FILL IN FROM STEP 3*/
-		String elseLabel = generateElseLabel();
-		String outLabel = generateOutLabel();
+		LabelRef elseLabel = generateElseLabel();
+		LabelRef outLabel = generateOutLabel();
 
-		String[] parts = cond.temp.split(" ");
-		String l_node = parts[0];
-		String r_node = parts[1];
+		Operand l_node = cond.temp;
+		Operand r_node = cond.rightTemp;
 
 		Instruction branch = null;
 		Instruction branch2 = null;
@@ -526,30 +542,30 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 					break;
 			}
 		} else if (cond.getType() == Scope.Type.FLOAT) {
-			String flt_dest = generateTemp(Scope.Type.INT);
+			Operand flt_dest = generateTemp(Scope.Type.INT);
 			switch (node.getCondExpr().getReversedOp()) {
 				case EQ:
 					branch = (new Feq(l_node, r_node, flt_dest));
-					branch2 = (new Bne(flt_dest, "x0", elseLabel));
+					branch2 = (new Bne(flt_dest, PhysicalRegister.ZERO, elseLabel));
 					break;
 				case NE:
 					branch = (new Feq(l_node, r_node, flt_dest));
-					branch2 = (new Bne(flt_dest, "x0", elseLabel));
+					branch2 = (new Bne(flt_dest, PhysicalRegister.ZERO, elseLabel));
 				case LT:
 					branch = (new Flt(l_node, r_node, flt_dest));
-					branch2 = (new Bne(flt_dest, "x0", elseLabel));
+					branch2 = (new Bne(flt_dest, PhysicalRegister.ZERO, elseLabel));
 					break;
 				case LE:
 					branch = (new Fle(l_node, r_node, flt_dest));
-					branch2 = (new Bne(flt_dest, "x0", elseLabel));
+					branch2 = (new Bne(flt_dest, PhysicalRegister.ZERO, elseLabel));
 					break;
 				case GT:
 					branch = new Fle(r_node, l_node, flt_dest);
-					branch2 = (new Bne(flt_dest, "x0", elseLabel));
+					branch2 = (new Bne(flt_dest, PhysicalRegister.ZERO, elseLabel));
 					break;
 				case GE:
 					branch = new Flt(r_node, l_node, flt_dest);
-					branch2 = (new Bne(flt_dest, "x0", elseLabel));
+					branch2 = (new Bne(flt_dest, PhysicalRegister.ZERO, elseLabel));
 					break;
 				default:
 					break;
@@ -557,15 +573,15 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		}
 		
 		// Generating code
-		co.code.addAll(cond.getCode());
+		co.code.splice(cond.code);
 		co.code.add(branch); 
 		if (branch2 != null){
 			co.code.add(branch2);
 		}
-		co.code.addAll(tlist.getCode());
+		co.code.splice(tlist.code);
 		co.code.add(new J(outLabel));
 		co.code.add(new Label(elseLabel));
-		co.code.addAll(elist.getCode()); 
+		co.code.splice(elist.code); 
 		co.code.add(new Label(outLabel));
 		/* MODIFY THIS TO GENERATE 3AC */
 
@@ -600,12 +616,11 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		CodeObject co = new CodeObject();
 
 		/* FILL IN FROM STEP 3*/
-		String outLabel = generateOutLabel();
-		String loopLabel = generateLoopLabel();
+		LabelRef outLabel = generateOutLabel();
+		LabelRef loopLabel = generateLoopLabel();
 
-		String[] parts = cond.temp.split(" ");
-		String l_node = parts[0];
-		String r_node = parts[1];
+		Operand l_node = cond.temp;
+		Operand r_node = cond.rightTemp;
 
 		Instruction branch = null;
 		Instruction branch2 = null;
@@ -634,30 +649,30 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 					break;
 			}
 		} else if (cond.getType() == Scope.Type.FLOAT) {
-			String flt_dest = generateTemp(Scope.Type.INT);
+			Operand flt_dest = generateTemp(Scope.Type.INT);
 			switch (node.getCond().getReversedOp()) {
 				case EQ:
 					branch = (new Feq(l_node, r_node, flt_dest));
-					branch2 = (new Bne(flt_dest, "x0", outLabel));
+					branch2 = (new Bne(flt_dest, PhysicalRegister.ZERO, outLabel));
 					break;
 				case NE:
 					branch = (new Feq(l_node, r_node, flt_dest));
-					branch2 = (new Bne(flt_dest, "x0", outLabel));
+					branch2 = (new Bne(flt_dest, PhysicalRegister.ZERO, outLabel));
 				case LT:
 					branch = (new Flt(l_node, r_node, flt_dest));
-					branch2 = (new Bne(flt_dest, "x0", outLabel));
+					branch2 = (new Bne(flt_dest, PhysicalRegister.ZERO, outLabel));
 					break;
 				case LE:
 					branch = (new Fle(l_node, r_node, flt_dest));
-					branch2 = (new Bne(flt_dest, "x0", outLabel));
+					branch2 = (new Bne(flt_dest, PhysicalRegister.ZERO, outLabel));
 					break;
 				case GT:
 					branch = new Fle(r_node, l_node, flt_dest);
-					branch2 = (new Bne(flt_dest, "x0", outLabel));
+					branch2 = (new Bne(flt_dest, PhysicalRegister.ZERO, outLabel));
 					break;
 				case GE:
 					branch = new Flt(r_node, l_node, flt_dest);
-					branch2 = (new Bne(flt_dest, "x0", outLabel));
+					branch2 = (new Bne(flt_dest, PhysicalRegister.ZERO, outLabel));
 					break;
 				default:
 					break;
@@ -666,12 +681,12 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		
 		// Generating code
 		co.code.add(new Label(loopLabel));
-		co.code.addAll(cond.getCode());
+		co.code.splice(cond.code);
 		co.code.add(branch);
 		if (branch2 != null){
 			co.code.add(branch2);
 		}
-		co.code.addAll(slist.getCode());
+		co.code.splice(slist.code);
 		co.code.add(new J(loopLabel));
 		co.code.add(new Label(outLabel));
 		/* MODIFY THIS TO GENERATE 3AC */
@@ -698,13 +713,13 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 
 		/* FILL IN FROM STEP 4*/
 		
-		co.code.addAll(retExpr.getCode());
+		co.code.splice(retExpr.code);
 
 		if (retExpr.getType() == Scope.Type.INT) {
-        	co.code.add(new Sw(retExpr.temp, "fp", "8"));
+        	co.code.add(new Sw(retExpr.temp, returnValueSlot));
     	}
 	 	else if (retExpr.getType() == Scope.Type.FLOAT) {
-        	co.code.add(new Fsw(retExpr.temp, "fp", "8"));
+        	co.code.add(new Fsw(retExpr.temp, returnValueSlot));
     	}
 
 		co.code.add(new J(generateFunctionOutLabel()));
@@ -720,6 +735,7 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 	protected void preprocess(FunctionNode node) {
 		// Generate function label information, used for other labels inside function
 		currFunc = node.getFuncName();
+		currFuncOutLabel = context.getLabels().get("func_ret_" + currFunc);
 
 		//reset register counts; each function uses new registers!
 		intRegCount = 0;
@@ -755,27 +771,27 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 	protected CodeObject postprocess(FunctionNode node, CodeObject body) {
 		CodeObject co = new CodeObject();
 
-		RegisterAllocator ra = new RegisterAllocator(numIntRegisters, body, node.getScope());
-		body = ra.run();
+		Function f = new Function(node.getFuncName(), node.getScope(), body, generateFunctionOutLabel());
+		passes.run(f);
 
 		/* FILL IN FROM STEP 4*/
 		co.code.add(new Label(generateFunctionLabel(node.getFuncName())));
-		co.code.add(new Sw("fp", "sp", "0"));
-		co.code.add(new Mv("sp", "fp"));
-		co.code.add(new Addi("sp", "-4", "sp"));
+		co.code.add(new Sw(PhysicalRegister.FP, PhysicalRegister.SP, Immediate.ZERO));
+		co.code.add(new Mv(PhysicalRegister.SP, PhysicalRegister.FP));
+		co.code.add(new Addi(PhysicalRegister.SP, Immediate.of(-4), PhysicalRegister.SP));
 
 		int totalFrameSize = node.getScope().getNumLocals() * -4;  // Assuming 4 bytes for each local variable
-		co.code.add(new Addi("sp", Integer.toString(totalFrameSize), "sp"));
+		co.code.add(new Addi(PhysicalRegister.SP, Immediate.of(totalFrameSize), PhysicalRegister.SP));
 
 		int intCount = 0;
 		int floatCount = 0;
 
-		List<String> intRegs = new ArrayList<>();
-		List<String> floatRegs = new ArrayList<>();
+		List<PhysicalRegister> intRegs = new ArrayList<>();
+		List<PhysicalRegister> floatRegs = new ArrayList<>();
 
-		List<String> usedRegs = ra.getUsedRegs();
-		for (String reg : usedRegs) {
-			if (reg.startsWith("x")) {
+		List<PhysicalRegister> usedRegs = f.getUsedRegisters();
+		for (PhysicalRegister reg : usedRegs) {
+			if (reg.getRegClass() == Operand.RegClass.INT) {
 				intRegs.add(reg);
 				intCount++;
 			}
@@ -787,38 +803,44 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 
 		// Save integer registers
 		for (int i = 0; i < intCount; i++) {
-			co.code.add(new Sw(intRegs.get(i), "sp", "0"));
-			co.code.add(new Addi("sp", "-4", "sp"));
+			co.code.add(new Sw(intRegs.get(i), PhysicalRegister.SP, Immediate.ZERO));
+			co.code.add(new Addi(PhysicalRegister.SP, Immediate.of(-4), PhysicalRegister.SP));
 		}
 		// Save floating-point registers
 		for (int i = 0; i < floatCount; i++) {
-			co.code.add(new Fsw(floatRegs.get(i), "sp", "0"));  // Assuming 4 bytes per float register
-			co.code.add(new Addi("sp", "-4", "sp"));
+			co.code.add(new Fsw(floatRegs.get(i), PhysicalRegister.SP, Immediate.ZERO));  // Assuming 4 bytes per float register
+			co.code.add(new Addi(PhysicalRegister.SP, Immediate.of(-4), PhysicalRegister.SP));
 		}
 
-		co.code.addAll(body.getCode());
+		co.code.splice(body.code);
 
-		String funcOutLabel = generateFunctionOutLabel();
+		LabelRef funcOutLabel = generateFunctionOutLabel();
 		co.code.add(new Label(funcOutLabel));
 
 		// Restore floating-point registers
 		for (int i = floatCount - 1; i >= 0; i--) {
-			co.code.add(new Addi("sp", "4", "sp"));	
-			co.code.add(new Flw(floatRegs.get(i), "sp", "0"));
+			co.code.add(new Addi(PhysicalRegister.SP, Immediate.of(4), PhysicalRegister.SP));	
+			co.code.add(new Flw(floatRegs.get(i), PhysicalRegister.SP, Immediate.ZERO));
 		}
 
 		// Restore integer registers
 		for (int i = intCount - 1; i >= 0; i--) {
-			co.code.add(new Addi("sp", "4", "sp"));
-			co.code.add(new Lw(intRegs.get(i), "sp", "0"));
+			co.code.add(new Addi(PhysicalRegister.SP, Immediate.of(4), PhysicalRegister.SP));
+			co.code.add(new Lw(intRegs.get(i), PhysicalRegister.SP, Immediate.ZERO));
 		}
 		
-		co.code.add(new Mv("fp", "sp"));
-		co.code.add(new Lw("fp", "fp", "0"));
+		co.code.add(new Mv(PhysicalRegister.FP, PhysicalRegister.SP));
+		co.code.add(new Lw(PhysicalRegister.FP, PhysicalRegister.FP, Immediate.ZERO));
 		co.code.add(new Ret());
 
 		co.lval = false;
 		co.type = body.getType();
+
+		//this function is done: write it out and don't hold on to its code
+		emitter.emit(co.code);
+		emitter.emit(new Blank());
+		co.code = new InstructionList();
+
 		/** ADD REGISTER ALLOCATION HERE
 		 * 
 		 * You may find it useful to do this in the following way:
@@ -858,23 +880,30 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 	 * Step 3: Insert a HALT
 	 * 
 	 * Step 4: Include all the code of the functions
+	 * 
+	 * Steps 1-3 are emitted before any function is visited; each function emits
+	 * its own code when it is finished (see postprocess(FunctionNode)).
 	 */
 	@Override
-	protected CodeObject postprocess(FunctionListNode node, List<CodeObject> funcs) {
-		CodeObject co = new CodeObject();
+	protected void preprocess(FunctionListNode node) {
+		InstructionList il = new InstructionList();
 
-		co.code.add(new Mv("sp", "fp"));
-		co.code.add(new Jr(generateFunctionLabel("main")));
-		co.code.add(new Halt());
-		co.code.add(new Blank());
+		il.add(new Mv(PhysicalRegister.SP, PhysicalRegister.FP));
+		il.add(new Jr(generateFunctionLabel("main")));
+		il.add(new Halt());
+		il.add(new Blank());
 
-		//add code for each of the functions
-		for (CodeObject c : funcs) {
-			co.code.addAll(c.code);
-			co.code.add(new Blank());
-		}
+		emitter.emit(il);
+	}
 
-		return co;
+	@Override
+	protected CodeObject postprocess(FunctionListNode node, List<CodeObject> funcs) {
+		//all of the code has already been emitted
+		passes.finish();
+		if (context.timesPasses()) {
+			passes.printStatistics(context.getDiagnostics());
+		}
+		return new CodeObject();
 	}
 
 	/**
@@ -911,38 +940,38 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		// Add each arg into the stack
 		for (CodeObject c: args){
 
-			co.code.addAll(c.getCode());
+			co.code.splice(c.code);
 
 			if (c.getType() == Scope.Type.FLOAT){
-				co.code.add(new Fsw(c.temp, "sp", "0"));
+				co.code.add(new Fsw(c.temp, PhysicalRegister.SP, Immediate.ZERO));
 			}
 			else{
-				co.code.add(new Sw(c.temp, "sp", "0"));
+				co.code.add(new Sw(c.temp, PhysicalRegister.SP, Immediate.ZERO));
 			}
-			co.code.add(new Addi("sp", "-4", "sp"));
+			co.code.add(new Addi(PhysicalRegister.SP, Immediate.of(-4), PhysicalRegister.SP));
 		}
 
 		// Save space for Return Value
-		co.code.add(new Addi("sp", "-4", "sp"));
+		co.code.add(new Addi(PhysicalRegister.SP, Immediate.of(-4), PhysicalRegister.SP));
 		
 		// Push return address onto stack
-		co.code.add(new Sw("ra", "sp", "0"));
-		co.code.add(new Addi("sp", "-4", "sp"));
+		co.code.add(new Sw(PhysicalRegister.RA, PhysicalRegister.SP, Immediate.ZERO));
+		co.code.add(new Addi(PhysicalRegister.SP, Immediate.of(-4), PhysicalRegister.SP));
 		
 		co.code.add(new Jr(generateFunctionLabel(node.getFuncName())));
-		co.code.add(new Addi("sp", "4", "sp"));
+		co.code.add(new Addi(PhysicalRegister.SP, Immediate.of(4), PhysicalRegister.SP));
 		
 		// Pop return address off of stack
-		co.code.add(new Lw("ra", "sp", "0"));
-		co.code.add(new Addi("sp", "4", "sp"));
-		String newTemp = generateTemp(node.getType());
+		co.code.add(new Lw(PhysicalRegister.RA, PhysicalRegister.SP, Immediate.ZERO));
+		co.code.add(new Addi(PhysicalRegister.SP, Immediate.of(4), PhysicalRegister.SP));
+		Operand newTemp = generateTemp(node.getType());
 		if (node.getType() == Scope.Type.FLOAT) {
-			co.code.add(new Flw(newTemp, "sp", "0"));
+			co.code.add(new Flw(newTemp, PhysicalRegister.SP, Immediate.ZERO));
 		}
 		else {
-			co.code.add(new Lw(newTemp, "sp", "0"));
+			co.code.add(new Lw(newTemp, PhysicalRegister.SP, Immediate.ZERO));
 		}
-		co.code.add(new Addi("sp", String.valueOf(args.size() * 4), "sp"));
+		co.code.add(new Addi(PhysicalRegister.SP, Immediate.of(args.size() * 4), PhysicalRegister.SP));
 
 		co.lval = false;
 		co.temp = newTemp;
@@ -955,38 +984,38 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 	/**
 	 * Generate a fresh temporary
 	 * 
-	 * @return new temporary register name
+	 * @return new temporary register
 	 */
-	protected String generateTemp(Scope.Type t) {
+	protected Operand generateTemp(Scope.Type t) {
 		switch(t) {
-			case INT: return intTempPrefix + String.valueOf(++intRegCount);
-			case FLOAT: return floatTempPrefix + String.valueOf(++floatRegCount);
+			case INT: return new VirtualRegister(Operand.RegClass.INT, ++intRegCount);
+			case FLOAT: return new VirtualRegister(Operand.RegClass.FLOAT, ++floatRegCount);
 			default: throw new Error("Generating temp for bad type");
 		}
 	}
 
-	protected String generateLoopLabel() {
-		return "loop_" + String.valueOf(++loopLabel);
+	protected LabelRef generateLoopLabel() {
+		return context.getLabels().create("loop_");
 	}
 
-	protected String generateElseLabel() {
-		return  "else_" + String.valueOf(++elseLabel);
+	protected LabelRef generateElseLabel() {
+		return context.getLabels().create("else_");
 	}
 
-	protected String generateOutLabel() {
-		return "out_" +  String.valueOf(++outLabel);
+	protected LabelRef generateOutLabel() {
+		return context.getLabels().create("out_");
 	}
 
-	protected String generateFunctionLabel() {
-		return "func_" + currFunc;
+	protected LabelRef generateFunctionLabel() {
+		return generateFunctionLabel(currFunc);
 	}
 
-	protected String generateFunctionLabel(String func) {
-		return "func_" + func;
+	protected LabelRef generateFunctionLabel(String func) {
+		return functionLabels.computeIfAbsent(func, f -> context.getLabels().get("func_" + f));
 	}
 
-	protected String generateFunctionOutLabel() {
-		return "func_ret_" + currFunc;
+	protected LabelRef generateFunctionOutLabel() {
+		return currFuncOutLabel;
 	}
 	
 	/**
@@ -1005,19 +1034,19 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 		/* THIS WON'T BE NECESSARY IF YOU'RE GENERATING 3AC */
 
 		/* DON'T FORGET TO ADD CODE TO GENERATE LOADS FOR LOCAL VARIABLES */
-		String offset = "0";
-		String newTemp = "";
+		Operand offset = Immediate.ZERO;
+		Operand newTemp = null;
 		if (lco.isVar()) {
 			if (lco.getSTE().isLocal()) {
-				lco.temp = "fp";
-				offset = lco.getSTE().addressToString();
+				lco.temp = PhysicalRegister.FP;
+				offset = Immediate.of(lco.getSTE().getAddress());
 				lco.lval = false;
 				lco.type = lco.getSTE().getType();
 			}
 			else {
 				InstructionList il = generateAddrFromVariable(lco);
-				co.code.addAll(il);
 				lco.temp = il.getLast().getDest();
+				co.code.splice(il);
 				lco.type = lco.getSTE().getType();
 				lco.lval = false;
 			}
@@ -1057,7 +1086,6 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 
 		//Step 1:
 		SymbolTableEntry symbol = lco.getSTE();
-		String address = symbol.addressToString();
 
 		//Step 2:
 		Instruction compAddr = null;
@@ -1065,11 +1093,11 @@ public class CodeGenerator extends AbstractASTVisitor<CodeObject> {
 			//If local, address is offset
 			//need to load fp + offset
 			//addi tmp' fp offset
-			compAddr = new Addi("fp", address, generateTemp(Scope.Type.INT));
+			compAddr = new Addi(PhysicalRegister.FP, Immediate.of(symbol.getAddress()), generateTemp(Scope.Type.INT));
 		} else {
 			//If global, address in symbol table is the right location
 			//la tmp' addr //Register type needs to be an int
-			compAddr = new La(generateTemp(Scope.Type.INT), address);
+			compAddr = new La(generateTemp(Scope.Type.INT), Immediate.address(symbol.getAddress()));
 		}
 		il.add(compAddr); //add instruction to code object
 
@@ -3,6 +3,7 @@ package assembly;
 import java.io.StringWriter;
 import java.util.Collection;
 import assembly.instructions.Instruction;
+import assembly.instructions.Operand;
 import compiler.Scope;
 import compiler.Scope.SymbolTableEntry;
 
@@ -16,7 +17,8 @@ import compiler.Scope.SymbolTableEntry;
  */
 public class CodeObject {
 	InstructionList code;
-	String temp; //temporary where result of current code is stored
+	Operand temp; //temporary where result of current code is stored
+	Operand rightTemp; //for a comparison (CondNode), the temporary holding the right-hand side
 	Scope.Type type; //type of value stored in temp if rval, type of value in address if lval
 	boolean lval; //true if lvalue, false if rvalue
 	SymbolTableEntry ste; //null if there is no variable, non-null if there is a variable
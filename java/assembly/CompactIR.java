@@ -0,0 +1,447 @@
+package assembly;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import assembly.instructions.*;
+import assembly.instructions.Instruction.OpCode;
+import assembly.instructions.Instruction.Slot;
+
+/**
+ * A dense encoding of a function's code for very large functions.
+ *
+ * Instead of one object per instruction, the op code and the operand fields of
+ * instruction <code>i</code> are stored at index <code>i</code> of parallel
+ * <code>int</code> arrays. Temporaries are encoded in the operand id itself (as
+ * negative numbers); every other operand is interned into a pool, so a variable that
+ * appears a thousand times is one object and a thousand ints. The arrays are
+ * allocated a chunk at a time and never copied as they grow.
+ *
+ * Passes walk the code with a {@link Cursor}, which reads and rewrites fields in place
+ * without materializing {@link Instruction}s. {@link #toInstructionList()} converts
+ * back when the code has to be emitted.
+ */
+public class CompactIR {
+
+	static final private int CHUNK_BITS = 12;
+	static final private int CHUNK_SIZE = 1 << CHUNK_BITS;
+	static final private int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	static final public int NONE = -1; //operand id of an empty field; ids below it are temporaries
+
+	static final private OpCode[] opCodes = OpCode.values();
+	static final private Operand.RegClass[] regClasses = Operand.RegClass.values();
+
+	//one row per field; column i is instruction i
+	static final private int OP = 0;
+	static final private int DEST = 1;
+	static final private int SRC1 = 2;
+	static final private int SRC2 = 3;
+	static final private int LABEL = 4;
+	static final int FIELDS = 5;
+
+	private int[][][] chunks = new int[FIELDS][0][];
+	private int size = 0;
+
+	private final List<Operand> operands = new ArrayList<>();
+	private final Map<Operand, Integer> operandIds = new HashMap<>();
+	private final BitSet virtualOperands = new BitSet(); //pool ids of variables
+	private final Map<Integer, String> comments = new HashMap<>(); //text of Blank markers, by index
+
+	public CompactIR() {
+	}
+
+	/**
+	 * Encode <code>code</code>. The list is not modified.
+	 */
+	public CompactIR(InstructionList code) {
+		for (Instruction i : code) {
+			add(i);
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return Number of distinct operands in the pool (temporaries are not in it)
+	 */
+	public int getNumOperands() {
+		return operands.size();
+	}
+
+	/**
+	 * @return The id of <code>o</code> in the operand pool, adding it if it is new;
+	 * {@link #NONE} for null
+	 */
+	public int intern(Operand o) {
+		if (o == null) {
+			return NONE;
+		}
+		if (o instanceof VirtualRegister) {
+			VirtualRegister t = (VirtualRegister) o;
+			return temporary(t.getRegClass(), t.getNumber());
+		}
+		Integer id = operandIds.get(o);
+		if (id == null) {
+			id = operands.size();
+			operands.add(o);
+			operandIds.put(o, id);
+			if (o.isVirtual()) {
+				virtualOperands.set(id);
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * @return The id of temporary number <code>number</code> of class <code>regClass</code>
+	 */
+	static public int temporary(Operand.RegClass regClass, int number) {
+		return -2 - ((number << 1) | regClass.ordinal());
+	}
+
+	/**
+	 * @return The operand with id <code>id</code>, or null for {@link #NONE}. A
+	 * temporary is made anew on each call; passes that only need its class and number
+	 * should use {@link #getRegClass(int)} and {@link #getTempNumber(int)}
+	 */
+	public Operand getOperand(int id) {
+		if (id >= 0) {
+			return operands.get(id);
+		}
+		if (id == NONE) {
+			return null;
+		}
+		return new VirtualRegister(getRegClass(id), getTempNumber(id));
+	}
+
+	/**
+	 * @return true if operand <code>id</code> is a temporary ({@link VirtualRegister})
+	 */
+	static public boolean isTemporary(int id) {
+		return id < NONE;
+	}
+
+	/**
+	 * @return The number of temporary <code>id</code>
+	 */
+	static public int getTempNumber(int id) {
+		assert isTemporary(id);
+		return (-2 - id) >>> 1;
+	}
+
+	/**
+	 * @return The register class of operand <code>id</code>, without materializing it;
+	 * null for {@link #NONE}
+	 */
+	public Operand.RegClass getRegClass(int id) {
+		if (id < NONE) {
+			return regClasses[(-2 - id) & 1];
+		}
+		return (id == NONE) ? null : operands.get(id).getRegClass();
+	}
+
+	/**
+	 * @return true if operand <code>id</code> is a temporary or variable, without
+	 * materializing it
+	 */
+	public boolean isVirtual(int id) {
+		return (id < NONE) || (id >= 0 && virtualOperands.get(id));
+	}
+
+	public void add(Instruction i) {
+		if (i instanceof Phi) {
+			throw new UnsupportedOperationException("phis have no compact encoding");
+		}
+		if (i instanceof Blank) {
+			String comment = ((Blank) i).getComment();
+			if (!comment.isEmpty()) {
+				comments.put(size, comment);
+			}
+		}
+		add(i.getOC(), intern(i.getDest()), intern(i.getSrc1()), intern(i.getSrc2()), intern(i.getLabel()));
+	}
+
+	/**
+	 * Append an instruction given by op code and operand ids
+	 */
+	public void add(OpCode oc, int dest, int src1, int src2, int label) {
+		int chunk = size >>> CHUNK_BITS;
+		if (chunk == chunks[OP].length) {
+			for (int f = 0; f < FIELDS; f++) {
+				int[][] grown = new int[chunk + 1][];
+				System.arraycopy(chunks[f], 0, grown, 0, chunk); //copies chunk pointers only
+				grown[chunk] = new int[CHUNK_SIZE];
+				chunks[f] = grown;
+			}
+		}
+		int at = size & CHUNK_MASK;
+		chunks[OP][chunk][at] = oc.ordinal();
+		chunks[DEST][chunk][at] = dest;
+		chunks[SRC1][chunk][at] = src1;
+		chunks[SRC2][chunk][at] = src2;
+		chunks[LABEL][chunk][at] = label;
+		size++;
+	}
+
+	/**
+	 * Copy the fields of every instruction to <code>out</code> a field at a time: all
+	 * the op codes (as ordinals), then all the destinations, and so on
+	 */
+	void writeColumns(IntBuffer out) {
+		for (int f = 0; f < FIELDS; f++) {
+			for (int c = 0, left = size; left > 0; c++, left -= CHUNK_SIZE) {
+				out.put(chunks[f][c], 0, Math.min(left, CHUNK_SIZE));
+			}
+		}
+	}
+
+	/**
+	 * Fill an empty CompactIR with <code>n</code> instructions laid out as by
+	 * {@link #writeColumns(IntBuffer)}. Every pool id they use must already be interned
+	 */
+	void readColumns(IntBuffer in, int n) {
+		assert size == 0;
+		int numChunks = (n + CHUNK_SIZE - 1) >>> CHUNK_BITS;
+		for (int f = 0; f < FIELDS; f++) {
+			chunks[f] = new int[numChunks][];
+			for (int c = 0, left = n; left > 0; c++, left -= CHUNK_SIZE) {
+				chunks[f][c] = new int[CHUNK_SIZE];
+				in.get(chunks[f][c], 0, Math.min(left, CHUNK_SIZE));
+			}
+		}
+		size = n;
+	}
+
+	/**
+	 * Rewrite every op code <code>o</code> (an ordinal) as <code>map[o]</code>, where
+	 * -1 means there is no such op code
+	 */
+	void remapOpCodes(int[] map) {
+		for (int i = 0; i < size; i++) {
+			int o = get(OP, i);
+			if (o < 0 || o >= map.length || map[o] < 0) {
+				throw new IllegalArgumentException("instruction " + i + " has an unknown op code");
+			}
+			set(OP, i, map[o]);
+		}
+	}
+
+	/**
+	 * Check that every instruction has a known op code and only operand ids that are
+	 * temporaries, {@link #NONE} or in the pool
+	 *
+	 * @throws IllegalArgumentException At the first instruction that does not
+	 */
+	void checkFields() {
+		for (int i = 0; i < size; i++) {
+			int o = get(OP, i);
+			if (o < 0 || o >= opCodes.length) {
+				throw new IllegalArgumentException("instruction " + i + " has an unknown op code");
+			}
+			if (opCodes[o] == OpCode.PHI) {
+				throw new IllegalArgumentException("instruction " + i + " is a phi");
+			}
+			for (int f = DEST; f < FIELDS; f++) {
+				if (get(f, i) >= operands.size()) {
+					throw new IllegalArgumentException("instruction " + i + " uses operand " + get(f, i)
+							+ ", which is not in the pool");
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The comments of the {@link Blank} markers, by instruction index
+	 */
+	Map<Integer, String> getComments() {
+		return comments;
+	}
+
+	private int get(int field, int index) {
+		return chunks[field][index >>> CHUNK_BITS][index & CHUNK_MASK];
+	}
+
+	private void set(int field, int index, int value) {
+		chunks[field][index >>> CHUNK_BITS][index & CHUNK_MASK] = value;
+	}
+
+	static final private int[] fieldOfSlot = new int[Slot.values().length];
+	static final private InstructionDescriptor[] descriptors = new InstructionDescriptor[opCodes.length];
+	static {
+		fieldOfSlot[Slot.SRC1.ordinal()] = SRC1;
+		fieldOfSlot[Slot.SRC2.ordinal()] = SRC2;
+		fieldOfSlot[Slot.DEST.ordinal()] = DEST;
+		for (OpCode oc : opCodes) {
+			descriptors[oc.ordinal()] = InstructionDescriptor.of(oc);
+		}
+	}
+
+	static private int field(Slot s) {
+		return fieldOfSlot[s.ordinal()];
+	}
+
+	/**
+	 * @return A cursor positioned before the first instruction
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
+	/**
+	 * A position in the code. Call {@link #next()} to move to the first instruction; the
+	 * accessors then describe the instruction under the cursor.
+	 */
+	public class Cursor {
+		private int index = -1;
+
+		public boolean hasNext() {
+			return index + 1 < size;
+		}
+
+		/**
+		 * Move to the next instruction
+		 */
+		public void next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			index++;
+		}
+
+		/**
+		 * Move to instruction <code>i</code>
+		 */
+		public void seek(int i) {
+			if (i < 0 || i >= size) {
+				throw new IndexOutOfBoundsException(i);
+			}
+			index = i;
+		}
+
+		public int index() {
+			return index;
+		}
+
+		public OpCode getOC() {
+			return opCodes[get(OP, index)];
+		}
+
+		public InstructionDescriptor getDescriptor() {
+			return descriptors[get(OP, index)];
+		}
+
+		public int getOperandId(Slot s) {
+			return get(field(s), index);
+		}
+
+		public Operand getOperand(Slot s) {
+			return CompactIR.this.getOperand(getOperandId(s));
+		}
+
+		public boolean isTemporary(Slot s) {
+			return CompactIR.isTemporary(getOperandId(s));
+		}
+
+		public int getTempNumber(Slot s) {
+			return CompactIR.getTempNumber(getOperandId(s));
+		}
+
+		public Operand.RegClass getRegClass(Slot s) {
+			return CompactIR.this.getRegClass(getOperandId(s));
+		}
+
+		public void setOperandId(Slot s, int id) {
+			set(field(s), index, id);
+		}
+
+		public void setOperand(Slot s, Operand o) {
+			setOperandId(s, intern(o));
+		}
+
+		public int getLabelId() {
+			return get(LABEL, index);
+		}
+
+		public Operand getLabel() {
+			return CompactIR.this.getOperand(getLabelId());
+		}
+
+		/**
+		 * @return A new {@link Instruction} equal to the one under the cursor
+		 */
+		public Instruction toInstruction() {
+			return make(getOC(), getOperand(Slot.DEST), getOperand(Slot.SRC1), getOperand(Slot.SRC2), getLabel(), comments.get(index));
+		}
+	}
+
+	/**
+	 * @return The code as a list of {@link Instruction} objects
+	 */
+	public InstructionList toInstructionList() {
+		InstructionList code = new InstructionList();
+		for (Cursor c = cursor(); c.hasNext(); ) {
+			c.next();
+			code.add(c.toInstruction());
+		}
+		return code;
+	}
+
+	static private Instruction make(OpCode oc, Operand dest, Operand src1, Operand src2, Operand label, String comment) {
+		switch (oc) {
+			case LI: return new Li(dest, (Immediate) label);
+			case LA: return new La(dest, (Immediate) label);
+			case ADD: return new Add(src1, src2, dest);
+			case SUB: return new Sub(src1, src2, dest);
+			case DIV: return new Div(src1, src2, dest);
+			case MUL: return new Mul(src1, src2, dest);
+			case NEG: return new Neg(src1, dest);
+			case MV: return new Mv(src1, dest);
+			case ADDI: return new Addi(src1, src2, dest);
+			case LW: return new Lw(dest, src1, label);
+			case SW: return new Sw(dest, src1, label);
+			case PUTS: return new PutS(src1);
+			case PUTI: return new PutI(src1);
+			case GETI: return new GetI(dest);
+			case HALT: return new Halt();
+			case BEQ: return new Beq(src1, src2, (LabelRef) label);
+			case BGE: return new Bge(src1, src2, (LabelRef) label);
+			case BGT: return new Bgt(src1, src2, (LabelRef) label);
+			case BLE: return new Ble(src1, src2, (LabelRef) label);
+			case BLT: return new Blt(src1, src2, (LabelRef) label);
+			case BNE: return new Bne(src1, src2, (LabelRef) label);
+			case J: return new J((LabelRef) label);
+			case FADDS: return new FAdd(src1, src2, dest);
+			case FSUBS: return new FSub(src1, src2, dest);
+			case FDIVS: return new FDiv(src1, src2, dest);
+			case FMULS: return new FMul(src1, src2, dest);
+			case FMVS: return new FMv(src1, dest);
+			case FNEGS: return new FNeg(src1, dest);
+			case FLW: return new Flw(dest, src1, label);
+			case FSW: return new Fsw(dest, src1, label);
+			case GETF: return new GetF(dest);
+			case PUTF: return new PutF(src1);
+			case FIMMS: return new FImm(dest, (FloatImmediate) label);
+			case FLT: return new Flt(src1, src2, dest);
+			case FLE: return new Fle(src1, src2, dest);
+			case FEQ: return new Feq(src1, src2, dest);
+			case JR: return new Jr((LabelRef) label);
+			case RET: return new Ret();
+			case LABEL: return new Label((LabelRef) label);
+			case BLANK: return (comment == null) ? new Blank() : new Blank(comment);
+			case PUSHI: return new PushInt(src1);
+			case PUSHF: return new PushFloat(src1);
+			case POPI: return new PopInt(dest);
+			case POPF: return new PopFloat(dest);
+			case PHI: throw new UnsupportedOperationException("phis have no compact encoding");
+			default: throw new Error("Shouldn't get here");
+		}
+	}
+}
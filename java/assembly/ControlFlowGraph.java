@@ -0,0 +1,332 @@
+package assembly;
+
+import java.io.StringWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import assembly.instructions.Instruction;
+import assembly.instructions.InstructionDescriptor;
+import assembly.instructions.J;
+import assembly.instructions.Label;
+import assembly.instructions.LabelRef;
+
+/**
+ * The control-flow graph of a function body.
+ *
+ * Built in one pass over the code: a block starts at a label (unless the block so
+ * far holds nothing but labels) and after any terminator. Each label passed is told
+ * its block ({@link LabelRef#setBlock}), so afterwards each branch is linked to its
+ * target by reading a field. A branch to a label outside the body (such as the
+ * function's return label) and anything that falls off the end goes to the exit block.
+ *
+ * The graph can be edited in place with {@link #splitEdges}, which keeps blocks,
+ * edges, labels and program order consistent; {@link #toCode()} then gives the code.
+ */
+public class ControlFlowGraph {
+
+	static final public Analysis<ControlFlowGraph> ANALYSIS = new Analysis<ControlFlowGraph>() {
+		public String getName() {
+			return "cfg";
+		}
+
+		public ControlFlowGraph compute(Function f, PassManager pm) {
+			return new ControlFlowGraph(f.getCode());
+		}
+	};
+
+	private final BasicBlock entry;
+	private final BasicBlock exit;
+	private BasicBlock first; //program order, without entry and exit
+	private BasicBlock last;
+	private int nextId;
+	private Map<LabelRef, BasicBlock> labels; //only if a later graph has taken over the labels
+	private List<BasicBlock> blocks; //program order; both computed on first use after a change
+	private List<BasicBlock> rpo;
+
+	/**
+	 * Split <code>code</code> into blocks. The instructions are copied into the blocks;
+	 * <code>code</code> itself is left alone.
+	 */
+	public ControlFlowGraph(InstructionList code) {
+		entry = new BasicBlock(this, 0);
+
+		List<BasicBlock> blocks = new ArrayList<>();
+		BasicBlock current = null;
+		boolean onlyLabels = false;
+		boolean terminated = false;
+		for (Instruction inst : code) {
+			InstructionDescriptor desc = inst.getDescriptor();
+			if (current == null || terminated || (desc.isLabel() && !onlyLabels)) {
+				current = new BasicBlock(this, blocks.size() + 1);
+				blocks.add(current);
+				onlyLabels = true;
+			}
+			if (desc.isLabel()) {
+				((LabelRef) inst.getLabel()).setBlock(current);
+			} else {
+				onlyLabels = false;
+			}
+			current.getCode().add(inst);
+			terminated = desc.isTerminator();
+		}
+
+		exit = new BasicBlock(this, blocks.size() + 1);
+		nextId = blocks.size() + 2;
+		for (int i = 0; i < blocks.size(); i++) {
+			BasicBlock b = blocks.get(i);
+			b.layoutPrev = (i > 0) ? blocks.get(i - 1) : null;
+			b.layoutNext = (i + 1 < blocks.size()) ? blocks.get(i + 1) : null;
+		}
+		first = blocks.isEmpty() ? null : blocks.get(0);
+		last = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+
+		entry.addSuccessor(blocks.isEmpty() ? exit : blocks.get(0));
+		for (int i = 0; i < blocks.size(); i++) {
+			BasicBlock b = blocks.get(i);
+			BasicBlock next = (i + 1 < blocks.size()) ? blocks.get(i + 1) : exit;
+			InstructionDescriptor desc = b.getLast().getDescriptor();
+
+			if (desc.isBranch()) {
+				BasicBlock target = getBlock((LabelRef) b.getLast().getLabel());
+				b.addSuccessor(target != null ? target : exit);
+			}
+			if (desc.isConditional() || !desc.isTerminator()) {
+				b.addSuccessor(next);
+			} else if (!desc.isBranch()) {
+				b.addSuccessor(exit); //RET, HALT
+			}
+		}
+	}
+
+	public BasicBlock getEntry() {
+		return entry;
+	}
+
+	public BasicBlock getExit() {
+		return exit;
+	}
+
+	/**
+	 * @return The blocks holding code, in program order. Concatenating their code gives
+	 * back the original code, as edited by {@link #splitEdges}
+	 */
+	public List<BasicBlock> getBlocks() {
+		if (blocks == null) {
+			List<BasicBlock> order = new ArrayList<>();
+			for (BasicBlock b = first; b != null; b = b.layoutNext) {
+				order.add(b);
+			}
+			blocks = Collections.unmodifiableList(order);
+		}
+		return blocks;
+	}
+
+	/**
+	 * @return One more than the largest block id, for arrays indexed by id. Blocks
+	 * added by {@link #splitEdges} get ids after the exit's
+	 */
+	public int size() {
+		return nextId;
+	}
+
+	/**
+	 * @return The code of the blocks in program order (the blocks keep their code)
+	 */
+	public InstructionList toCode() {
+		InstructionList code = new InstructionList();
+		for (BasicBlock b = first; b != null; b = b.layoutNext) {
+			code.addAll(b.getCode());
+		}
+		return code;
+	}
+
+	/**
+	 * Put a new block, starting with <code>label</code>, on the edges into
+	 * <code>t</code> from each block in <code>from</code> (which may include the entry):
+	 * those edges now go to the new block, and it goes on to <code>t</code>.
+	 *
+	 * Branches to <code>t</code> are retargeted. The new block ends in a jump to
+	 * <code>t</code> (labelling <code>t</code> with <code>label</code>_target if it has
+	 * no label), so that building a graph from {@link #toCode()} gives the same blocks.
+	 * If nothing falls through to <code>t</code>, or what does is one of
+	 * <code>from</code>, the new block goes right before <code>t</code>. Otherwise it
+	 * goes at the end of the code, and a jump to <code>returnLabel</code> is added so
+	 * that the old last block does not fall into it. Phis are not updated.
+	 *
+	 * @return The new block
+	 */
+	public BasicBlock splitEdges(BasicBlock t, Collection<BasicBlock> from, LabelRef label, LabelRef returnLabel) {
+		BasicBlock n = new BasicBlock(this, nextId++);
+		n.getCode().add(new Label(label));
+		label.setBlock(n);
+
+		BasicBlock fallsThrough = (t == first) ? entry : t.layoutPrev;
+		if (fallsThrough != entry && !fallsInto(fallsThrough, t)) {
+			fallsThrough = null;
+		}
+
+		for (BasicBlock p : from) {
+			if (p != entry) {
+				Instruction jump = p.getLast();
+				if (jump.getDescriptor().isBranch() && getBlock((LabelRef) jump.getLabel()) == t) {
+					jump.setLabel(label);
+				}
+			}
+			p.successors.set(p.successors.indexOf(t), n);
+			t.predecessors.remove(p);
+			n.predecessors.add(p);
+		}
+		n.successors.add(t);
+		t.predecessors.add(n);
+		n.getCode().add(new J(labelOf(t, label)));
+
+		if (fallsThrough == null || from.contains(fallsThrough)) {
+			n.layoutPrev = t.layoutPrev;
+			n.layoutNext = t;
+			if (t.layoutPrev == null) {
+				first = n;
+			} else {
+				t.layoutPrev.layoutNext = n;
+			}
+			t.layoutPrev = n;
+		} else {
+			if (fallsInto(last, exit)) {
+				if (!last.getLast().getDescriptor().isTerminator()) {
+					last.getCode().add(new J(returnLabel));
+				} else {
+					//a conditional branch: its fall-through edge gets a block of its own
+					BasicBlock cap = new BasicBlock(this, nextId++);
+					cap.getCode().add(new J(returnLabel));
+					if (getBlock((LabelRef) last.getLast().getLabel()) != null) {
+						last.successors.set(last.successors.indexOf(exit), cap);
+						exit.predecessors.remove(last);
+					} else {
+						last.successors.add(cap); //it branches to the exit as well
+					}
+					cap.predecessors.add(last);
+					cap.successors.add(exit);
+					exit.predecessors.add(cap);
+					append(cap);
+				}
+			}
+			append(n);
+		}
+		blocks = null;
+		rpo = null;
+		labels = null;
+		return n;
+	}
+
+	/**
+	 * @return true if control can reach <code>s</code> by running off the bottom of
+	 * <code>b</code>, where <code>s</code> is next in program order (or the exit)
+	 */
+	private boolean fallsInto(BasicBlock b, BasicBlock s) {
+		InstructionDescriptor desc = b.getLast().getDescriptor();
+		return b.successors.contains(s) && (desc.isConditional() || !desc.isTerminator());
+	}
+
+	private void append(BasicBlock b) {
+		b.layoutPrev = last;
+		b.layoutNext = null;
+		if (last == null) {
+			first = b;
+		} else {
+			last.layoutNext = b;
+		}
+		last = b;
+	}
+
+	/**
+	 * @return A label at the top of <code>b</code>, adding one from the table of
+	 * <code>hint</code> if it has none
+	 */
+	private LabelRef labelOf(BasicBlock b, LabelRef hint) {
+		if (b.getCode().getFirst().getDescriptor().isLabel()) {
+			return (LabelRef) b.getCode().getFirst().getLabel();
+		}
+		LabelRef label = hint.getTable().create("target_");
+		InstructionList code = new InstructionList();
+		code.add(new Label(label));
+		code.addAll(b.getCode());
+		b.setCode(code);
+		label.setBlock(b);
+		return label;
+	}
+
+	/**
+	 * @return The block that <code>label</code> starts, or null if it is not in this function
+	 */
+	public BasicBlock getBlock(LabelRef label) {
+		BasicBlock b = label.getBlock();
+		if (b != null && b.graph == this) {
+			return b;
+		}
+		if (b == null || label.getDefinition() == null) {
+			return null; //not defined in any graph
+		}
+		//another graph has been built over this code since: fall back to our own index
+		if (labels == null) {
+			labels = new HashMap<>();
+			for (BasicBlock block : getBlocks()) {
+				for (Instruction i : block.getCode()) {
+					if (i.getDescriptor().isLabel()) {
+						labels.put((LabelRef) i.getLabel(), block);
+					}
+				}
+			}
+		}
+		return labels.get(label);
+	}
+
+	/**
+	 * @return The blocks reachable from the entry, each before all of its successors
+	 * except along back edges. Forward dataflow problems converge fastest in this
+	 * order, backward ones in its reverse
+	 */
+	public List<BasicBlock> reversePostOrder() {
+		if (rpo == null) {
+			List<BasicBlock> order = new ArrayList<>(size());
+			boolean[] visited = new boolean[size()];
+			Deque<BasicBlock> stack = new ArrayDeque<>();
+			Deque<Integer> nextEdge = new ArrayDeque<>();
+
+			visited[entry.getId()] = true;
+			stack.push(entry);
+			nextEdge.push(0);
+			while (!stack.isEmpty()) {
+				BasicBlock b = stack.peek();
+				int i = nextEdge.pop();
+				if (i < b.successors.size()) {
+					nextEdge.push(i + 1);
+					BasicBlock s = b.successors.get(i);
+					if (!visited[s.getId()]) {
+						visited[s.getId()] = true;
+						stack.push(s);
+						nextEdge.push(0);
+					}
+				} else {
+					stack.pop();
+					order.add(b);
+				}
+			}
+			Collections.reverse(order);
+			rpo = Collections.unmodifiableList(order);
+		}
+		return rpo;
+	}
+
+	public String toString() {
+		StringWriter sw = new StringWriter();
+		for (BasicBlock b : reversePostOrder()) {
+			sw.write(b + " -> " + b.successors + "\n");
+		}
+		return sw.toString();
+	}
+}
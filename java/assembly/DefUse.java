@@ -0,0 +1,109 @@
+package assembly;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import assembly.instructions.Instruction;
+import assembly.instructions.Instruction.Slot;
+import assembly.instructions.Operand;
+import assembly.instructions.Phi;
+
+/**
+ * Where each temporary and variable of a {@link ControlFlowGraph} is defined and used,
+ * and which block each instruction is in.
+ *
+ * Built in one scan over the blocks; an operand's definitions and uses are listed in
+ * program order. A phi uses each of its arguments. In SSA form every value has one
+ * definition, so its uses are exactly its def-use chain, and the definition a use
+ * reads is {@link #getDef(Operand)}. Outside SSA form the lists are per operand, not
+ * per definition: which definition reaches which use is not worked out here.
+ */
+public class DefUse {
+
+	static final public Analysis<DefUse> ANALYSIS = new Analysis<DefUse>() {
+		public String getName() {
+			return "def-use";
+		}
+
+		public DefUse compute(Function f, PassManager pm) {
+			return new DefUse(pm.getAnalysis(ControlFlowGraph.ANALYSIS, f));
+		}
+	};
+
+	private final Map<Operand, List<Instruction>> defs = new HashMap<>();
+	private final Map<Operand, List<Instruction>> uses = new HashMap<>();
+	private final Map<Instruction, BasicBlock> blockOf = new IdentityHashMap<>();
+
+	public DefUse(ControlFlowGraph cfg) {
+		for (BasicBlock b : cfg.getBlocks()) {
+			for (Instruction inst : b.getCode()) {
+				blockOf.put(inst, b);
+				if (inst instanceof Phi) {
+					for (Operand arg : ((Phi) inst).getArgs()) {
+						if (inst.is3AC(arg)) {
+							add(uses, arg, inst);
+						}
+					}
+				} else {
+					for (Slot s : inst.uses()) {
+						if (inst.is3AC(s)) {
+							add(uses, inst.getOperand(s), inst);
+						}
+					}
+				}
+				for (Slot s : inst.defs()) {
+					if (inst.is3AC(s)) {
+						add(defs, inst.getOperand(s), inst);
+					}
+				}
+			}
+		}
+	}
+
+	static private void add(Map<Operand, List<Instruction>> map, Operand o, Instruction inst) {
+		List<Instruction> list = map.get(o);
+		if (list == null) {
+			list = new ArrayList<>(2);
+			map.put(o, list);
+		}
+		if (list.isEmpty() || list.get(list.size() - 1) != inst) { //an instruction reading o twice is listed once
+			list.add(inst);
+		}
+	}
+
+	/**
+	 * @return The instructions that write <code>o</code>, in program order
+	 */
+	public List<Instruction> getDefs(Operand o) {
+		List<Instruction> list = defs.get(o);
+		return (list == null) ? Collections.emptyList() : Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * @return The instructions that read <code>o</code>, in program order
+	 */
+	public List<Instruction> getUses(Operand o) {
+		List<Instruction> list = uses.get(o);
+		return (list == null) ? Collections.emptyList() : Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * @return The only instruction that writes <code>o</code>, or null if there is none
+	 * or more than one
+	 */
+	public Instruction getDef(Operand o) {
+		List<Instruction> list = defs.get(o);
+		return (list != null && list.size() == 1) ? list.get(0) : null;
+	}
+
+	/**
+	 * @return The block <code>inst</code> is in, or null if it is not in the graph
+	 */
+	public BasicBlock getBlock(Instruction inst) {
+		return blockOf.get(inst);
+	}
+}
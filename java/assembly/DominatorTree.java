@@ -0,0 +1,187 @@
+package assembly;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Dominator tree and dominance frontiers of a {@link ControlFlowGraph}.
+ *
+ * Immediate dominators are computed with the iterative algorithm of Cooper, Harvey
+ * and Kennedy ("A Simple, Fast Dominance Algorithm"): blocks are visited in reverse
+ * postorder and each block's dominator is the nearest common ancestor of its
+ * processed predecessors, found by walking up the partial tree. On the reducible
+ * graphs our code generator produces this converges in two passes. The tree is then
+ * numbered in pre- and postorder so that {@link #dominates(BasicBlock, BasicBlock)}
+ * is O(1).
+ *
+ * Blocks that cannot be reached from the entry are not in the tree.
+ */
+public class DominatorTree {
+
+	static final public Analysis<DominatorTree> ANALYSIS = new Analysis<DominatorTree>() {
+		public String getName() {
+			return "dominators";
+		}
+
+		public DominatorTree compute(Function f, PassManager pm) {
+			return new DominatorTree(pm.getAnalysis(ControlFlowGraph.ANALYSIS, f));
+		}
+	};
+
+	private final ControlFlowGraph cfg;
+	private final BasicBlock[] idom;          //by block id; null if unreachable, entry for the entry
+	private final List<List<BasicBlock>> children;
+	private final int[] pre;                  //preorder number in the tree, -1 if unreachable
+	private final int[] post;
+	private List<List<BasicBlock>> frontiers; //computed on first use
+
+	public DominatorTree(ControlFlowGraph cfg) {
+		this.cfg = cfg;
+		int n = cfg.size();
+		idom = new BasicBlock[n];
+		List<BasicBlock> rpo = cfg.reversePostOrder();
+		int[] rpoNumber = new int[n];
+		for (int i = 0; i < rpo.size(); i++) {
+			rpoNumber[rpo.get(i).getId()] = i;
+		}
+
+		BasicBlock entry = cfg.getEntry();
+		idom[entry.getId()] = entry;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = 1; i < rpo.size(); i++) {
+				BasicBlock b = rpo.get(i);
+				BasicBlock newIdom = null;
+				for (BasicBlock p : b.predecessors) {
+					if (idom[p.getId()] == null) {
+						continue; //not processed yet (or unreachable)
+					}
+					newIdom = (newIdom == null) ? p : intersect(p, newIdom, rpoNumber);
+				}
+				if (idom[b.getId()] != newIdom) {
+					idom[b.getId()] = newIdom;
+					changed = true;
+				}
+			}
+		}
+
+		children = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			children.add(new ArrayList<>(2));
+		}
+		for (BasicBlock b : rpo) {
+			if (b != entry) {
+				children.get(idom[b.getId()].getId()).add(b);
+			}
+		}
+
+		pre = new int[n];
+		post = new int[n];
+		Arrays.fill(pre, -1);
+		Arrays.fill(post, -1);
+		int preCount = 0;
+		int postCount = 0;
+		Deque<BasicBlock> stack = new ArrayDeque<>();
+		Deque<Integer> nextChild = new ArrayDeque<>();
+		stack.push(entry);
+		nextChild.push(0);
+		pre[entry.getId()] = preCount++;
+		while (!stack.isEmpty()) {
+			BasicBlock b = stack.peek();
+			int i = nextChild.pop();
+			List<BasicBlock> kids = children.get(b.getId());
+			if (i < kids.size()) {
+				nextChild.push(i + 1);
+				BasicBlock c = kids.get(i);
+				pre[c.getId()] = preCount++;
+				stack.push(c);
+				nextChild.push(0);
+			} else {
+				stack.pop();
+				post[b.getId()] = postCount++;
+			}
+		}
+	}
+
+	private BasicBlock intersect(BasicBlock a, BasicBlock b, int[] rpoNumber) {
+		while (a != b) {
+			while (rpoNumber[a.getId()] > rpoNumber[b.getId()]) {
+				a = idom[a.getId()];
+			}
+			while (rpoNumber[b.getId()] > rpoNumber[a.getId()]) {
+				b = idom[b.getId()];
+			}
+		}
+		return a;
+	}
+
+	public ControlFlowGraph getGraph() {
+		return cfg;
+	}
+
+	/**
+	 * @return The immediate dominator of <code>b</code>; null for the entry and for
+	 * unreachable blocks
+	 */
+	public BasicBlock getIdom(BasicBlock b) {
+		return (b == cfg.getEntry()) ? null : idom[b.getId()];
+	}
+
+	/**
+	 * @return The blocks <code>b</code> immediately dominates
+	 */
+	public List<BasicBlock> getChildren(BasicBlock b) {
+		return Collections.unmodifiableList(children.get(b.getId()));
+	}
+
+	public boolean isReachable(BasicBlock b) {
+		return pre[b.getId()] >= 0;
+	}
+
+	/**
+	 * @return true if every path from the entry to <code>b</code> goes through
+	 * <code>a</code> (including when they are the same block)
+	 */
+	public boolean dominates(BasicBlock a, BasicBlock b) {
+		return isReachable(a) && isReachable(b)
+				&& pre[a.getId()] <= pre[b.getId()] && post[b.getId()] <= post[a.getId()];
+	}
+
+	/**
+	 * @return The dominance frontier of <code>b</code>: the blocks where its dominance
+	 * ends, which is where definitions in <code>b</code> meet other definitions
+	 */
+	public List<BasicBlock> getFrontier(BasicBlock b) {
+		if (frontiers == null) {
+			computeFrontiers();
+		}
+		return Collections.unmodifiableList(frontiers.get(b.getId()));
+	}
+
+	private void computeFrontiers() {
+		int n = cfg.size();
+		frontiers = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			frontiers.add(new ArrayList<>(2));
+		}
+		for (BasicBlock b : cfg.reversePostOrder()) {
+			if (b.predecessors.size() < 2) {
+				continue;
+			}
+			BasicBlock stop = idom[b.getId()];
+			for (BasicBlock p : b.predecessors) {
+				for (BasicBlock runner = p; isReachable(runner) && runner != stop; runner = idom[runner.getId()]) {
+					List<BasicBlock> df = frontiers.get(runner.getId());
+					if (df.isEmpty() || df.get(df.size() - 1) != b) { //each b is added by one outer iteration
+						df.add(b);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package assembly;
+
+import java.util.Collections;
+import java.util.List;
+
+import assembly.instructions.LabelRef;
+import assembly.instructions.PhysicalRegister;
+import compiler.LocalScope;
+
+/**
+ * A function on its way through the back end: its code, its scope, and what the
+ * passes have found out about it that the prologue and epilogue need.
+ */
+public class Function {
+
+	private final String name;
+	private final LocalScope scope;
+	private final CodeObject body;
+	private final LabelRef returnLabel;
+	private List<PhysicalRegister> usedRegisters = Collections.emptyList();
+
+	/**
+	 * @param returnLabel Where the epilogue will be; the code jumps there to return
+	 */
+	public Function(String name, LocalScope scope, CodeObject body, LabelRef returnLabel) {
+		this.name = name;
+		this.scope = scope;
+		this.body = body;
+		this.returnLabel = returnLabel;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public LocalScope getScope() {
+		return scope;
+	}
+
+	public LabelRef getReturnLabel() {
+		return returnLabel;
+	}
+
+	public CodeObject getBody() {
+		return body;
+	}
+
+	public InstructionList getCode() {
+		return body.code;
+	}
+
+	/**
+	 * Replace the code. Passes that rewrite the code must say which analyses survive
+	 * (see {@link FunctionPass#preserves(Analysis)})
+	 */
+	public void setCode(InstructionList code) {
+		body.code = code;
+	}
+
+	/**
+	 * @return The registers the function's code writes, which it has to save and restore
+	 */
+	public List<PhysicalRegister> getUsedRegisters() {
+		return usedRegisters;
+	}
+
+	public void setUsedRegisters(List<PhysicalRegister> regs) {
+		this.usedRegisters = regs;
+	}
+}
@@ -0,0 +1,470 @@
+package assembly;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import assembly.instructions.FloatImmediate;
+import assembly.instructions.Immediate;
+import assembly.instructions.Instruction.OpCode;
+import assembly.instructions.LabelRef;
+import assembly.instructions.LabelTable;
+import assembly.instructions.Operand;
+import assembly.instructions.PhysicalRegister;
+import assembly.instructions.StackSlot;
+import assembly.instructions.Variable;
+import compiler.GlobalScope;
+import compiler.LocalScope;
+import compiler.Scope;
+import compiler.Scope.SymbolTableEntry;
+
+/**
+ * A function saved in a binary file: its code, either as 3AC before register
+ * allocation or as machine code after it, and the layout of its frame, so that it
+ * can be reloaded (by another run, a benchmark, or whoever is looking at a bug
+ * report) without the source program.
+ *
+ * The code is stored as a {@link CompactIR}. The file holds a header, the operand
+ * pool and the symbols it needs, and then the instruction fields as a block of ints,
+ * one field at a time. {@link #read(Path)} maps the file and copies that block
+ * straight into the CompactIR's arrays, a chunk at a time; nothing is parsed per
+ * instruction. All numbers are big-endian.
+ *
+ * <pre>
+ * int    magic "UCIR", format version
+ * int    number of op codes, then the name of each (by ordinal, when written)
+ * string function name, return label, scope name
+ * int    number of arguments and locals, then each: int id, byte type, int offset, string name
+ * int    number of globals (functions and strings too), then each: int id, byte type, int address, string name
+ * int    number of used registers, then each: byte register class, int number
+ * int    number of pool operands, then each: byte kind, then the kind's fields
+ * int    number of comments, then each: int instruction index, string text
+ * int    number of instructions, padding to a multiple of 4 bytes, then the fields
+ * </pre>
+ *
+ * A string is an int byte count and that many bytes of UTF-8. Op codes are saved by
+ * name, so files stay readable when op codes are added or reordered; anything else
+ * that changes the layout must bump {@link #VERSION}. Functions in SSA form cannot be
+ * saved.
+ *
+ * Labels the compiler generated (see {@link LabelTable#create(String)}) are saved with
+ * their prefix and loaded as new labels with that prefix, numbered afresh when they
+ * are printed; only fixed names, such as function entry points, are looked up by
+ * name. So a loaded <code>loop_3</code> is never taken for a <code>loop_3</code>
+ * that the compilation it is loaded into has already made.
+ */
+public class FunctionImage {
+
+	static final private int MAGIC = 0x55434952; //"UCIR"
+	static final public int VERSION = 1;
+
+	//kinds of pool operands (temporaries are encoded in the instruction fields)
+	static final private byte IMMEDIATE = 0;     //long value, byte is address
+	static final private byte FLOAT_IMMEDIATE = 1; //string literal
+	static final private byte LABEL = 2;         //string name
+	static final private byte PHYSICAL = 3;      //byte register class, int number
+	static final private byte VARIABLE = 4;      //int id, byte type, int address, byte is local, string name
+	static final private byte STACK_SLOT = 5;    //int offset
+	static final private byte GENERATED_LABEL = 6; //string prefix, string name
+
+	private final String name;
+	private final LabelRef returnLabel;
+	private final LocalScope scope;
+	private final List<PhysicalRegister> usedRegisters;
+	private final CompactIR code;
+
+	/**
+	 * Take an image of <code>f</code> as it is now
+	 */
+	public FunctionImage(Function f) {
+		this(f.getName(), f.getReturnLabel(), f.getScope(), f.getUsedRegisters(), new CompactIR(f.getCode()));
+	}
+
+	private FunctionImage(String name, LabelRef returnLabel, LocalScope scope, List<PhysicalRegister> usedRegisters,
+			CompactIR code) {
+		this.name = name;
+		this.returnLabel = returnLabel;
+		this.scope = scope;
+		this.usedRegisters = usedRegisters;
+		this.code = code;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public LabelRef getReturnLabel() {
+		return returnLabel;
+	}
+
+	public LocalScope getScope() {
+		return scope;
+	}
+
+	public List<PhysicalRegister> getUsedRegisters() {
+		return Collections.unmodifiableList(usedRegisters);
+	}
+
+	public CompactIR getCode() {
+		return code;
+	}
+
+	/**
+	 * @return A new function with this image's scope and a copy of its code, ready to
+	 * go through the back end's passes
+	 */
+	public Function toFunction() {
+		Function f = new Function(name, scope, new CodeObject(), returnLabel);
+		f.setCode(code.toInstructionList());
+		f.setUsedRegisters(usedRegisters);
+		return f;
+	}
+
+	/**
+	 * Write the image to <code>file</code>, replacing it if it exists
+	 */
+	public void write(Path file) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(bytes);
+
+		header.writeInt(MAGIC);
+		header.writeInt(VERSION);
+		OpCode[] opCodes = OpCode.values();
+		header.writeInt(opCodes.length);
+		for (OpCode oc : opCodes) {
+			writeString(header, oc.name());
+		}
+
+		writeString(header, name);
+		writeString(header, returnLabel.getName());
+		writeString(header, scope.getName());
+		header.writeInt(scope.getEntries().size());
+		for (SymbolTableEntry ste : scope.getEntries()) {
+			header.writeInt(ste.getId());
+			header.writeByte(ste.getType().ordinal());
+			header.writeInt(ste.getAddress());
+			writeString(header, ste.getName());
+		}
+
+		Scope globals = scope.getParent();
+		header.writeInt((globals == null) ? 0 : globals.getEntries().size());
+		if (globals != null) {
+			for (SymbolTableEntry ste : globals.getEntries()) {
+				header.writeInt(ste.getId());
+				header.writeByte(ste.getType().ordinal());
+				header.writeInt(ste.getAddress());
+				writeString(header, ste.getName());
+			}
+		}
+
+		header.writeInt(usedRegisters.size());
+		for (PhysicalRegister r : usedRegisters) {
+			header.writeByte(r.getRegClass().ordinal());
+			header.writeInt(r.getNumber());
+		}
+
+		header.writeInt(code.getNumOperands());
+		for (int id = 0; id < code.getNumOperands(); id++) {
+			writeOperand(header, code.getOperand(id));
+		}
+
+		header.writeInt(code.getComments().size());
+		for (Map.Entry<Integer, String> e : code.getComments().entrySet()) {
+			header.writeInt(e.getKey());
+			writeString(header, e.getValue());
+		}
+
+		header.writeInt(code.size());
+		while (header.size() % 4 != 0) {
+			header.writeByte(0);
+		}
+		header.flush();
+
+		ByteBuffer fields = ByteBuffer.allocate(code.size() * CompactIR.FIELDS * 4);
+		code.writeColumns(fields.asIntBuffer());
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer head = ByteBuffer.wrap(bytes.toByteArray());
+			while (head.hasRemaining()) {
+				channel.write(head);
+			}
+			while (fields.hasRemaining()) {
+				channel.write(fields);
+			}
+		}
+	}
+
+	static private void writeOperand(DataOutputStream out, Operand o) throws IOException {
+		if (o instanceof Immediate) {
+			out.writeByte(IMMEDIATE);
+			out.writeLong(((Immediate) o).getValue());
+			out.writeBoolean(((Immediate) o).isAddress());
+		} else if (o instanceof FloatImmediate) {
+			out.writeByte(FLOAT_IMMEDIATE);
+			writeString(out, o.toString());
+		} else if (o instanceof LabelRef) {
+			LabelRef label = (LabelRef) o;
+			if (label.getPrefix() == null) {
+				out.writeByte(LABEL);
+			} else {
+				out.writeByte(GENERATED_LABEL);
+				writeString(out, label.getPrefix());
+			}
+			writeString(out, label.getName());
+		} else if (o instanceof PhysicalRegister) {
+			out.writeByte(PHYSICAL);
+			out.writeByte(o.getRegClass().ordinal());
+			out.writeInt(((PhysicalRegister) o).getNumber());
+		} else if (o instanceof Variable) {
+			SymbolTableEntry ste = ((Variable) o).getSymbol();
+			out.writeByte(VARIABLE);
+			out.writeInt(ste.getId());
+			out.writeByte(ste.getType().ordinal());
+			out.writeInt(ste.getAddress());
+			out.writeBoolean(ste.isLocal());
+			writeString(out, ste.getName());
+		} else if (o instanceof StackSlot) {
+			out.writeByte(STACK_SLOT);
+			out.writeInt(((StackSlot) o).getOffset());
+		} else {
+			throw new IllegalArgumentException("cannot save operand " + o + " (is the function in SSA form?)");
+		}
+	}
+
+	static private void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	/**
+	 * Load an image from a file, which is memory-mapped rather than read, with labels
+	 * of its own
+	 */
+	public static FunctionImage read(Path file) throws IOException {
+		return read(file, new LabelTable());
+	}
+
+	/**
+	 * Load an image from a file, interning its labels in <code>labels</code> (that of
+	 * the compilation it will be part of, so that labels made later do not clash)
+	 */
+	public static FunctionImage read(Path file, LabelTable labels) throws IOException {
+		ByteBuffer data;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(file + " is too large to be a function image");
+			}
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); //stays valid after close
+		}
+		return read(data, labels);
+	}
+
+	/**
+	 * Load an image from <code>data</code>, starting at its position
+	 *
+	 * @throws IOException If the data is not a function image of this version, or is
+	 * cut short or corrupt
+	 */
+	public static FunctionImage read(ByteBuffer data, LabelTable labels) throws IOException {
+		try {
+			return decode(data.slice(), labels);
+		} catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+			throw new IOException("truncated function image", e);
+		}
+	}
+
+	static private FunctionImage decode(ByteBuffer in, LabelTable labels) throws IOException {
+		if (in.getInt() != MAGIC) {
+			throw new IOException("not a function image");
+		}
+		int version = in.getInt();
+		if (version != VERSION) {
+			throw new IOException("function image version " + version + " is not supported (expected " + VERSION + ")");
+		}
+
+		int numOpCodes = readCount(in, 4);
+		int[] opCodeMap = new int[numOpCodes];
+		boolean remap = numOpCodes != OpCode.values().length;
+		for (int i = 0; i < numOpCodes; i++) {
+			String oc = readString(in);
+			try {
+				opCodeMap[i] = OpCode.valueOf(oc).ordinal();
+			} catch (IllegalArgumentException e) {
+				opCodeMap[i] = -1; //removed since: only an error if an instruction uses it
+			}
+			remap |= opCodeMap[i] != i;
+		}
+
+		String name = readString(in);
+		LabelRef returnLabel = labels.get(readString(in));
+		GlobalScope globals = new GlobalScope(0, 0);
+		LocalScope scope = new LocalScope(globals);
+		scope.setName(readString(in));
+		Map<Integer, SymbolTableEntry> symbols = new HashMap<>(); //by id
+		Scope.Type[] types = Scope.Type.values();
+		for (int n = readCount(in, 13); n > 0; n--) {
+			int id = in.getInt();
+			Scope.Type type = readEnum(in, types);
+			int address = in.getInt();
+			symbols.put(id, scope.restoreSymbol(type, readString(in), address, true, id));
+		}
+
+		for (int n = readCount(in, 13); n > 0; n--) {
+			int id = in.getInt();
+			Scope.Type type = readEnum(in, types);
+			int address = in.getInt();
+			symbols.put(id, globals.restoreSymbol(type, readString(in), address, false, id));
+		}
+
+		List<PhysicalRegister> usedRegisters = new ArrayList<>();
+		for (int n = readCount(in, 5); n > 0; n--) {
+			Operand.RegClass regClass = readEnum(in, Operand.RegClass.values());
+			int number = in.getInt();
+			usedRegisters.add((regClass == Operand.RegClass.INT) ? PhysicalRegister.intReg(number)
+					: PhysicalRegister.floatReg(number));
+		}
+
+		CompactIR code = new CompactIR();
+		Map<String, LabelRef> generated = new HashMap<>(); //by saved name
+		for (int n = readCount(in, 1); n > 0; n--) {
+			code.intern(readOperand(in, symbols, globals, labels, generated));
+		}
+		Map<Integer, String> comments = code.getComments();
+		for (int n = readCount(in, 8); n > 0; n--) {
+			int index = in.getInt();
+			comments.put(index, readString(in));
+		}
+
+		int size = in.getInt();
+		if (size < 0) {
+			throw new IOException("corrupt function image: " + size + " instructions");
+		}
+		int start = (in.position() + 3) & ~3;
+		if (start > in.limit()) {
+			throw new IOException("truncated function image");
+		}
+		in.position(start);
+		IntBuffer fields = in.asIntBuffer();
+		if (size > fields.remaining() / CompactIR.FIELDS) {
+			throw new IOException("truncated function image");
+		}
+		code.readColumns(fields, size);
+		try {
+			if (remap) {
+				code.remapOpCodes(opCodeMap);
+			}
+			code.checkFields();
+		} catch (IllegalArgumentException e) {
+			throw new IOException("corrupt function image: " + e.getMessage(), e);
+		}
+
+		return new FunctionImage(name, returnLabel, scope, usedRegisters, code);
+	}
+
+	static private Operand readOperand(ByteBuffer in, Map<Integer, SymbolTableEntry> symbols, GlobalScope globals,
+			LabelTable labels, Map<String, LabelRef> generated) throws IOException {
+		byte kind = in.get();
+		switch (kind) {
+			case IMMEDIATE: {
+				long value = in.getLong();
+				return (in.get() != 0) ? Immediate.address(value) : Immediate.of(value);
+			}
+			case FLOAT_IMMEDIATE:
+				return new FloatImmediate(readString(in));
+			case LABEL:
+				return labels.get(readString(in));
+			case GENERATED_LABEL: {
+				String prefix = readString(in);
+				return generated.computeIfAbsent(readString(in), n -> labels.create(prefix));
+			}
+			case PHYSICAL: {
+				Operand.RegClass regClass = readEnum(in, Operand.RegClass.values());
+				int number = in.getInt();
+				return (regClass == Operand.RegClass.INT) ? PhysicalRegister.intReg(number)
+						: PhysicalRegister.floatReg(number);
+			}
+			case VARIABLE: {
+				int id = in.getInt();
+				Scope.Type type = readEnum(in, Scope.Type.values());
+				int address = in.getInt();
+				boolean isLocal = in.get() != 0;
+				String name = readString(in);
+				SymbolTableEntry ste = symbols.get(id);
+				if (ste == null) {
+					ste = globals.restoreSymbol(type, name, address, isLocal, id);
+				}
+				return new Variable(ste);
+			}
+			case STACK_SLOT:
+				return new StackSlot(in.getInt());
+			default:
+				throw new IOException("unknown operand kind " + kind);
+		}
+	}
+
+	static private String readString(ByteBuffer in) throws IOException {
+		byte[] b = new byte[readCount(in, 1)];
+		in.get(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Read a count of things that take at least <code>minBytes</code> each, so that a
+	 * corrupt count fails here rather than in an allocation of that size
+	 */
+	static private int readCount(ByteBuffer in, int minBytes) throws IOException {
+		int n = in.getInt();
+		if (n < 0) {
+			throw new IOException("corrupt function image: count " + n + " at byte " + (in.position() - 4));
+		}
+		if ((long) n * minBytes > in.remaining()) {
+			throw new IOException("truncated function image");
+		}
+		return n;
+	}
+
+	static private <E> E readEnum(ByteBuffer in, E[] values) throws IOException {
+		int i = in.get();
+		if (i < 0 || i >= values.length) {
+			throw new IOException("corrupt function image: " + values[0].getClass().getSimpleName() + " " + i
+					+ " at byte " + (in.position() - 1));
+		}
+		return values[i];
+	}
+
+	/**
+	 * Print saved functions: the frame layout, then the code
+	 *
+	 * usage: FunctionImage &lt;image file&gt;...
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("usage: FunctionImage <image file>...");
+			System.exit(2);
+		}
+		for (String file : args) {
+			FunctionImage image = read(Paths.get(file));
+			System.out.println("; " + file + ": function " + image.getName() + ", " + image.getCode().size()
+					+ " instructions, used registers " + image.getUsedRegisters());
+			image.getScope().printTable(System.out);
+			System.out.print(image.getCode().toInstructionList());
+			System.out.println(image.getReturnLabel() + ":");
+			System.out.println();
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package assembly;
+
+/**
+ * A transformation or lowering step that the {@link PassManager} runs on each function
+ */
+public abstract class FunctionPass {
+
+	private final String name;
+
+	protected FunctionPass(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Run the pass on <code>f</code>
+	 *
+	 * @return true if the code was changed. If not, every cached analysis is kept
+	 */
+	public abstract boolean run(Function f, PassManager pm);
+
+	/**
+	 * @return true if the result of <code>a</code> is still valid after this pass
+	 * changed the code. Nothing is preserved by default
+	 */
+	public boolean preserves(Analysis<?> a) {
+		return false;
+	}
+}
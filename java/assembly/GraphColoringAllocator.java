@@ -0,0 +1,904 @@
+package assembly;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import assembly.instructions.Blank;
+import assembly.instructions.Instruction;
+import assembly.instructions.Instruction.OpCode;
+import assembly.instructions.Instruction.Slot;
+import assembly.instructions.Operand;
+import assembly.instructions.Operand.RegClass;
+import assembly.instructions.PhysicalRegister;
+import assembly.instructions.Variable;
+import assembly.instructions.VirtualRegister;
+import compiler.CompilationContext;
+import compiler.Scope.SymbolTableEntry;
+import compiler.Scope.Type;
+
+/**
+ * Register allocation for a whole function by graph coloring with iterated register
+ * coalescing (George and Appel): slower than {@link LinearScanAllocator}, but it
+ * removes most of the copies the back end emits, and spills what is least used in
+ * loops.
+ *
+ * Each round builds the {@link InterferenceGraph} of the temporaries and variables,
+ * two of which interfere if one is written where the other is live (a copy does not
+ * make its source and destination interfere). Then, until the graph is empty:
+ * <ul>
+ * <li>simplify: take out a node with fewer neighbors than there are registers of its
+ * class, and which no copy still might coalesce; it can be colored whatever its
+ * neighbors get.</li>
+ * <li>coalesce: merge the two ends of a copy that do not interfere, if the merged node
+ * has fewer neighbors of significant degree than there are registers (Briggs), so
+ * that the graph stays colorable; the copy goes away.</li>
+ * <li>freeze: give up coalescing the copies of a node of low degree, so it can be
+ * simplified.</li>
+ * <li>spill: take out the node with the least spill cost per neighbor, where each use
+ * or definition costs 10 to the power of its loop depth, in the hope that it can be
+ * colored anyway.</li>
+ * </ul>
+ * The nodes are colored in the reverse of the order they were taken out, preferring the
+ * color of a node they are copied to or from. Nodes that find no color are spilled: each
+ * of their uses loads a new temporary from memory, each definition stores one, and the
+ * next round starts over. A temporary gets a new frame slot as its home, and a variable
+ * keeps its own.
+ *
+ * Before that, each global is renamed to a temporary of the function, and the code
+ * is given the loads and stores that keep it in step with memory: at entry and after
+ * each call it is loaded (if it is read before being written), and before each call
+ * and on the way out it is stored (if it may have been written since). Variables live
+ * on entry are loaded at entry. A spilled value needs none of these, since it is
+ * always in memory. Registers survive calls, since the callee saves the ones it uses.
+ */
+public class GraphColoringAllocator {
+
+	static final private int MAX_ROUNDS = 64;
+
+	//where each node is; worklist entries that no longer match are skipped
+	static final private int INITIAL = 0;
+	static final private int SIMPLIFY = 1;  //low degree, not move-related
+	static final private int FREEZE = 2;    //low degree, move-related
+	static final private int SPILL = 3;     //high degree
+	static final private int SELECTED = 4;  //on the select stack
+	static final private int COALESCED = 5; //merged into alias[node]
+	static final private int COLORED = 6;
+	static final private int SPILLED = 7;
+
+	//where each copy is
+	static final private int WORKLIST = 0;  //may be coalesced
+	static final private int ACTIVE = 1;    //not yet ready to be coalesced
+	static final private int MERGED = 2;    //coalesced
+	static final private int CONSTRAINED = 3; //its ends interfere
+	static final private int FROZEN = 4;    //no longer considered
+
+	private final Function f;
+	private final ControlFlowGraph cfg;      //of the code as it comes in
+	private final Liveness initialLiveness;  //over cfg
+	private final LoopInfo loops;            //over cfg
+	private final PhysicalRegister[] intRegs;   //allocatable, by color
+	private final PhysicalRegister[] floatRegs;
+	private final BitSet usedInt = new BitSet(); //by color
+	private final BitSet usedFloat = new BitSet();
+	private int nextTemp;
+
+	private final Map<Operand, SymbolTableEntry> homes = new HashMap<>(); //temporaries standing for globals, and spilled ones
+	private final Set<Operand> unspillable = new HashSet<>(); //temporaries made by spilling, which live for one instruction
+	private final Map<Instruction, Integer> loopDepth = new IdentityHashMap<>(); //of the block of cfg each instruction comes from
+	private final Map<Instruction, Operand> syncs = new IdentityHashMap<>(); //loads and stores keeping an operand in step with memory
+	private final Map<Instruction, Instruction> partners = new IdentityHashMap<>(); //a sync load or store -> the La of its address
+
+	//one round
+	private Liveness liveness;
+	private InterferenceGraph graph;
+	private boolean[] isFloat;
+	private int[] degree;
+	private int[] state;
+	private int[] alias;
+	private int[] color;
+	private double[] cost;
+	private int[][] moveList;  //by node: the copies it is an end of
+	private int[] numMoves;
+	private IntList moveSrc;   //by copy
+	private IntList moveDest;
+	private IntList moveState;
+	private IntList simplifyWorklist;
+	private IntList freezeWorklist;
+	private IntList spillWorklist;
+	private IntList worklistMoves;
+	private IntList selectStack;
+	private int[] seen; //stamps, for unions of neighbor sets
+	private int stamp;
+
+	public GraphColoringAllocator(CompilationContext context, Function f, ControlFlowGraph cfg, Liveness liveness,
+			LoopInfo loops) {
+		this.f = f;
+		this.cfg = cfg;
+		this.initialLiveness = liveness;
+		this.loops = loops;
+		List<PhysicalRegister> ints = new ArrayList<>();
+		for (int i = 1; i < context.getNumIntRegisters(); i++) {
+			PhysicalRegister r = PhysicalRegister.intReg(i);
+			if (!r.equals(PhysicalRegister.RA) && !r.equals(PhysicalRegister.SP)
+					&& !r.equals(PhysicalRegister.FP) && !r.equals(RegisterAllocator.scratch)) {
+				ints.add(r);
+			}
+		}
+		intRegs = ints.toArray(new PhysicalRegister[ints.size()]);
+		floatRegs = new PhysicalRegister[context.getNumFloatRegisters()];
+		for (int i = 0; i < floatRegs.length; i++) {
+			floatRegs[i] = PhysicalRegister.floatReg(i);
+		}
+	}
+
+	/**
+	 * Allocate registers and make the result the function's code
+	 */
+	public void run() {
+		for (BasicBlock b : cfg.getBlocks()) {
+			for (Instruction inst : b.getCode()) {
+				for (Slot s : Slot.values()) {
+					Operand o = inst.getOperand(s);
+					if (o instanceof VirtualRegister) {
+						nextTemp = Math.max(nextTemp, ((VirtualRegister) o).getNumber() + 1);
+					}
+				}
+			}
+		}
+		InstructionList code = dropDeadLoads(lower(cfg, initialLiveness));
+
+		for (int round = 0; ; round++) {
+			if (round == MAX_ROUNDS) {
+				throw new Error("register allocation: too few registers to color " + f.getName());
+			}
+			ControlFlowGraph g = new ControlFlowGraph(code);
+			build(g, new Liveness(g));
+			makeWorklist();
+			while (true) {
+				int n;
+				int m;
+				if ((n = next(simplifyWorklist, SIMPLIFY)) >= 0) {
+					simplify(n);
+				} else if ((m = nextMove()) >= 0) {
+					coalesce(m);
+				} else if ((n = next(freezeWorklist, FREEZE)) >= 0) {
+					freeze(n);
+				} else if ((n = selectSpill()) >= 0) {
+					spill(n);
+				} else {
+					break;
+				}
+			}
+			if (assignColors()) {
+				f.setCode(rewrite(g));
+				return;
+			}
+			code = rewriteSpills(g);
+		}
+	}
+
+	/**
+	 * @return The registers given out, which the function has to save and restore
+	 */
+	public List<PhysicalRegister> getUsedRegs() {
+		List<PhysicalRegister> list = new ArrayList<>();
+		for (int c = usedInt.nextSetBit(0); c >= 0; c = usedInt.nextSetBit(c + 1)) {
+			list.add(intRegs[c]);
+		}
+		for (int c = usedFloat.nextSetBit(0); c >= 0; c = usedFloat.nextSetBit(c + 1)) {
+			list.add(floatRegs[c]);
+		}
+		return list;
+	}
+
+	/**
+	 * Rename globals to temporaries, add the loads and stores that keep them and the
+	 * variables live on entry in step with memory, and turn assignments into copies
+	 */
+	private InstructionList lower(ControlFlowGraph cfg, Liveness liveness) {
+		Map<Operand, Operand> rename = new HashMap<>();
+		BitSet globals = new BitSet();
+		for (int v = 0; v < liveness.getNumOperands(); v++) {
+			Operand o = liveness.getOperand(v);
+			if (liveness.isGlobal(o)) {
+				Operand t = newTemp(o.getRegClass());
+				rename.put(o, t);
+				homes.put(t, ((Variable) o).getSymbol());
+				globals.set(v);
+			}
+		}
+		BitSet[] dirtyOut = RegisterAllocator.dirtyGlobals(cfg, liveness, globals);
+
+		InstructionList code = new InstructionList();
+		List<BasicBlock> blocks = cfg.getBlocks();
+		if (!blocks.isEmpty()) {
+			BitSet in = liveness.getLiveIn(blocks.get(0));
+			for (int v = in.nextSetBit(0); v >= 0; v = in.nextSetBit(v + 1)) {
+				Operand o = liveness.getOperand(v);
+				if (o instanceof Variable) {
+					Operand r = rename.getOrDefault(o, o);
+					sync(code, r, load(r, ((Variable) o).getSymbol()));
+				}
+			}
+		}
+		for (BasicBlock b : blocks) {
+			int depth = loops.getDepth(b);
+			BitSet dirty = RegisterAllocator.dirtyIn(b, dirtyOut);
+			boolean exits = b.successors.contains(cfg.getExit());
+			Instruction last = b.getLast();
+			for (Instruction inst : b.getCode()) {
+				boolean call = inst.getDescriptor().isCall();
+				if (call || (inst == last && exits && inst.getDescriptor().isTerminator())) {
+					storeDirty(code, liveness, rename, dirty); //the callee, or the caller, reads globals from memory
+				}
+				if (call) {
+					dirty.clear();
+				}
+				for (Slot s : inst.defs()) {
+					int v = liveness.indexOf(inst.getOperand(s));
+					if (v >= 0 && globals.get(v)) {
+						dirty.set(v);
+					}
+				}
+				boolean assignment = inst.isAssignment();
+				for (Slot s : Slot.values()) {
+					Operand r = rename.get(inst.getOperand(s));
+					if (r != null) {
+						inst.setOperand(s, r);
+					}
+				}
+				Instruction out = assignment ? RegisterAllocator.move(inst.getDest(), inst.getSrc1()) : inst;
+				code.add(out);
+				loopDepth.put(out, depth);
+				if (call) {
+					//the callee may have changed globals in memory
+					for (int g = globals.nextSetBit(0); g >= 0; g = globals.nextSetBit(g + 1)) {
+						SymbolTableEntry ste = ((Variable) liveness.getOperand(g)).getSymbol();
+						if (ste.getType() != Type.STRING) {
+							Operand r = rename.get(liveness.getOperand(g));
+							sync(code, r, load(r, ste));
+						}
+					}
+				}
+			}
+			if (exits && !last.getDescriptor().isTerminator()) {
+				storeDirty(code, liveness, rename, dirty);
+			}
+		}
+		return code;
+	}
+
+	private void storeDirty(InstructionList code, Liveness liveness, Map<Operand, Operand> rename, BitSet dirty) {
+		for (int g = dirty.nextSetBit(0); g >= 0; g = dirty.nextSetBit(g + 1)) {
+			Operand r = rename.get(liveness.getOperand(g));
+			sync(code, r, store(r, homes.get(r)));
+		}
+	}
+
+	private void sync(InstructionList code, Operand o, InstructionList seq) {
+		Instruction first = seq.isEmpty() ? null : seq.getFirst();
+		Instruction last = seq.isEmpty() ? null : seq.getLast();
+		for (Instruction inst : seq) {
+			syncs.put(inst, o);
+		}
+		if (first != last) {
+			partners.put(last, first);
+		}
+		code.splice(seq);
+	}
+
+	/**
+	 * @return <code>code</code> without the sync loads of values that are not read
+	 * before they are written again
+	 */
+	private InstructionList dropDeadLoads(InstructionList code) {
+		ControlFlowGraph cfg = new ControlFlowGraph(code);
+		Liveness live = new Liveness(cfg);
+		Set<Instruction> dead = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (BasicBlock b : cfg.getBlocks()) {
+			Liveness.Cursor lives = live.walk(b);
+			for (Instruction inst : b.getCode()) {
+				lives.advance();
+				Operand o = syncs.get(inst);
+				if (o != null && o.equals(inst.getDest()) && !inst.getDescriptor().isStore() && !lives.isLive(o)) {
+					dead.add(inst);
+					if (partners.containsKey(inst)) {
+						dead.add(partners.get(inst));
+					}
+				}
+			}
+		}
+		InstructionList out = new InstructionList();
+		for (BasicBlock b : cfg.getBlocks()) {
+			for (Instruction inst : b.getCode()) {
+				if (!dead.contains(inst)) {
+					out.add(inst);
+				}
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Build the interference graph and the copies of the code in <code>cfg</code>, and
+	 * the spill costs
+	 */
+	private void build(ControlFlowGraph cfg, Liveness liveness) {
+		this.liveness = liveness;
+		int n = liveness.getNumOperands();
+		graph = new InterferenceGraph(n);
+		isFloat = new boolean[n];
+		degree = new int[n];
+		state = new int[n];
+		alias = new int[n];
+		color = new int[n];
+		cost = new double[n];
+		moveList = new int[n][];
+		numMoves = new int[n];
+		moveSrc = new IntList();
+		moveDest = new IntList();
+		moveState = new IntList();
+		simplifyWorklist = new IntList();
+		freezeWorklist = new IntList();
+		spillWorklist = new IntList();
+		worklistMoves = new IntList();
+		selectStack = new IntList();
+		seen = new int[n];
+		stamp = 0;
+		for (int v = 0; v < n; v++) {
+			Operand o = liveness.getOperand(v);
+			isFloat[v] = o.getRegClass() == RegClass.FLOAT;
+			alias[v] = v;
+			if (unspillable.contains(o)) {
+				cost[v] = Double.POSITIVE_INFINITY;
+			}
+		}
+
+		int[] live = new int[n];  //the live set as a sparse set: its members...
+		int[] where = new int[n]; //...and each one's index among them, or -1
+		Arrays.fill(where, -1);
+		int size = 0;
+		for (BasicBlock b : cfg.getBlocks()) {
+			//the code added around the original instructions does not add branches, so each
+			//block here holds instructions of just one block of the code that came in
+			int depth = 0;
+			for (Instruction inst : b.getCode()) {
+				Integer d = loopDepth.get(inst);
+				if (d != null) {
+					depth = d;
+					break;
+				}
+			}
+			double weight = Math.pow(10, Math.min(depth, 8));
+			for (int k = 0; k < size; k++) {
+				where[live[k]] = -1;
+			}
+			size = 0;
+			BitSet out = liveness.getLiveOut(b);
+			for (int v = out.nextSetBit(0); v >= 0; v = out.nextSetBit(v + 1)) {
+				where[v] = size;
+				live[size++] = v;
+			}
+			InstructionList code = b.getCode();
+			Instruction[] insts = code.toArray(new Instruction[code.size()]);
+			for (int i = insts.length - 1; i >= 0; i--) {
+				Instruction inst = insts[i];
+				Slot[] defs = inst.defs();
+				Slot[] uses = inst.uses();
+				if (isCopy(inst)) {
+					int src = liveness.indexOf(inst.getSrc1());
+					int dest = liveness.indexOf(inst.getDest());
+					if (where[src] >= 0) { //a copy does not make its ends interfere
+						size = remove(live, where, size, src);
+					}
+					int m = moveState.size();
+					moveSrc.add(src);
+					moveDest.add(dest);
+					moveState.add(WORKLIST);
+					addMove(src, m);
+					addMove(dest, m);
+					worklistMoves.add(m);
+				}
+				for (Slot s : defs) {
+					int d = liveness.indexOf(inst.getOperand(s));
+					if (d < 0) {
+						continue;
+					}
+					for (int k = 0; k < size; k++) {
+						int l = live[k];
+						if (isFloat[l] == isFloat[d]) {
+							graph.addEdge(l, d);
+						}
+					}
+					cost[d] += weight;
+				}
+				for (Slot s : defs) {
+					int d = liveness.indexOf(inst.getOperand(s));
+					if (d >= 0 && where[d] >= 0) {
+						size = remove(live, where, size, d);
+					}
+				}
+				for (Slot s : uses) {
+					int u = liveness.indexOf(inst.getOperand(s));
+					if (u < 0) {
+						continue;
+					}
+					cost[u] += weight;
+					if (where[u] < 0) {
+						where[u] = size;
+						live[size++] = u;
+					}
+				}
+			}
+		}
+		for (int v = 0; v < n; v++) {
+			degree[v] = graph.degree(v);
+		}
+	}
+
+	static private int remove(int[] live, int[] where, int size, int v) {
+		int k = where[v];
+		int last = live[--size];
+		live[k] = last;
+		where[last] = k;
+		where[v] = -1;
+		return size;
+	}
+
+	private boolean isCopy(Instruction inst) {
+		return (inst.getOC() == OpCode.MV || inst.getOC() == OpCode.FMVS)
+				&& liveness.indexOf(inst.getSrc1()) >= 0 && liveness.indexOf(inst.getDest()) >= 0;
+	}
+
+	private void addMove(int v, int m) {
+		if (moveList[v] == null) {
+			moveList[v] = new int[2];
+		} else if (numMoves[v] == moveList[v].length) {
+			moveList[v] = Arrays.copyOf(moveList[v], numMoves[v] * 2);
+		}
+		moveList[v][numMoves[v]++] = m;
+	}
+
+	private int k(int v) {
+		return isFloat[v] ? floatRegs.length : intRegs.length;
+	}
+
+	private void makeWorklist() {
+		for (int v = 0; v < state.length; v++) {
+			if (degree[v] >= k(v)) {
+				moveTo(v, SPILL);
+			} else if (moveRelated(v)) {
+				moveTo(v, FREEZE);
+			} else {
+				moveTo(v, SIMPLIFY);
+			}
+		}
+	}
+
+	private void moveTo(int v, int s) {
+		if (state[v] == s && s != INITIAL) {
+			return;
+		}
+		state[v] = s;
+		switch (s) {
+			case SIMPLIFY: simplifyWorklist.add(v); break;
+			case FREEZE: freezeWorklist.add(v); break;
+			case SPILL: spillWorklist.add(v); break;
+			default: break;
+		}
+	}
+
+	/**
+	 * @return The next node on <code>list</code> that is still in state <code>s</code>, taken
+	 * off the list, or -1
+	 */
+	private int next(IntList list, int s) {
+		while (!list.isEmpty()) {
+			int v = list.pop();
+			if (state[v] == s) {
+				return v;
+			}
+		}
+		return -1;
+	}
+
+	private int nextMove() {
+		while (!worklistMoves.isEmpty()) {
+			int m = worklistMoves.pop();
+			if (moveState.get(m) == WORKLIST) {
+				return m;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return true if a copy of <code>v</code> may still be coalesced
+	 */
+	private boolean moveRelated(int v) {
+		for (int i = 0; i < numMoves[v]; i++) {
+			int s = moveState.get(moveList[v][i]);
+			if (s == WORKLIST || s == ACTIVE) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if <code>v</code> is still in the graph
+	 */
+	private boolean present(int v) {
+		return state[v] != SELECTED && state[v] != COALESCED;
+	}
+
+	private void simplify(int v) {
+		state[v] = SELECTED;
+		selectStack.add(v);
+		int[] adj = graph.neighbors(v);
+		for (int i = 0, d = graph.degree(v); i < d; i++) {
+			if (present(adj[i])) {
+				decrementDegree(adj[i]);
+			}
+		}
+	}
+
+	private void decrementDegree(int v) {
+		int d = degree[v]--;
+		if (d == k(v)) {
+			enableMoves(v);
+			int[] adj = graph.neighbors(v);
+			for (int i = 0, n = graph.degree(v); i < n; i++) {
+				if (present(adj[i])) {
+					enableMoves(adj[i]);
+				}
+			}
+			if (state[v] == SPILL) {
+				moveTo(v, moveRelated(v) ? FREEZE : SIMPLIFY);
+			}
+		}
+	}
+
+	private void enableMoves(int v) {
+		for (int i = 0; i < numMoves[v]; i++) {
+			int m = moveList[v][i];
+			if (moveState.get(m) == ACTIVE) {
+				moveState.set(m, WORKLIST);
+				worklistMoves.add(m);
+			}
+		}
+	}
+
+	private int getAlias(int v) {
+		while (state[v] == COALESCED) {
+			v = alias[v];
+		}
+		return v;
+	}
+
+	private void coalesce(int m) {
+		int u = getAlias(moveSrc.get(m));
+		int v = getAlias(moveDest.get(m));
+		if (u == v) {
+			moveState.set(m, MERGED);
+			addWorkList(u);
+		} else if (graph.interferes(u, v)) {
+			moveState.set(m, CONSTRAINED);
+			addWorkList(u);
+			addWorkList(v);
+		} else if (conservative(u, v)) {
+			moveState.set(m, MERGED);
+			if (numMoves[u] + graph.degree(u) < numMoves[v] + graph.degree(v)) {
+				int t = u; //keep the node with more to copy, so that nothing is copied over and over
+				u = v;
+				v = t;
+			}
+			combine(u, v);
+			addWorkList(u);
+		} else {
+			moveState.set(m, ACTIVE);
+		}
+	}
+
+	private void addWorkList(int v) {
+		if (state[v] == FREEZE && !moveRelated(v) && degree[v] < k(v)) {
+			moveTo(v, SIMPLIFY);
+		}
+	}
+
+	/**
+	 * @return true if merging <code>u</code> and <code>v</code> leaves a node with fewer
+	 * neighbors of significant degree than there are registers (Briggs)
+	 */
+	private boolean conservative(int u, int v) {
+		if (degree[u] + degree[v] < k(u)) {
+			return true; //too few neighbors left for enough of them to be significant
+		}
+		stamp++;
+		int significant = 0;
+		for (int x : new int[] {u, v}) {
+			int[] adj = graph.neighbors(x);
+			for (int i = 0, d = graph.degree(x); i < d; i++) {
+				int t = adj[i];
+				if (present(t) && seen[t] != stamp) {
+					seen[t] = stamp;
+					if (degree[t] >= k(t) && ++significant >= k(u)) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	private void combine(int u, int v) {
+		state[v] = COALESCED;
+		alias[v] = u;
+		cost[u] += cost[v];
+		for (int i = 0; i < numMoves[v]; i++) {
+			int m = moveList[v][i];
+			if (moveState.get(m) != MERGED && moveState.get(m) != CONSTRAINED) { //the rest are done with
+				addMove(u, m);
+			}
+		}
+		enableMoves(v);
+		int[] adj = graph.neighbors(v);
+		for (int i = 0, d = graph.degree(v); i < d; i++) {
+			int t = adj[i];
+			if (present(t)) {
+				if (graph.addEdge(t, u)) {
+					degree[t]++;
+					degree[u]++;
+				}
+				decrementDegree(t);
+			}
+		}
+		if (degree[u] >= k(u) && state[u] == FREEZE) {
+			moveTo(u, SPILL);
+		}
+	}
+
+	private void freeze(int v) {
+		moveTo(v, SIMPLIFY);
+		freezeMoves(v);
+	}
+
+	private void freezeMoves(int u) {
+		for (int i = 0; i < numMoves[u]; i++) {
+			int m = moveList[u][i];
+			int s = moveState.get(m);
+			if (s != WORKLIST && s != ACTIVE) {
+				continue;
+			}
+			int x = getAlias(moveSrc.get(m));
+			int y = getAlias(moveDest.get(m));
+			int v = (y == getAlias(u)) ? x : y;
+			moveState.set(m, FROZEN);
+			if (state[v] == FREEZE && !moveRelated(v) && degree[v] < k(v)) {
+				moveTo(v, SIMPLIFY);
+			}
+		}
+	}
+
+	/**
+	 * @return The node of high degree with the least spill cost per neighbor, or -1
+	 */
+	private int selectSpill() {
+		int best = -1;
+		double bestCost = 0;
+		stamp++;
+		int kept = 0;
+		for (int i = 0; i < spillWorklist.size(); i++) {
+			int v = spillWorklist.get(i);
+			if (state[v] != SPILL || seen[v] == stamp) {
+				continue; //no longer there, or already seen
+			}
+			seen[v] = stamp;
+			spillWorklist.set(kept++, v);
+			double c = cost[v] / degree[v];
+			if (best < 0 || c < bestCost) {
+				best = v;
+				bestCost = c;
+			}
+		}
+		spillWorklist.truncate(kept);
+		return best;
+	}
+
+	private void spill(int v) {
+		moveTo(v, SIMPLIFY);
+		freezeMoves(v);
+	}
+
+	/**
+	 * Color the nodes in the reverse of the order they were simplified
+	 *
+	 * @return true if every node got a color
+	 */
+	private boolean assignColors() {
+		boolean spilled = false;
+		BitSet ok = new BitSet();
+		while (!selectStack.isEmpty()) {
+			int v = selectStack.pop();
+			ok.clear();
+			ok.set(0, k(v));
+			int[] adj = graph.neighbors(v);
+			for (int i = 0, d = graph.degree(v); i < d; i++) {
+				int w = getAlias(adj[i]);
+				if (state[w] == COLORED) {
+					ok.clear(color[w]);
+				}
+			}
+			if (ok.isEmpty()) {
+				state[v] = SPILLED;
+				spilled = true;
+				continue;
+			}
+			int c = ok.nextSetBit(0);
+			for (int i = 0; i < numMoves[v]; i++) { //the color of a copy's other end, if it can have it
+				int m = moveList[v][i];
+				int x = getAlias(moveSrc.get(m));
+				int other = (x == v) ? getAlias(moveDest.get(m)) : x;
+				if (state[other] == COLORED && ok.get(color[other])) {
+					c = color[other];
+					break;
+				}
+			}
+			state[v] = COLORED;
+			color[v] = c;
+		}
+		return !spilled;
+	}
+
+	/**
+	 * @return The code of <code>cfg</code> with spill code for the spilled nodes, and
+	 * without their sync loads and stores
+	 */
+	private InstructionList rewriteSpills(ControlFlowGraph cfg) {
+		InstructionList code = new InstructionList();
+		Map<Operand, Operand> temps = new HashMap<>();
+		for (BasicBlock b : cfg.getBlocks()) {
+			for (Instruction inst : b.getCode()) {
+				Operand synced = syncs.get(inst);
+				if (synced != null && isSpilled(synced)) {
+					continue; //it is in memory all along
+				}
+				temps.clear();
+				for (Slot s : inst.uses()) {
+					Operand o = inst.getOperand(s);
+					if (isSpilled(o)) {
+						Operand t = temps.get(o);
+						if (t == null) {
+							t = newTemp(o.getRegClass());
+							unspillable.add(t);
+							temps.put(o, t);
+							code.splice(load(t, home(o)));
+						}
+						inst.setOperand(s, t);
+					}
+				}
+				List<Operand[]> stores = new ArrayList<>();
+				for (Slot s : inst.defs()) {
+					Operand o = inst.getOperand(s);
+					if (isSpilled(o)) {
+						Operand t = temps.get(o);
+						if (t == null) {
+							t = newTemp(o.getRegClass());
+							unspillable.add(t);
+							temps.put(o, t);
+						}
+						inst.setOperand(s, t);
+						stores.add(new Operand[] {t, o});
+					}
+				}
+				code.add(inst);
+				for (Operand[] st : stores) {
+					code.splice(store(st[0], home(st[1])));
+				}
+			}
+		}
+		return code;
+	}
+
+	private boolean isSpilled(Operand o) {
+		int v = liveness.indexOf(o);
+		return v >= 0 && state[getAlias(v)] == SPILLED;
+	}
+
+	/**
+	 * @return The code of <code>cfg</code> with registers in place of the operands
+	 */
+	private InstructionList rewrite(ControlFlowGraph cfg) {
+		InstructionList code = new InstructionList();
+		for (BasicBlock b : cfg.getBlocks()) {
+			code.add(new Blank("Start of BB"));
+			for (Instruction inst : b.getCode()) {
+				for (Slot s : Slot.values()) {
+					int v = liveness.indexOf(inst.getOperand(s));
+					if (v >= 0 && inst.is3AC(s)) {
+						inst.setOperand(s, register(v));
+					}
+				}
+				if ((inst.getOC() == OpCode.MV || inst.getOC() == OpCode.FMVS) && inst.getSrc1().equals(inst.getDest())) {
+					continue;
+				}
+				code.add(inst);
+			}
+			code.add(new Blank("End of BB"));
+		}
+		return code;
+	}
+
+	private PhysicalRegister register(int v) {
+		int c = color[getAlias(v)];
+		if (isFloat[v]) {
+			usedFloat.set(c);
+			return floatRegs[c];
+		}
+		usedInt.set(c);
+		return intRegs[c];
+	}
+
+	private Operand newTemp(RegClass regClass) {
+		return new VirtualRegister(regClass, nextTemp++);
+	}
+
+	private SymbolTableEntry home(Operand o) {
+		return RegisterAllocator.home(o, f.getScope(), homes);
+	}
+
+	private static InstructionList load(Operand dest, SymbolTableEntry ste) {
+		return RegisterAllocator.rvalify(dest, dest, ste.getType(), ste, null);
+	}
+
+	private static InstructionList store(Operand src, SymbolTableEntry ste) {
+		return RegisterAllocator.store(src, ste.getType(), ste);
+	}
+
+	/**
+	 * A growable array of ints, used as a stack or a list
+	 */
+	static private final class IntList {
+		private int[] a = new int[16];
+		private int size;
+
+		void add(int v) {
+			if (size == a.length) {
+				a = Arrays.copyOf(a, size * 2);
+			}
+			a[size++] = v;
+		}
+
+		int pop() {
+			return a[--size];
+		}
+
+		int get(int i) {
+			return a[i];
+		}
+
+		void set(int i, int v) {
+			a[i] = v;
+		}
+
+		int size() {
+			return size;
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		void truncate(int n) {
+			size = n;
+		}
+	}
+}
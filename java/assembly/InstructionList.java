@@ -1,55 +1,157 @@
 package assembly;
 
 import java.io.StringWriter;
+import java.util.AbstractCollection;
 import java.util.Collection;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.NoSuchElementException;
 
 import assembly.instructions.Instruction;
 
-public class InstructionList implements Collection<Instruction> {
+/**
+ * A doubly-linked list of instructions that can take over the contents of another
+ * list in constant time.
+ *
+ * Code generation builds each node's code by gluing together the code of its
+ * children. With {@link #splice(InstructionList)} that costs O(1) per child instead
+ * of a copy of every instruction at every level of the tree, so generating code for
+ * a program is linear in its size no matter how deeply it is nested.
+ */
+public class InstructionList extends AbstractCollection<Instruction> {
+
+	static private class Node {
+		Instruction inst;
+		Node prev;
+		Node next;
+
+		Node(Instruction inst) {
+			this.inst = inst;
+		}
+	}
+
+	private Node head;
+	private Node tail;
+	private int size;
+	private int modCount; //structural changes, to catch iterators that outlive a splice
 
-	
-	List<Instruction> nodes;
-	
 	InstructionList() {
-		nodes = new LinkedList<Instruction>();
+		head = null;
+		tail = null;
+		size = 0;
 	}
-		
+
 	@Override
 	public Iterator<Instruction> iterator() {
-		return nodes.iterator();
+		return new Iterator<Instruction>() {
+			private Node next = head;
+			private Node last = null;
+			private int expectedModCount = modCount;
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public Instruction next() {
+				if (modCount != expectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+				if (next == null) {
+					throw new NoSuchElementException();
+				}
+				last = next;
+				next = next.next;
+				return last.inst;
+			}
+
+			/**
+			 * Unlink the instruction last returned by next(), in O(1)
+			 */
+			@Override
+			public void remove() {
+				if (last == null) {
+					throw new IllegalStateException();
+				}
+				if (modCount != expectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+				unlink(last);
+				last = null;
+				expectedModCount = modCount;
+			}
+		};
 	}
 
 	@Override
 	public int size() {
-		return nodes.size();
+		return size;
 	}
 
 	@Override
 	public boolean isEmpty() {
-		return nodes.isEmpty();
+		return size == 0;
 	}
 
 	@Override
-	public boolean contains(Object o) {
-		return nodes.contains(o);
-	}
+	public boolean add(Instruction i) {
+		Node n = new Node(i);
+		if (tail == null) {
+			head = n;
+		} else {
+			tail.next = n;
+			n.prev = tail;
+		}
+		tail = n;
+		size++;
+		modCount++;
+		return true;
+	}
+
+	/**
+	 * Move all of the instructions of <code>other</code> to the end of this list in
+	 * O(1). Afterwards <code>other</code> is empty (and can be reused).
+	 *
+	 * @param other The list to take the instructions from; must not be this list
+	 */
+	public void splice(InstructionList other) {
+		if (other == this) {
+			throw new IllegalArgumentException("cannot splice a list into itself");
+		}
+		if (other.head == null) {
+			return;
+		}
 
-	@Override
-	public Object[] toArray() {
-		return nodes.toArray();
-	}
+		if (tail == null) {
+			head = other.head;
+		} else {
+			tail.next = other.head;
+			other.head.prev = tail;
+		}
+		tail = other.tail;
+		size += other.size;
+		modCount++;
 
-	@Override
-	public <T> T[] toArray(T[] a) {
-		return nodes.toArray(a);
+		other.head = null;
+		other.tail = null;
+		other.size = 0;
+		other.modCount++;
 	}
 
-	@Override
-	public boolean add(Instruction i) {
-		return nodes.add(i);
+	private void unlink(Node n) {
+		if (n.prev == null) {
+			head = n.next;
+		} else {
+			n.prev.next = n.next;
+		}
+		if (n.next == null) {
+			tail = n.prev;
+		} else {
+			n.next.prev = n.prev;
+		}
+		size--;
+		modCount++;
 	}
 
 	@Override
@@ -57,20 +159,6 @@ public class InstructionList implements Collection<Instruction> {
 		throw new UnsupportedOperationException();
 	}
 
-	@Override
-	public boolean containsAll(Collection<?> c) {
-		return nodes.containsAll(c);
-	}
-
-	@Override
-	public boolean addAll(Collection<? extends Instruction> c) {
-		boolean retval = false;
-		for (Instruction i : c) {
-			retval |= add(i);
-		}
-		return retval;
-	}
-
 	@Override
 	public boolean removeAll(Collection<?> c) {
 		throw new UnsupportedOperationException();
@@ -85,12 +173,12 @@ public class InstructionList implements Collection<Instruction> {
 	public void clear() {
 		throw new UnsupportedOperationException();
 	}
-	
+
 	public String toString() {
-		
+
 		StringWriter sw = new StringWriter();
-		
-		for (Instruction ir : nodes) {
+
+		for (Instruction ir : this) {
 			sw.write(ir.toString());
 			sw.write("\n");
 		}
@@ -98,8 +186,18 @@ public class InstructionList implements Collection<Instruction> {
 		return sw.toString();
 	}
 
+	public Instruction getFirst() {
+		if (head == null) {
+			throw new NoSuchElementException();
+		}
+		return head.inst;
+	}
+
 	public Instruction getLast() {
-		return nodes.get(nodes.size() - 1);
+		if (tail == null) {
+			throw new NoSuchElementException();
+		}
+		return tail.inst;
 	}
-	
+
 }
@@ -0,0 +1,162 @@
+package assembly;
+
+import java.util.Arrays;
+
+/**
+ * An undirected graph over nodes 0 to n-1, as register allocation by graph coloring
+ * needs it: edges are only ever added, each node's neighbors can be listed, and
+ * whether two nodes are neighbors can be asked in constant time.
+ *
+ * The neighbors are kept in an int array per node. For the membership test, a graph
+ * of up to {@link #MATRIX_LIMIT} nodes has a triangular bit matrix; a bigger one,
+ * where the matrix would take too much memory (it grows with the square of the
+ * number of nodes, and the graph is sparse), has an open-addressing hash set of the
+ * edges, each packed into a long. Nothing is boxed either way.
+ */
+public class InterferenceGraph {
+
+	static final public int MATRIX_LIMIT = 4096; //a 1 MB matrix
+
+	private final int n;
+	private final int[][] adjacent; //by node: its neighbors, in the order the edges were added
+	private final int[] degree;     //by node: how many of adjacent[node] are in use
+
+	private final long[] matrix;    //bit (u * (u - 1) / 2 + v) for u > v, or null
+	private long[] edges;           //packed u << 32 | v for u > v, with EMPTY in free cells, or null
+	private int numEdges;
+
+	static final private long EMPTY = -1;
+
+	public InterferenceGraph(int n) {
+		this.n = n;
+		adjacent = new int[n][];
+		degree = new int[n];
+		if (n <= MATRIX_LIMIT) {
+			matrix = new long[(int) (((long) n * (n - 1) / 2 + 63) / 64)];
+		} else {
+			matrix = null;
+			edges = new long[Integer.highestOneBit(n) * 4];
+			Arrays.fill(edges, EMPTY);
+		}
+	}
+
+	public int size() {
+		return n;
+	}
+
+	/**
+	 * Add the edge between <code>u</code> and <code>v</code> if it is not there yet
+	 *
+	 * @return true if it is new
+	 */
+	public boolean addEdge(int u, int v) {
+		if (u == v) {
+			return false;
+		}
+		if (matrix != null) {
+			long bit = bit(u, v);
+			long mask = 1L << (bit & 63);
+			if ((matrix[(int) (bit >>> 6)] & mask) != 0) {
+				return false;
+			}
+			matrix[(int) (bit >>> 6)] |= mask;
+		} else if (!insert(key(u, v))) {
+			return false;
+		}
+		append(u, v);
+		append(v, u);
+		return true;
+	}
+
+	public boolean interferes(int u, int v) {
+		if (u == v) {
+			return false;
+		}
+		if (matrix != null) {
+			long bit = bit(u, v);
+			return (matrix[(int) (bit >>> 6)] & (1L << (bit & 63))) != 0;
+		}
+		long key = key(u, v);
+		for (int i = slot(key); ; i = (i + 1) & (edges.length - 1)) {
+			if (edges[i] == key) {
+				return true;
+			}
+			if (edges[i] == EMPTY) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * @return The number of neighbors of <code>u</code>
+	 */
+	public int degree(int u) {
+		return degree[u];
+	}
+
+	/**
+	 * @return The neighbors of <code>u</code> in the first {@link #degree(int)} elements;
+	 * the array is the graph's own, and is replaced when edges are added
+	 */
+	public int[] neighbors(int u) {
+		return (adjacent[u] != null) ? adjacent[u] : new int[0];
+	}
+
+	private void append(int u, int v) {
+		int[] a = adjacent[u];
+		if (a == null) {
+			a = adjacent[u] = new int[4];
+		} else if (degree[u] == a.length) {
+			a = adjacent[u] = Arrays.copyOf(a, a.length * 2);
+		}
+		a[degree[u]++] = v;
+	}
+
+	static private long bit(int u, int v) {
+		if (u < v) {
+			int t = u;
+			u = v;
+			v = t;
+		}
+		return (long) u * (u - 1) / 2 + v;
+	}
+
+	static private long key(int u, int v) {
+		return (u > v) ? ((long) u << 32 | v) : ((long) v << 32 | u);
+	}
+
+	private int slot(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h >>> 32) & (edges.length - 1);
+	}
+
+	private boolean insert(long key) {
+		int i = slot(key);
+		while (edges[i] != EMPTY) {
+			if (edges[i] == key) {
+				return false;
+			}
+			i = (i + 1) & (edges.length - 1);
+		}
+		edges[i] = key;
+		if (++numEdges * 2 > edges.length) {
+			rehash();
+		}
+		return true;
+	}
+
+	private void rehash() {
+		long[] old = edges;
+		edges = new long[old.length * 2];
+		Arrays.fill(edges, EMPTY);
+		for (long key : old) {
+			if (key != EMPTY) {
+				int i = slot(key);
+				while (edges[i] != EMPTY) {
+					i = (i + 1) & (edges.length - 1);
+				}
+				edges[i] = key;
+			}
+		}
+	}
+}
@@ -0,0 +1,999 @@
+package assembly;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import assembly.instructions.Blank;
+import assembly.instructions.Instruction;
+import assembly.instructions.Instruction.OpCode;
+import assembly.instructions.Instruction.Slot;
+import assembly.instructions.InstructionDescriptor;
+import assembly.instructions.J;
+import assembly.instructions.Label;
+import assembly.instructions.LabelRef;
+import assembly.instructions.Operand;
+import assembly.instructions.PhysicalRegister;
+import compiler.CompilationContext;
+import compiler.Scope.SymbolTableEntry;
+
+/**
+ * Register allocation for a whole function by linear scan over lifetime intervals,
+ * after Wimmer and Franz's linear scan with interval splitting, which gives the
+ * second chance of Traub et al.'s binpacking: a value sent to memory can come back in
+ * any free register.
+ *
+ * Instructions are numbered in program order with two positions each: operands are
+ * read at the even one and written at the odd one, so a result can take the register
+ * of an operand that dies in the same instruction. Each temporary and variable gets an
+ * interval, the ranges of positions where it is live (from {@link Liveness}) and the
+ * positions where it is read or written. Intervals are taken in order of their start.
+ * One that finds a register free for all its length keeps it. One that finds a
+ * register free only for a while is split there, and the rest goes back in line. When
+ * every register is taken, whichever of the interval and the holders of a register is
+ * needed again furthest away goes to memory until its next use, where the part from
+ * there on goes back in line.
+ *
+ * Every operand is then rewritten to the register of the part covering it. Where a
+ * value changes place, inside a block or along an edge whose ends disagree, moves are
+ * added: register to register, or loads and stores to the value's home in memory (its
+ * own slot or address for a variable, a new frame slot for a temporary).
+ *
+ * Values live on entry are in memory, as is a global after a call, which may change
+ * it; either is loaded at its next use. A global's interval is split at the calls it
+ * is live across before allocation starts. A global written since it was last in step
+ * with memory is stored ahead of each call and on the way out of the function.
+ * Registers survive calls, since the callee saves the ones it uses.
+ */
+public class LinearScanAllocator {
+
+	static final private int MEM = -1; //the location of a value that is in memory
+	static final private int MAX = Integer.MAX_VALUE;
+
+	private final CompilationContext context;
+	private final Function f;
+	private final ControlFlowGraph cfg;
+	private final Liveness liveness;
+	private final List<BasicBlock> blocks;
+
+	private final PhysicalRegister[] regs; //by slot: x1 up, then f0 up
+	private final int numIntSlots;
+	private final BitSet allocatable = new BitSet();
+	private final BitSet used = new BitSet();
+
+	private final Instruction[] insts; //in program order; instruction i is at positions 2i and 2i+1
+	private final int[] blockFrom; //by block id: position of its first instruction
+	private final int[] blockTo;   //...and one past its last
+	private final BitSet blockStarts = new BitSet();
+	private final BitSet globals = new BitSet();
+	private final Interval[] intervals; //by operand index: the whole interval, split off parts and all
+	private final Map<Integer, int[]> copies = new HashMap<>(); //instruction index -> {source, destination} of a copy
+
+	private final PriorityQueue<Interval> unhandled = new PriorityQueue<>(
+			Comparator.comparingInt(Interval::start).thenComparingInt(it -> it.operand));
+	//sorted sets rather than heaps, so that an evicted interval comes out in log time
+	private final TreeSet<Interval> active = new TreeSet<>(Comparator.comparingInt((Interval it) -> it.to[it.cur])
+			.thenComparingInt(it -> it.serial)); //holding a register at the current position
+	private final TreeSet<Interval> inactive = new TreeSet<>(Comparator.comparingInt((Interval it) -> it.from[it.cur])
+			.thenComparingInt(it -> it.serial)); //holding one, but in a hole at the current position
+	private final List<Set<Interval>> holders; //by slot: active and inactive intervals holding it
+	private final BitSet idle = new BitSet(); //allocatable slots with no holders
+	private int numParts; //intervals and parts made so far, for their serial numbers
+
+	private final Map<Operand, SymbolTableEntry> spillSlots = new HashMap<>(); //homes of spilled temporaries
+
+	public LinearScanAllocator(CompilationContext context, Function f, ControlFlowGraph cfg, Liveness liveness) {
+		this.context = context;
+		this.f = f;
+		this.cfg = cfg;
+		this.liveness = liveness;
+		this.blocks = cfg.getBlocks();
+
+		numIntSlots = context.getNumIntRegisters() - 1;
+		regs = new PhysicalRegister[numIntSlots + context.getNumFloatRegisters()];
+		for (int i = 0; i < numIntSlots; i++) {
+			regs[i] = PhysicalRegister.intReg(i + 1);
+		}
+		for (int i = numIntSlots; i < regs.length; i++) {
+			regs[i] = PhysicalRegister.floatReg(i - numIntSlots);
+		}
+		allocatable.set(0, regs.length);
+		for (PhysicalRegister r : new PhysicalRegister[] {PhysicalRegister.RA, PhysicalRegister.SP, PhysicalRegister.FP, RegisterAllocator.scratch}) {
+			if (r.getNumber() <= numIntSlots) {
+				allocatable.clear(r.getNumber() - 1);
+			}
+		}
+		holders = new ArrayList<>(regs.length);
+		for (int s = 0; s < regs.length; s++) {
+			holders.add(new LinkedHashSet<>());
+		}
+		idle.or(allocatable);
+
+		int n = 0;
+		for (BasicBlock b : blocks) {
+			n += b.getCode().size();
+		}
+		insts = new Instruction[n];
+		blockFrom = new int[cfg.size()];
+		blockTo = new int[cfg.size()];
+		int i = 0;
+		for (BasicBlock b : blocks) {
+			blockFrom[b.getId()] = 2 * i;
+			blockStarts.set(2 * i);
+			for (Instruction inst : b.getCode()) {
+				insts[i++] = inst;
+			}
+			blockTo[b.getId()] = 2 * i;
+		}
+
+		intervals = new Interval[liveness.getNumOperands()];
+		for (int v = 0; v < intervals.length; v++) {
+			Operand o = liveness.getOperand(v);
+			intervals[v] = new Interval(v);
+			if (liveness.isGlobal(o)) {
+				globals.set(v);
+			}
+		}
+	}
+
+	/**
+	 * Allocate registers and make the result the function's code
+	 */
+	public void run() {
+		List<Integer> calls = buildIntervals();
+		for (Interval it : intervals) {
+			if (it.numRanges == 0) {
+				continue;
+			}
+			it.finish();
+			it.startsInMemory = (it.start() == 0); //live on entry
+			if (globals.get(it.operand)) {
+				splitAtCalls(it, calls);
+			}
+			unhandled.add(it);
+		}
+		allocate();
+		f.setCode(rewrite());
+	}
+
+	/**
+	 * @return The registers given out, which the function has to save and restore
+	 */
+	public List<PhysicalRegister> getUsedRegs() {
+		List<PhysicalRegister> list = new ArrayList<>();
+		for (int s = used.nextSetBit(0); s >= 0; s = used.nextSetBit(s + 1)) {
+			list.add(regs[s]);
+		}
+		return list;
+	}
+
+	/**
+	 * Walk the blocks backward from their live-out sets, adding to the intervals
+	 *
+	 * @return The indices of the calls, in order
+	 */
+	private List<Integer> buildIntervals() {
+		int[] live = new int[intervals.length]; //the current block's stamp if live after the instruction at hand
+		List<Integer> calls = new ArrayList<>();
+		for (int bi = blocks.size() - 1; bi >= 0; bi--) {
+			BasicBlock b = blocks.get(bi);
+			int from = blockFrom[b.getId()];
+			int to = blockTo[b.getId()];
+			int stamp = bi + 1;
+			BitSet out = liveness.getLiveOut(b);
+			for (int v = out.nextSetBit(0); v >= 0; v = out.nextSetBit(v + 1)) {
+				intervals[v].addRange(from, to);
+				live[v] = stamp;
+			}
+			for (int i = to / 2 - 1; i >= from / 2; i--) {
+				Instruction inst = insts[i];
+				for (Slot s : inst.defs()) {
+					int v = liveness.indexOf(inst.getOperand(s));
+					if (v < 0) {
+						continue;
+					}
+					if (live[v] == stamp) {
+						intervals[v].setFrom(2 * i + 1);
+					} else {
+						intervals[v].addRange(2 * i + 1, 2 * i + 2); //never read
+					}
+					intervals[v].addUse(2 * i + 1);
+					live[v] = 0;
+				}
+				for (Slot s : inst.uses()) {
+					int v = liveness.indexOf(inst.getOperand(s));
+					if (v >= 0) {
+						intervals[v].addRange(from, 2 * i + 1);
+						intervals[v].addUse(2 * i);
+						live[v] = stamp;
+					}
+				}
+				if (inst.getDescriptor().isCall()) {
+					//the callee reads globals from memory: they need no register, but have to be kept
+					for (int g = globals.nextSetBit(0); g >= 0; g = globals.nextSetBit(g + 1)) {
+						intervals[g].addRange(from, 2 * i + 1);
+						live[g] = stamp;
+					}
+					calls.add(i);
+				}
+				int[] copy = copy(inst);
+				if (copy != null) {
+					copies.put(i, copy);
+				}
+			}
+		}
+		calls.sort(null);
+		return calls;
+	}
+
+	/**
+	 * A call may change a global in memory, so the global starts over from there after
+	 * each call it is live across: its interval is split after the call, and the parts
+	 * are put in line. The cuts are made from the last call back, so each split copies
+	 * only the ranges and uses of the part it cuts off.
+	 *
+	 * @param calls The indices of the calls, in order
+	 */
+	private void splitAtCalls(Interval whole, List<Integer> calls) {
+		List<Integer> cuts = new ArrayList<>();
+		int k = 0;
+		for (int c : calls) {
+			while (k < whole.numRanges && whole.to[k] <= 2 * c) {
+				k++;
+			}
+			if (k == whole.numRanges) {
+				break;
+			}
+			if (whole.from[k] <= 2 * c && whole.to[k] > 2 * c + 1) {
+				cuts.add(2 * c + 1); //live across the call, not just into it
+			}
+		}
+		for (int i = cuts.size() - 1; i >= 0; i--) {
+			Interval rest = whole.split(cuts.get(i));
+			rest.startsInMemory = true;
+			unhandled.add(rest);
+		}
+	}
+
+	/**
+	 * @return The operand indices <code>{source, destination}</code> if <code>inst</code>
+	 * copies one temporary or variable into another, or null
+	 */
+	private int[] copy(Instruction inst) {
+		Slot src;
+		Slot dest;
+		if (inst.isAssignment()) {
+			src = Slot.DEST;
+			dest = Slot.SRC1;
+		} else if (inst.getOC() == OpCode.MV || inst.getOC() == OpCode.FMVS) {
+			src = Slot.SRC1;
+			dest = Slot.DEST;
+		} else {
+			return null;
+		}
+		int s = liveness.indexOf(inst.getOperand(src));
+		int d = liveness.indexOf(inst.getOperand(dest));
+		return (s >= 0 && d >= 0) ? new int[] {s, d} : null;
+	}
+
+	private void allocate() {
+		Interval current;
+		while ((current = unhandled.poll()) != null) {
+			int pos = current.start();
+			advance(pos);
+			if (current.startsInMemory && current.firstUse() > pos) {
+				toMemory(current);
+			} else if (!tryAllocateFreeReg(current)) {
+				allocateBlockedReg(current);
+			}
+		}
+	}
+
+	/**
+	 * Move the intervals that end, or enter or leave a hole, by <code>pos</code>
+	 */
+	private void advance(int pos) {
+		while (!active.isEmpty() && active.first().to[active.first().cur] <= pos) {
+			place(active.pollFirst(), pos);
+		}
+		while (!inactive.isEmpty() && inactive.first().from[inactive.first().cur] <= pos) {
+			place(inactive.pollFirst(), pos);
+		}
+	}
+
+	/**
+	 * Put an interval holding a register in the active or inactive set, or let the
+	 * register go if it has ended, as of <code>pos</code>
+	 */
+	private void place(Interval it, int pos) {
+		while (it.cur < it.numRanges && it.to[it.cur] <= pos) {
+			it.cur++;
+		}
+		if (it.cur == it.numRanges) {
+			release(it);
+		} else if (it.from[it.cur] <= pos) {
+			active.add(it);
+		} else {
+			inactive.add(it);
+		}
+	}
+
+	private void assign(Interval it, int slot) {
+		it.reg = slot;
+		it.cur = 0;
+		hold(it);
+		used.set(slot);
+		active.add(it);
+	}
+
+	private void hold(Interval it) {
+		holders.get(it.reg).add(it);
+		idle.clear(it.reg);
+	}
+
+	private void release(Interval it) {
+		Set<Interval> h = holders.get(it.reg);
+		h.remove(it);
+		if (h.isEmpty()) {
+			idle.set(it.reg);
+		}
+	}
+
+	/**
+	 * Keep <code>it</code> in memory until its first use, and put the part from there
+	 * back in line
+	 */
+	private void toMemory(Interval it) {
+		it.reg = MEM;
+		int use = it.firstUse();
+		if (use != MAX) {
+			int at = use & ~1;
+			if (at > it.start()) {
+				unhandled.add(it.split(at));
+			} else {
+				throw new Error("register allocation: no way to keep " + liveness.getOperand(it.operand) + " in memory");
+			}
+		}
+	}
+
+	private boolean tryAllocateFreeReg(Interval current) {
+		int lo = current.isFloat() ? numIntSlots : 0;
+		int hi = current.isFloat() ? regs.length : numIntSlots;
+		int hint = hint(current);
+		if (hint >= 0 && (idle.get(hint) || freeUntil(hint, current) >= current.end())) {
+			assign(current, hint);
+			return true;
+		}
+		int slot = idle.nextSetBit(lo);
+		if (slot >= 0 && slot < hi) {
+			assign(current, slot);
+			return true;
+		}
+
+		//every register is held: see how long each stays free
+		int[] freeUntil = new int[regs.length];
+		for (int s = allocatable.nextSetBit(lo); s >= 0 && s < hi; s = allocatable.nextSetBit(s + 1)) {
+			freeUntil[s] = MAX;
+		}
+		for (Interval it : active) {
+			if (it.isFloat() == current.isFloat()) {
+				freeUntil[it.reg] = 0;
+			}
+		}
+		for (Interval it : inactive) {
+			if (it.isFloat() == current.isFloat()) {
+				int x = it.nextIntersection(current);
+				if (x >= 0) {
+					freeUntil[it.reg] = Math.min(freeUntil[it.reg], x);
+				}
+			}
+		}
+		int best = -1;
+		for (int s = lo; s < hi; s++) {
+			if (best < 0 || freeUntil[s] > freeUntil[best]) {
+				best = s;
+			}
+		}
+		if (best < 0 || (freeUntil[best] & ~1) <= current.start()) {
+			return false;
+		}
+		if (freeUntil[best] < current.end()) {
+			unhandled.add(current.split(freeUntil[best] & ~1)); //the rest gets another try
+		}
+		assign(current, best);
+		return true;
+	}
+
+	/**
+	 * @return The first position from <code>current</code>'s start on where the
+	 * holders of register <code>slot</code> need it
+	 */
+	private int freeUntil(int slot, Interval current) {
+		int until = MAX;
+		for (Interval it : holders.get(slot)) {
+			if (active.contains(it)) {
+				return 0;
+			}
+			int x = it.nextIntersection(current);
+			if (x >= 0) {
+				until = Math.min(until, x);
+			}
+		}
+		return until;
+	}
+
+	private void allocateBlockedReg(Interval current) {
+		int lo = current.isFloat() ? numIntSlots : 0;
+		int hi = current.isFloat() ? regs.length : numIntSlots;
+		int pos = current.start();
+		int[] nextUse = new int[regs.length];
+		Arrays.fill(nextUse, -1);
+		for (int s = allocatable.nextSetBit(lo); s >= 0 && s < hi; s = allocatable.nextSetBit(s + 1)) {
+			nextUse[s] = MAX;
+		}
+		for (Interval it : active) {
+			if (it.isFloat() == current.isFloat()) {
+				nextUse[it.reg] = Math.min(nextUse[it.reg], it.nextUse(pos));
+			}
+		}
+		for (Interval it : inactive) {
+			if (it.isFloat() == current.isFloat() && it.nextIntersection(current) >= 0) {
+				nextUse[it.reg] = Math.min(nextUse[it.reg], it.nextUse(pos));
+			}
+		}
+		int best = -1;
+		for (int s = lo; s < hi; s++) {
+			if (nextUse[s] >= 0 && (best < 0 || nextUse[s] > nextUse[best])) {
+				best = s;
+			}
+		}
+		if (best >= 0 && current.firstUse() > nextUse[best]) {
+			toMemory(current); //everything else is needed sooner
+			return;
+		}
+		if (best < 0 || nextUse[best] <= pos) {
+			throw new Error("register allocation: too few registers for one instruction"); //current needs one at pos too
+		}
+		//the holders of best go to memory from here until they are needed
+		List<Interval> evicted = new ArrayList<>();
+		for (Interval it : holders.get(best)) {
+			if (active.contains(it) || it.nextIntersection(current) >= 0) {
+				evicted.add(it);
+			}
+		}
+		for (Interval it : evicted) {
+			evict(it, Math.max(pos, it.nextIntersection(current)), pos);
+		}
+		assign(current, best);
+	}
+
+	/**
+	 * Take the register away from <code>it</code> from <code>at</code> on, when the
+	 * allocation has got to <code>pos</code>
+	 */
+	private void evict(Interval it, int at, int pos) {
+		if (!active.remove(it)) {
+			inactive.remove(it);
+		}
+		Interval rest;
+		if (at <= it.start()) {
+			release(it);
+			rest = it; //it has no part before at
+		} else {
+			rest = it.split(at);
+			place(it, pos);
+		}
+		rest.reg = MEM;
+		if (rest.firstUse() == rest.start()) {
+			unhandled.add(rest); //needed right away: it competes again
+		} else {
+			toMemory(rest);
+		}
+	}
+
+	/**
+	 * @return The register of the value <code>it</code> starts out as a copy of, or else
+	 * the register of the value it is copied into as it dies, or -1
+	 */
+	private int hint(Interval it) {
+		int start = it.start();
+		int[] copy = ((start & 1) == 1) ? copies.get(start / 2) : null;
+		if (copy != null && copy[1] == it.operand) {
+			Interval src = intervals[copy[0]].partAt(start - 1);
+			if (src != null && src.reg >= 0) {
+				return src.reg;
+			}
+		}
+		int end = it.end();
+		copy = ((end & 1) == 1 && it.numUses > 0 && it.uses[it.numUses - 1] == end - 1) ? copies.get(end / 2) : null;
+		if (copy != null && copy[0] == it.operand) {
+			Interval dest = intervals[copy[1]].partAt(end);
+			if (dest != null && dest.reg >= 0) {
+				return dest.reg;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The register of operand <code>v</code> at <code>pos</code>, or {@link #MEM}
+	 */
+	private int locationOf(int v, int pos) {
+		Interval it = intervals[v].partAt(pos);
+		return (it != null) ? it.reg : MEM;
+	}
+
+	/**
+	 * Rewrite the code with registers, adding the moves
+	 */
+	private InstructionList rewrite() {
+		//moves ahead of each instruction, by position: the ones at its read position, then
+		//the ones at its write position (only stores, of values it does not write)
+		List<List<int[]>> before = new ArrayList<>(2 * insts.length);
+		for (int p = 0; p < 2 * insts.length; p++) {
+			before.add(null);
+		}
+		//where a value moves inside a block
+		for (Interval whole : intervals) {
+			if (whole.parts == null) {
+				continue;
+			}
+			Interval prev = null;
+			for (Interval it : whole.parts.values()) {
+				int p = it.start();
+				if (prev == null || blockStarts.get(p) || ((p & 1) == 1 && it.firstUse() == p)) {
+					prev = it;
+					continue; //the first part, moved along the edges, or written here
+				}
+				int from = it.startsInMemory ? MEM : prev.reg;
+				if (from != it.reg) {
+					add(before, p, new int[] {it.operand, from, it.reg});
+				}
+				prev = it;
+			}
+		}
+
+		//where a value moves along an edge; on the way out, changed globals go back to memory
+		InstructionList atEntry = new InstructionList();                  //moves on the edge from the entry
+		Map<BasicBlock, InstructionList> atStart = new HashMap<>();       //moves after the labels of a block with one way in
+		Map<BasicBlock, InstructionList> beforeLast = new HashMap<>();    //moves ahead of a block's jump
+		Map<BasicBlock, InstructionList> afterBlock = new HashMap<>();    //blocks placed right after a block
+		InstructionList atEnd = new InstructionList();                    //blocks reached only by a branch
+		BitSet[] dirtyOut = RegisterAllocator.dirtyGlobals(cfg, liveness, globals);
+		List<BasicBlock> targets = new ArrayList<>(blocks);
+		targets.add(cfg.getExit());
+		for (BasicBlock s : targets) {
+			boolean exit = (s == cfg.getExit());
+			for (BasicBlock p : s.predecessors) {
+				if (p == cfg.getEntry() && exit) {
+					continue;
+				}
+				BitSet live = exit ? dirtyOut[p.getId()] : liveness.getLiveIn(s);
+				List<int[]> moves = new ArrayList<>();
+				for (int v = live.nextSetBit(0); v >= 0; v = live.nextSetBit(v + 1)) {
+					int from = (p == cfg.getEntry()) ? MEM : locationOf(v, blockTo[p.getId()] - 1);
+					int to = exit ? MEM : locationOf(v, blockFrom[s.getId()]);
+					if (from != to) {
+						moves.add(new int[] {v, from, to});
+					}
+				}
+				if (moves.isEmpty()) {
+					continue;
+				}
+				InstructionList seq = sequentialize(moves, dirtyOut[p.getId()]);
+
+				if (p == cfg.getEntry()) {
+					atEntry.splice(seq);
+					continue;
+				}
+				Instruction last = p.getLast();
+				InstructionDescriptor desc = last.getDescriptor();
+				if (!desc.isTerminator()) {
+					afterBlock.computeIfAbsent(p, k -> new InstructionList()).splice(seq);
+				} else if (!desc.isConditional()) {
+					beforeLast.computeIfAbsent(p, k -> new InstructionList()).splice(seq);
+				} else if (!exit && s.predecessors.size() == 1) {
+					atStart.computeIfAbsent(s, k -> new InstructionList()).splice(seq);
+				} else {
+					//conditional branch on a critical edge: the moves get a block of their own
+					LabelRef target = (LabelRef) last.getLabel();
+					BasicBlock taken = cfg.getBlock(target);
+					BasicBlock next = p.getLayoutNext();
+					boolean fallsThrough = ((next != null) ? next : cfg.getExit()) == s;
+					boolean branches = ((taken != null) ? taken : cfg.getExit()) == s;
+					InstructionList split = new InstructionList();
+					if (branches) {
+						LabelRef l = context.getLabels().create("split_");
+						last.setLabel(l);
+						split.add(new Label(l));
+					}
+					split.splice(seq);
+					if (fallsThrough) {
+						afterBlock.computeIfAbsent(p, k -> new InstructionList()).splice(split);
+					} else {
+						split.add(new J(target));
+						atEnd.splice(split);
+					}
+				}
+			}
+		}
+
+		InstructionList code = new InstructionList();
+		code.splice(atEntry);
+		int i = 0;
+		for (BasicBlock b : blocks) {
+			code.add(new Blank("Start of BB"));
+			BitSet dirty = RegisterAllocator.dirtyIn(b, dirtyOut);
+			InstructionList start = atStart.get(b);
+			InstructionList jump = beforeLast.get(b);
+			Instruction last = b.getLast();
+			for (Instruction inst : b.getCode()) {
+				if (start != null && !inst.getDescriptor().isLabel()) {
+					code.splice(start);
+					start = null;
+				}
+				for (int p = 2 * i; p <= 2 * i + 1; p++) {
+					if (before.get(p) != null) {
+						code.splice(sequentialize(before.get(p), dirty));
+					}
+				}
+				if (inst == last && jump != null) {
+					code.splice(jump);
+				}
+				if (inst.getDescriptor().isCall()) {
+					//the callee reads globals from memory
+					for (int g = dirty.nextSetBit(0); g >= 0; g = dirty.nextSetBit(g + 1)) {
+						int r = locationOf(g, 2 * i);
+						if (r != MEM) {
+							store(code, g, r);
+						}
+					}
+					dirty.clear();
+				}
+				for (Slot s : inst.defs()) {
+					int v = liveness.indexOf(inst.getOperand(s));
+					if (v >= 0 && globals.get(v)) {
+						dirty.set(v);
+					}
+				}
+				Instruction out = rewrite(inst, i);
+				if (out != null) {
+					code.add(out);
+				}
+				i++;
+			}
+			if (start != null) {
+				code.splice(start);
+			}
+			InstructionList after = afterBlock.get(b);
+			if (after != null) {
+				code.splice(after);
+			}
+			code.add(new Blank("End of BB"));
+		}
+		if (!atEnd.isEmpty()) {
+			Instruction end = lastReal(code);
+			if (end == null || !end.getDescriptor().isTerminator() || end.getDescriptor().isConditional()) {
+				code.add(new J(f.getReturnLabel())); //don't fall into the split edges
+			}
+			code.splice(atEnd);
+		}
+		return code;
+	}
+
+	/**
+	 * @return The last instruction of <code>code</code> that is not a marker, or null
+	 */
+	static private Instruction lastReal(InstructionList code) {
+		Instruction last = null;
+		for (Instruction inst : code) {
+			if (!inst.getDescriptor().isPseudo()) {
+				last = inst;
+			}
+		}
+		return last;
+	}
+
+	static private void add(List<List<int[]>> before, int p, int[] move) {
+		if (before.get(p) == null) {
+			before.set(p, new ArrayList<>());
+		}
+		before.get(p).add(move);
+	}
+
+	/**
+	 * @return <code>inst</code> with its operands replaced by their registers, or null if
+	 * it has become a move of a register to itself
+	 */
+	private Instruction rewrite(Instruction inst, int i) {
+		boolean assignment = inst.isAssignment(); //before its operands are replaced by registers
+		for (Slot s : inst.uses()) {
+			int v = liveness.indexOf(inst.getOperand(s));
+			if (v >= 0) {
+				inst.setOperand(s, register(v, 2 * i));
+			}
+		}
+		for (Slot s : inst.defs()) {
+			int v = liveness.indexOf(inst.getOperand(s));
+			if (v >= 0) {
+				inst.setOperand(s, register(v, 2 * i + 1));
+			}
+		}
+		if (assignment) {
+			//the variable lives in a register: the store is a move
+			inst = RegisterAllocator.move(inst.getDest(), inst.getSrc1());
+		}
+		if ((inst.getOC() == OpCode.MV || inst.getOC() == OpCode.FMVS) && inst.getSrc1().equals(inst.getDest())) {
+			return null;
+		}
+		return inst;
+	}
+
+	private PhysicalRegister register(int v, int pos) {
+		int r = locationOf(v, pos);
+		if (r == MEM) {
+			throw new Error("register allocation: " + liveness.getOperand(v) + " has no register at " + pos);
+		}
+		return regs[r];
+	}
+
+	/**
+	 * Turn the moves <code>{operand, from, to}</code>, all as if at once, into code:
+	 * the stores first, then the register moves (breaking cycles through memory), and
+	 * the loads last. A global not in <code>dirty</code> is as it is in memory, and is not
+	 * stored
+	 */
+	private InstructionList sequentialize(List<int[]> moves, BitSet dirty) {
+		InstructionList seq = new InstructionList();
+		List<int[]> loads = new ArrayList<>();
+		Map<Integer, int[]> pending = new HashMap<>(); //register moves by destination
+		int[] readers = new int[regs.length];
+		for (int[] m : moves) {
+			if (m[2] == MEM) {
+				if (!globals.get(m[0]) || dirty.get(m[0])) {
+					store(seq, m[0], m[1]);
+				}
+			} else if (m[1] == MEM) {
+				loads.add(m);
+			} else {
+				pending.put(m[2], m);
+				readers[m[1]]++;
+			}
+		}
+		while (!pending.isEmpty()) {
+			boolean progress = false;
+			for (int[] m : new ArrayList<>(pending.values())) {
+				if (readers[m[2]] == 0) {
+					seq.add(RegisterAllocator.move(regs[m[1]], regs[m[2]]));
+					pending.remove(m[2]);
+					readers[m[1]]--;
+					progress = true;
+				}
+			}
+			if (!progress) {
+				//only cycles are left: park one value in memory and load it at the end
+				int[] m = pending.values().iterator().next();
+				if (!globals.get(m[0]) || dirty.get(m[0])) {
+					store(seq, m[0], m[1]);
+				}
+				pending.remove(m[2]);
+				readers[m[1]]--;
+				loads.add(new int[] {m[0], MEM, m[2]});
+			}
+		}
+		for (int[] m : loads) {
+			load(seq, m[0], m[2]);
+		}
+		return seq;
+	}
+
+	private void load(InstructionList code, int v, int r) {
+		Operand o = liveness.getOperand(v);
+		SymbolTableEntry ste = RegisterAllocator.home(o, f.getScope(), spillSlots);
+		code.splice(RegisterAllocator.rvalify(o, regs[r], ste.getType(), ste, null));
+	}
+
+	private void store(InstructionList code, int v, int r) {
+		SymbolTableEntry ste = RegisterAllocator.home(liveness.getOperand(v), f.getScope(), spillSlots);
+		code.splice(RegisterAllocator.store(regs[r], ste.getType(), ste));
+	}
+
+	/**
+	 * The lifetime of one temporary or variable, or a part of it split off to go in a
+	 * different place: ranges of positions [from, to) where it is live, and the positions
+	 * where it is read or written (odd ones are writes)
+	 */
+	final class Interval {
+		final int operand;
+		int[] from = new int[2];
+		int[] to = new int[2];
+		int numRanges;
+		int[] uses = new int[2];
+		int numUses;
+		int reg = MEM; //the slot of its register
+		boolean startsInMemory; //its value is in memory at its start, not where the part before left it
+		int cur; //while it holds a register: the range at or after the current position
+		TreeMap<Integer, Interval> parts; //on the whole interval: itself and the parts split off, by start
+		final int serial = numParts++; //tells intervals apart in the active and inactive sets
+
+		Interval(int operand) {
+			this.operand = operand;
+		}
+
+		boolean isFloat() {
+			return liveness.getOperand(operand).getRegClass() == Operand.RegClass.FLOAT;
+		}
+
+		//building, backward: ranges and uses are added in falling order, then reversed by finish()
+
+		void addRange(int f, int t) {
+			if (numRanges > 0 && from[numRanges - 1] <= t) {
+				from[numRanges - 1] = Math.min(from[numRanges - 1], f);
+				to[numRanges - 1] = Math.max(to[numRanges - 1], t);
+				return;
+			}
+			if (numRanges == from.length) {
+				from = Arrays.copyOf(from, 2 * numRanges);
+				to = Arrays.copyOf(to, 2 * numRanges);
+			}
+			from[numRanges] = f;
+			to[numRanges] = t;
+			numRanges++;
+		}
+
+		void setFrom(int f) {
+			from[numRanges - 1] = f;
+		}
+
+		void addUse(int pos) {
+			if (numUses > 0 && uses[numUses - 1] == pos) {
+				return;
+			}
+			if (numUses == uses.length) {
+				uses = Arrays.copyOf(uses, 2 * numUses);
+			}
+			uses[numUses++] = pos;
+		}
+
+		void finish() {
+			reverse(from, numRanges);
+			reverse(to, numRanges);
+			reverse(uses, numUses);
+			parts = new TreeMap<>();
+			parts.put(start(), this);
+		}
+
+		int start() {
+			return from[0];
+		}
+
+		int end() {
+			return to[numRanges - 1];
+		}
+
+		boolean covers(int pos) {
+			int k = rangeAfter(pos);
+			return k < numRanges && from[k] <= pos;
+		}
+
+		/**
+		 * @return The index of the first range that ends after <code>pos</code>, or
+		 * numRanges if there is none
+		 */
+		int rangeAfter(int pos) {
+			int lo = 0;
+			int hi = numRanges;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (to[mid] <= pos) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+
+		int firstUse() {
+			return (numUses > 0) ? uses[0] : MAX;
+		}
+
+		/**
+		 * @return The first position at or after <code>pos</code> that needs the value in a register
+		 */
+		int nextUse(int pos) {
+			int k = useAfter(pos);
+			return (k < numUses) ? uses[k] : MAX;
+		}
+
+		/**
+		 * @return The index of the first use at or after <code>pos</code>, or numUses
+		 */
+		int useAfter(int pos) {
+			int k = Arrays.binarySearch(uses, 0, numUses, pos);
+			return (k < 0) ? -k - 1 : k;
+		}
+
+		/**
+		 * @return The first position both intervals cover, or -1
+		 */
+		int nextIntersection(Interval other) {
+			int i = cur; //the ranges before it are behind the allocation, and other is not
+			int j = 0;
+			while (i < numRanges && j < other.numRanges) {
+				if (to[i] <= other.from[j]) {
+					i++;
+				} else if (other.to[j] <= from[i]) {
+					j++;
+				} else {
+					return Math.max(from[i], other.from[j]);
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * @return The part of this whole interval whose stretch of positions takes in <code>pos</code>
+		 */
+		Interval partAt(int pos) {
+			Map.Entry<Integer, Interval> e = (parts == null) ? null : parts.floorEntry(pos);
+			if (e == null) {
+				return null;
+			}
+			Interval it = e.getValue();
+			return (pos < it.end()) ? it : null;
+		}
+
+		/**
+		 * Cut off everything from <code>pos</code> on, which has to be after the start
+		 * of this part and before its end, into a new part
+		 */
+		Interval split(int pos) {
+			Interval rest = new Interval(operand);
+			int k = rangeAfter(pos);
+			int n = numRanges - k;
+			rest.from = Arrays.copyOfRange(from, k, k + Math.max(n, 1));
+			rest.to = Arrays.copyOfRange(to, k, k + Math.max(n, 1));
+			rest.numRanges = n;
+			if (from[k] < pos) {
+				rest.from[0] = pos;
+				to[k] = pos;
+				numRanges = k + 1;
+			} else {
+				numRanges = k;
+			}
+			int u = useAfter(pos);
+			rest.uses = Arrays.copyOfRange(uses, u, u + Math.max(numUses - u, 1));
+			rest.numUses = numUses - u;
+			numUses = u;
+
+			intervals[operand].parts.put(rest.start(), rest);
+			return rest;
+		}
+
+		public String toString() {
+			StringBuilder sb = new StringBuilder(liveness.getOperand(operand) + "@" + ((reg == MEM) ? "mem" : regs[reg]));
+			for (int k = 0; k < numRanges; k++) {
+				sb.append(" [").append(from[k]).append(",").append(to[k]).append(")");
+			}
+			return sb.toString();
+		}
+	}
+
+	static private void reverse(int[] a, int n) {
+		for (int i = 0, j = n - 1; i < j; i++, j--) {
+			int t = a[i];
+			a[i] = a[j];
+			a[j] = t;
+		}
+	}
+}
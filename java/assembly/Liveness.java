@@ -0,0 +1,369 @@
+package assembly;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import assembly.instructions.Instruction;
+import assembly.instructions.Instruction.Slot;
+import assembly.instructions.Operand;
+import assembly.instructions.Variable;
+
+/**
+ * Which temporaries and variables are live on entry to and exit from each block of a
+ * {@link ControlFlowGraph}, and right after each instruction.
+ *
+ * Every temporary and variable the code mentions gets a dense index, and live sets
+ * are bit sets over those indices. Each block's upward-exposed uses and definitions
+ * are collected in one scan, then live-out = union of the successors' live-in and
+ * live-in = uses + (live-out - defs) are iterated to a fixed point with a worklist: a
+ * block goes back on the list only when the live-in of one of its successors has
+ * grown. Blocks start on the list in postorder, so most of them are final after one
+ * visit.
+ *
+ * Inside a block only the changes are kept: for each instruction, the operands that
+ * die at it and the ones it defines that are live afterwards. A {@link Cursor}
+ * applies them walking forward from the block's live-in, so the live set after any
+ * instruction costs no more memory than one bit set per walk.
+ *
+ * Global variables can be read by other functions, so every global the function
+ * mentions is live at the exit and is used by every call.
+ */
+public class Liveness {
+
+	static final public Analysis<Liveness> ANALYSIS = new Analysis<Liveness>() {
+		public String getName() {
+			return "liveness";
+		}
+
+		public Liveness compute(Function f, PassManager pm) {
+			return new Liveness(pm.getAnalysis(ControlFlowGraph.ANALYSIS, f));
+		}
+	};
+
+	private final ControlFlowGraph cfg;
+	private final Map<Operand, Integer> index = new HashMap<>();
+	private final List<Operand> operands = new ArrayList<>(); //by index
+	private final BitSet globals = new BitSet(); //every global the code mentions
+	private final BitSet[] liveIn; //by block id
+	private final BitSet[] liveOut;
+	private final int[][] changes; //by block id: index born, or ~index dying, instruction by instruction
+	private final int[][] starts;  //by block id: where each instruction's changes start in changes, plus the end
+
+	public Liveness(ControlFlowGraph cfg) {
+		this.cfg = cfg;
+		int n = cfg.size();
+		BitSet[] uses = new BitSet[n];
+		BitSet[] defs = new BitSet[n];
+		liveIn = new BitSet[n];
+		liveOut = new BitSet[n];
+		changes = new int[n][];
+		starts = new int[n][];
+		for (int i = 0; i < n; i++) {
+			uses[i] = new BitSet();
+			defs[i] = new BitSet();
+			liveIn[i] = new BitSet();
+			liveOut[i] = new BitSet();
+		}
+
+		List<BasicBlock> callers = new ArrayList<>(); //blocks with a call not preceded by a def of every global
+		for (BasicBlock b : cfg.getBlocks()) {
+			BitSet u = uses[b.getId()];
+			BitSet d = defs[b.getId()];
+			boolean calls = false;
+			for (Instruction inst : b.getCode()) {
+				for (Slot s : inst.uses()) {
+					int v = number(inst, inst.getOperand(s));
+					if (v >= 0 && !d.get(v)) {
+						u.set(v);
+					}
+				}
+				for (Slot s : inst.defs()) {
+					int v = number(inst, inst.getOperand(s));
+					if (v >= 0) {
+						d.set(v);
+					}
+				}
+				if (inst.getDescriptor().isCall() && !calls) {
+					calls = true;
+					callers.add(b);
+				}
+			}
+		}
+		//a call reads every global that was not defined earlier in its block
+		for (BasicBlock b : callers) {
+			BitSet d = new BitSet();
+			for (Instruction inst : b.getCode()) {
+				if (inst.getDescriptor().isCall()) {
+					BitSet g = (BitSet) globals.clone();
+					g.andNot(d);
+					uses[b.getId()].or(g);
+					break; //later calls add nothing: every global is already used or defined
+				}
+				for (Slot s : inst.defs()) {
+					int v = indexOf(inst.getOperand(s));
+					if (v >= 0) {
+						d.set(v);
+					}
+				}
+			}
+		}
+		liveIn[cfg.getExit().getId()].or(globals);
+
+		Deque<BasicBlock> work = new ArrayDeque<>();
+		boolean[] queued = new boolean[n];
+		List<BasicBlock> rpo = cfg.reversePostOrder();
+		for (int i = rpo.size() - 1; i >= 0; i--) {
+			BasicBlock b = rpo.get(i);
+			if (b != cfg.getExit()) {
+				work.add(b);
+				queued[b.getId()] = true;
+			}
+		}
+		for (BasicBlock b : cfg.getBlocks()) { //unreachable blocks are still allocated
+			if (!queued[b.getId()]) {
+				work.add(b);
+				queued[b.getId()] = true;
+			}
+		}
+
+		BitSet in = new BitSet();
+		while (!work.isEmpty()) {
+			BasicBlock b = work.poll();
+			queued[b.getId()] = false;
+			BitSet out = liveOut[b.getId()];
+			for (BasicBlock s : b.successors) {
+				out.or(liveIn[s.getId()]);
+			}
+			in.clear();
+			in.or(out);
+			in.andNot(defs[b.getId()]);
+			in.or(uses[b.getId()]);
+			if (!in.equals(liveIn[b.getId()])) { //it only ever grows
+				liveIn[b.getId()].or(in);
+				for (BasicBlock p : b.predecessors) {
+					if (!queued[p.getId()]) {
+						work.add(p);
+						queued[p.getId()] = true;
+					}
+				}
+			}
+		}
+
+		for (BasicBlock b : cfg.getBlocks()) {
+			recordChanges(b);
+		}
+	}
+
+	/**
+	 * @return The index of <code>o</code>, giving it the next one if it is new, or -1 if
+	 * it is not a temporary or variable
+	 */
+	private int number(Instruction inst, Operand o) {
+		if (!inst.is3AC(o)) {
+			return -1;
+		}
+		Integer v = index.get(o);
+		if (v == null) {
+			v = operands.size();
+			index.put(o, v);
+			operands.add(o);
+			if (o instanceof Variable && !((Variable) o).isLocal()) {
+				globals.set(v);
+			}
+		}
+		return v;
+	}
+
+	/**
+	 * Walk <code>b</code> backward from its live-out, noting for each instruction which
+	 * operands are born and which die there
+	 */
+	private void recordChanges(BasicBlock b) {
+		InstructionList code = b.getCode();
+		Instruction[] insts = code.toArray(new Instruction[code.size()]);
+		BitSet live = (BitSet) liveOut[b.getId()].clone(); //what follows the instruction at hand
+		int[][] perInst = new int[insts.length][];
+		int total = 0;
+		int[] buf = new int[8];
+		for (int i = insts.length - 1; i >= 0; i--) {
+			Instruction inst = insts[i];
+			int k = 0;
+			//a def live afterwards is born here, unless the instruction reads it as well
+			for (Slot s : inst.defs()) {
+				int v = indexOf(inst.getOperand(s));
+				if (v >= 0 && live.get(v) && !reads(inst, v)) {
+					buf = grow(buf, k);
+					buf[k++] = v;
+				}
+			}
+			int born = k;
+			//a read of something not live afterwards is where it dies
+			for (Slot s : inst.uses()) {
+				buf = grow(buf, k);
+				k = use(live, indexOf(inst.getOperand(s)), buf, k);
+			}
+			if (inst.getDescriptor().isCall()) {
+				for (int g = globals.nextSetBit(0); g >= 0; g = globals.nextSetBit(g + 1)) {
+					buf = grow(buf, k);
+					k = use(live, g, buf, k);
+				}
+			}
+			for (int j = 0; j < born; j++) {
+				live.clear(buf[j]);
+			}
+			perInst[i] = Arrays.copyOf(buf, k);
+			total += k;
+		}
+
+		int[] packed = new int[total];
+		int[] start = new int[insts.length + 1];
+		int p = 0;
+		for (int i = 0; i < insts.length; i++) {
+			start[i] = p;
+			System.arraycopy(perInst[i], 0, packed, p, perInst[i].length);
+			p += perInst[i].length;
+		}
+		start[insts.length] = p;
+		changes[b.getId()] = packed;
+		starts[b.getId()] = start;
+	}
+
+	private boolean reads(Instruction inst, int v) {
+		for (Slot s : inst.uses()) {
+			if (indexOf(inst.getOperand(s)) == v) {
+				return true;
+			}
+		}
+		return inst.getDescriptor().isCall() && globals.get(v);
+	}
+
+	private static int use(BitSet live, int v, int[] buf, int k) {
+		if (v >= 0 && !live.get(v)) {
+			live.set(v);
+			buf[k++] = ~v;
+		}
+		return k;
+	}
+
+	private static int[] grow(int[] buf, int k) {
+		return (k < buf.length) ? buf : Arrays.copyOf(buf, buf.length * 2);
+	}
+
+	public ControlFlowGraph getGraph() {
+		return cfg;
+	}
+
+	/**
+	 * @return The number of temporaries and variables the code mentions; indices run
+	 * from 0 to one less than this
+	 */
+	public int getNumOperands() {
+		return operands.size();
+	}
+
+	/**
+	 * @return The index of <code>o</code>, or -1 if the code does not mention it (or it
+	 * is not a temporary or variable)
+	 */
+	public int indexOf(Operand o) {
+		Integer v = (o == null) ? null : index.get(o);
+		return (v == null) ? -1 : v;
+	}
+
+	public Operand getOperand(int v) {
+		return operands.get(v);
+	}
+
+	/**
+	 * @return true if <code>o</code> is one of the global variables the function reads
+	 * or writes
+	 */
+	public boolean isGlobal(Operand o) {
+		int v = indexOf(o);
+		return v >= 0 && globals.get(v);
+	}
+
+	public boolean isLiveIn(BasicBlock b, Operand o) {
+		int v = indexOf(o);
+		return v >= 0 && liveIn[b.getId()].get(v);
+	}
+
+	public boolean isLiveOut(BasicBlock b, Operand o) {
+		int v = indexOf(o);
+		return v >= 0 && liveOut[b.getId()].get(v);
+	}
+
+	/**
+	 * @return A copy of the indices live on entry to <code>b</code>
+	 */
+	public BitSet getLiveIn(BasicBlock b) {
+		return (BitSet) liveIn[b.getId()].clone();
+	}
+
+	/**
+	 * @return A copy of the indices live on leaving <code>b</code>
+	 */
+	public BitSet getLiveOut(BasicBlock b) {
+		return (BitSet) liveOut[b.getId()].clone();
+	}
+
+	/**
+	 * @return A cursor before the first instruction of <code>b</code>
+	 */
+	public Cursor walk(BasicBlock b) {
+		return new Cursor(b);
+	}
+
+	/**
+	 * What is live at one point of a block, moved forward an instruction at a time.
+	 */
+	public class Cursor {
+		private final BasicBlock block;
+		private final BitSet live;
+		private final int[] changes;
+		private final int[] starts;
+		private int next; //the instruction advance() steps over
+
+		private Cursor(BasicBlock b) {
+			block = b;
+			live = (BitSet) liveIn[b.getId()].clone();
+			changes = Liveness.this.changes[b.getId()];
+			starts = Liveness.this.starts[b.getId()];
+		}
+
+		/**
+		 * Step over the next instruction of the block, so that the cursor gives what is
+		 * live right after it
+		 */
+		public void advance() {
+			for (int j = starts[next]; j < starts[next + 1]; j++) {
+				int c = changes[j];
+				if (c >= 0) {
+					live.set(c);
+				} else {
+					live.clear(~c);
+				}
+			}
+			next++;
+		}
+
+		public boolean isLive(Operand o) {
+			int v = indexOf(o);
+			return v >= 0 && live.get(v);
+		}
+
+		/**
+		 * @return true if <code>o</code> is live on leaving the block, whatever instruction
+		 * the cursor is at
+		 */
+		public boolean isLiveOut(Operand o) {
+			return Liveness.this.isLiveOut(block, o);
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package assembly;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A natural loop: a header block and everything that reaches one of its latches (the
+ * blocks with a back edge to the header) without going through the header. See
+ * {@link LoopInfo}.
+ */
+public class Loop {
+
+	private final BasicBlock header;
+	private final List<BasicBlock> latches;
+	Loop parent;
+	final List<Loop> children = new ArrayList<>(2);
+	int depth;
+	Loop outer;  //an ancestor, on the way to the outermost one (while the nest is built)
+	int number;  //in preorder of the nest, so the loops nested in this one follow it
+	int size;    //number of loops: this one and those nested in it
+
+	Loop(BasicBlock header, List<BasicBlock> latches) {
+		this.header = header;
+		this.latches = latches;
+	}
+
+	/**
+	 * @return The only block of the loop that can be entered from outside it
+	 */
+	public BasicBlock getHeader() {
+		return header;
+	}
+
+	public List<BasicBlock> getLatches() {
+		return Collections.unmodifiableList(latches);
+	}
+
+	/**
+	 * @return The innermost loop containing this one, or null for a top-level loop
+	 */
+	public Loop getParent() {
+		return parent;
+	}
+
+	/**
+	 * @return The loops immediately nested in this one
+	 */
+	public List<Loop> getChildren() {
+		return Collections.unmodifiableList(children);
+	}
+
+	/**
+	 * @return 1 for a top-level loop, 2 for a loop inside it, and so on
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	public String toString() {
+		return "loop " + header + " depth " + depth;
+	}
+}
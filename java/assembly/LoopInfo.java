@@ -0,0 +1,207 @@
+package assembly;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * The natural loops of a {@link ControlFlowGraph} and how they nest.
+ *
+ * A back edge is an edge whose target dominates its source, and each block that is
+ * the target of back edges heads one loop. Headers are visited in postorder of the
+ * dominator tree, so inner loops are found before the loops around them. Each loop's
+ * body is then collected by walking backwards from its latches: a block not yet in a
+ * loop joins this one, while a block already claimed by an inner loop makes that
+ * loop's outermost ancestor a child of this one, and the walk goes on from the
+ * child's header. Every block is visited once per loop it is directly in, and every
+ * loop once more by its parent; the outermost ancestors are found through links that
+ * are compressed as they are followed (as in union-find), so the whole nest is found
+ * in near-linear time. The loops are then numbered in preorder of the nest, so that
+ * {@link #contains(Loop, BasicBlock)} is a range check.
+ * Cycles entered other than through a dominating header (irreducible flow) are not
+ * loops here.
+ */
+public class LoopInfo {
+
+	static final public Analysis<LoopInfo> ANALYSIS = new Analysis<LoopInfo>() {
+		public String getName() {
+			return "loops";
+		}
+
+		public LoopInfo compute(Function f, PassManager pm) {
+			return new LoopInfo(pm.getAnalysis(DominatorTree.ANALYSIS, f));
+		}
+	};
+
+	private final List<Loop> innermost; //by block id; null if the block is in no loop
+	private final List<Loop> loops = new ArrayList<>(); //inner loops before outer ones
+	private final List<Loop> topLevel = new ArrayList<>();
+
+	public LoopInfo(DominatorTree dom) {
+		ControlFlowGraph cfg = dom.getGraph();
+		innermost = new ArrayList<>(Collections.nCopies(cfg.size(), (Loop) null));
+
+		for (BasicBlock h : postOrder(dom)) {
+			List<BasicBlock> latches = new ArrayList<>(1);
+			for (BasicBlock p : h.predecessors) {
+				if (dom.dominates(h, p)) {
+					latches.add(p);
+				}
+			}
+			if (latches.isEmpty()) {
+				continue;
+			}
+
+			Loop loop = new Loop(h, latches);
+			loops.add(loop);
+			setLoop(h, loop);
+			Deque<BasicBlock> work = new ArrayDeque<>(latches);
+			while (!work.isEmpty()) {
+				BasicBlock b = work.pop();
+				Loop sub = getLoopFor(b);
+				if (sub == null) {
+					setLoop(b, loop);
+					pushReachablePredecessors(b, dom, work);
+					continue;
+				}
+				sub = outermost(sub);
+				if (sub != loop) {
+					sub.parent = sub.outer = loop;
+					loop.children.add(sub);
+					pushReachablePredecessors(sub.getHeader(), dom, work);
+				}
+			}
+		}
+
+		for (Loop loop : loops) { //inner loops first
+			loop.size = 1;
+			for (Loop child : loop.children) {
+				loop.size += child.size;
+			}
+		}
+		int next = 0;
+		for (int i = loops.size() - 1; i >= 0; i--) { //outer loops first
+			Loop loop = loops.get(i);
+			if (loop.parent == null) {
+				loop.depth = 1;
+				topLevel.add(loop);
+				loop.number = next;
+				next += loop.size;
+			} else {
+				loop.depth = loop.parent.depth + 1;
+			}
+			int child = loop.number + 1;
+			for (Loop c : loop.children) {
+				c.number = child;
+				child += c.size;
+			}
+		}
+		Collections.reverse(topLevel);
+	}
+
+	/**
+	 * @return The outermost loop found so far that <code>loop</code> is in, pointing
+	 * every loop on the way straight at it
+	 */
+	private static Loop outermost(Loop loop) {
+		Loop root = loop;
+		while (root.outer != null) {
+			root = root.outer;
+		}
+		while (loop != root) {
+			Loop next = loop.outer;
+			loop.outer = root;
+			loop = next;
+		}
+		return root;
+	}
+
+	private static void pushReachablePredecessors(BasicBlock b, DominatorTree dom, Deque<BasicBlock> work) {
+		for (BasicBlock p : b.predecessors) {
+			if (dom.isReachable(p)) {
+				work.push(p);
+			}
+		}
+	}
+
+	private static List<BasicBlock> postOrder(DominatorTree dom) {
+		List<BasicBlock> order = new ArrayList<>();
+		Deque<BasicBlock> stack = new ArrayDeque<>();
+		Deque<Integer> nextChild = new ArrayDeque<>();
+		stack.push(dom.getGraph().getEntry());
+		nextChild.push(0);
+		while (!stack.isEmpty()) {
+			BasicBlock b = stack.peek();
+			int i = nextChild.pop();
+			List<BasicBlock> kids = dom.getChildren(b);
+			if (i < kids.size()) {
+				nextChild.push(i + 1);
+				stack.push(kids.get(i));
+				nextChild.push(0);
+			} else {
+				stack.pop();
+				order.add(b);
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * @return The innermost loop containing <code>b</code>, or null
+	 */
+	public Loop getLoopFor(BasicBlock b) {
+		return (b.getId() < innermost.size()) ? innermost.get(b.getId()) : null;
+	}
+
+	/**
+	 * Record that <code>b</code>, a block added to the graph, is directly in
+	 * <code>loop</code> (which may be null)
+	 */
+	void setLoop(BasicBlock b, Loop loop) {
+		while (innermost.size() <= b.getId()) {
+			innermost.add(null);
+		}
+		innermost.set(b.getId(), loop);
+	}
+
+	/**
+	 * @return How many loops <code>b</code> is in; 0 outside any loop
+	 */
+	public int getDepth(BasicBlock b) {
+		Loop loop = getLoopFor(b);
+		return (loop == null) ? 0 : loop.getDepth();
+	}
+
+	/**
+	 * @return true if <code>b</code> is in <code>loop</code> or a loop nested in it
+	 */
+	public boolean contains(Loop loop, BasicBlock b) {
+		Loop l = getLoopFor(b);
+		return l != null && l.number >= loop.number && l.number < loop.number + loop.size;
+	}
+
+	/**
+	 * @return Every loop, each after all of the loops nested in it
+	 */
+	public List<Loop> getLoops() {
+		return Collections.unmodifiableList(loops);
+	}
+
+	/**
+	 * @return The loops not nested in any other, in the order the dominator tree reaches them
+	 */
+	public List<Loop> getTopLevelLoops() {
+		return Collections.unmodifiableList(topLevel);
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Loop loop : loops) {
+			sb.append(loop).append(" in ").append(loop.getParent() == null ? "function" : loop.getParent().getHeader())
+					.append(", latches ").append(loop.getLatches()).append('\n');
+		}
+		return sb.toString();
+	}
+}
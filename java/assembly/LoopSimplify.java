@@ -0,0 +1,103 @@
+package assembly;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import assembly.instructions.LabelRef;
+import compiler.CompilationContext;
+
+/**
+ * Put loops in the shape later transformations want, editing the
+ * {@link ControlFlowGraph} in place:
+ * <ul>
+ * <li>every loop gets a preheader, a block outside the loop whose only successor is
+ * the header and which is the header's only predecessor from outside, so code hoisted
+ * out of the loop has one place to go;</li>
+ * <li>every exit block (a block outside a loop with a predecessor inside) gets all of
+ * its predecessors from inside the loop, so code sunk out of the loop runs only when
+ * leaving it.</li>
+ * </ul>
+ * The new blocks are added to the enclosing loops in the {@link LoopInfo}, which stays
+ * valid; the dominator tree does not. The code must not be in SSA form, as phis are
+ * not updated.
+ */
+public class LoopSimplify {
+
+	/**
+	 * Simplify the loops of <code>f</code>, and set its code from <code>cfg</code>
+	 *
+	 * @return true if any block was added
+	 */
+	public static boolean run(Function f, ControlFlowGraph cfg, LoopInfo loopInfo, CompilationContext context) {
+		LabelRef returnLabel = f.getReturnLabel();
+		boolean changed = false;
+
+		List<Loop> loops = loopInfo.getLoops();
+		for (Loop loop : loops) {
+			BasicBlock h = loop.getHeader();
+			List<BasicBlock> entering = new ArrayList<>(2);
+			for (BasicBlock p : h.predecessors) {
+				if (!loopInfo.contains(loop, p)) {
+					entering.add(p);
+				}
+			}
+			BasicBlock only = (entering.size() == 1) ? entering.get(0) : null;
+			if (only == null || only == cfg.getEntry() || only.successors.size() > 1) {
+				LabelRef label = context.getLabels().create("preheader_");
+				BasicBlock preheader = cfg.splitEdges(h, entering, label, returnLabel);
+				loopInfo.setLoop(preheader, loop.getParent());
+				changed = true;
+			}
+		}
+
+		//exit blocks of each loop, with the preheaders in place: an edge leaves the loops
+		//from the innermost one around its source up to the first that holds its target
+		Map<Loop, Set<BasicBlock>> exits = new HashMap<>();
+		for (BasicBlock b : cfg.getBlocks()) {
+			for (BasicBlock s : b.successors) {
+				if (s == cfg.getExit()) {
+					continue;
+				}
+				for (Loop l = loopInfo.getLoopFor(b); l != null && !loopInfo.contains(l, s); l = l.getParent()) {
+					exits.computeIfAbsent(l, k -> new LinkedHashSet<>()).add(s);
+				}
+			}
+		}
+
+		List<Loop> deepestFirst = new ArrayList<>(loops);
+		deepestFirst.sort(Comparator.comparingInt(Loop::getDepth).reversed());
+		for (Loop loop : deepestFirst) {
+			for (BasicBlock s : exits.getOrDefault(loop, Collections.emptySet())) {
+				//an inner loop's new exit block may have taken over every edge from inside
+				List<BasicBlock> inside = new ArrayList<>(2);
+				for (BasicBlock p : s.predecessors) {
+					if (loopInfo.contains(loop, p)) {
+						inside.add(p);
+					}
+				}
+				if (inside.isEmpty() || inside.size() == s.predecessors.size()) {
+					continue;
+				}
+				LabelRef label = context.getLabels().create("loopexit_");
+				BasicBlock exit = cfg.splitEdges(s, inside, label, returnLabel);
+				Loop around = loop.getParent();
+				while (around != null && !loopInfo.contains(around, s)) {
+					around = around.getParent();
+				}
+				loopInfo.setLoop(exit, around);
+				changed = true;
+			}
+		}
+
+		if (changed) {
+			f.setCode(cfg.toCode());
+		}
+		return changed;
+	}
+}
@@ -0,0 +1,31 @@
+package assembly;
+
+import compiler.CompilationContext;
+
+/**
+ * Give every loop a preheader and dedicated exits (see {@link LoopSimplify})
+ */
+public class LoopSimplifyPass extends FunctionPass {
+
+	private final CompilationContext context;
+
+	public LoopSimplifyPass(CompilationContext context) {
+		super("loop-simplify");
+		this.context = context;
+	}
+
+	@Override
+	public boolean run(Function f, PassManager pm) {
+		return LoopSimplify.run(f, pm.getAnalysis(ControlFlowGraph.ANALYSIS, f), pm.getAnalysis(LoopInfo.ANALYSIS, f),
+				context);
+	}
+
+	/**
+	 * Blocks are added, so dominance changes, but the graph and the loop nest are
+	 * updated in place
+	 */
+	@Override
+	public boolean preserves(Analysis<?> a) {
+		return a == ControlFlowGraph.ANALYSIS || a == LoopInfo.ANALYSIS;
+	}
+}
@@ -0,0 +1,23 @@
+package assembly;
+
+import compiler.CompilationContext;
+
+/**
+ * A step that runs once per program, after every function has gone through the
+ * function passes. Functions are written out as soon as they are done, so a module
+ * pass sees the program-wide state (symbol table, string constants), not the code.
+ */
+public abstract class ModulePass {
+
+	private final String name;
+
+	protected ModulePass(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public abstract void run(CompilationContext context, PassManager pm);
+}
@@ -0,0 +1,184 @@
+package assembly;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import compiler.CompilationContext;
+
+/**
+ * Runs the back end's pipeline: an ordered list of {@link FunctionPass}es on each
+ * function, then the {@link ModulePass}es once at the end of the program.
+ *
+ * Analyses requested through {@link #getAnalysis(Analysis, Function)} are cached for
+ * the function being processed: {@link ControlFlowGraph}, {@link DominatorTree},
+ * {@link LoopInfo}, {@link Liveness} and {@link DefUse} each have one. After a pass
+ * reports that it changed the code, every cached analysis the pass does not preserve
+ * is dropped and will be recomputed on the next request.
+ *
+ * The time spent in each pass and analysis is recorded, along with the number of
+ * instructions before and after each pass, for {@link #printStatistics(PrintStream)}.
+ * A pass is counted by its place in the pipeline, so a pass that appears more than
+ * once gets a line for each place.
+ */
+public class PassManager {
+
+	static private class Statistics {
+		final String name;
+		int runs;
+		long nanos;
+		long sizeBefore;
+		long sizeAfter;
+
+		Statistics(String name) {
+			this.name = name;
+		}
+	}
+
+	private final CompilationContext context;
+	private final List<FunctionPass> functionPasses = new ArrayList<>();
+	private final List<ModulePass> modulePasses = new ArrayList<>();
+
+	private Function current;
+	private final Map<Analysis<?>, Object> cache = new HashMap<>();
+
+	private final List<Statistics> functionPassStats = new ArrayList<>(); //by place in the pipeline
+	private final List<Statistics> modulePassStats = new ArrayList<>();
+	private final Map<String, Statistics> analysisStats = new LinkedHashMap<>();
+
+	public PassManager(CompilationContext context) {
+		this.context = context;
+	}
+
+	/**
+	 * Append a pass to the per-function pipeline
+	 */
+	public PassManager add(FunctionPass pass) {
+		functionPasses.add(pass);
+		functionPassStats.add(new Statistics(label(pass.getName())));
+		return this;
+	}
+
+	/**
+	 * Append a pass to the end-of-program pipeline
+	 */
+	public PassManager add(ModulePass pass) {
+		modulePasses.add(pass);
+		modulePassStats.add(new Statistics(label(pass.getName())));
+		return this;
+	}
+
+	/**
+	 * Run every function pass, in order, on <code>f</code>
+	 */
+	public void run(Function f) {
+		current = f;
+		cache.clear();
+		for (int i = 0; i < functionPasses.size(); i++) {
+			FunctionPass pass = functionPasses.get(i);
+			Statistics stats = functionPassStats.get(i);
+			stats.runs++;
+			stats.sizeBefore += f.getCode().size();
+
+			long start = System.nanoTime();
+			boolean changed = pass.run(f, this);
+			stats.nanos += System.nanoTime() - start;
+
+			stats.sizeAfter += f.getCode().size();
+			if (changed) {
+				invalidate(pass);
+			}
+		}
+		cache.clear();
+		current = null;
+	}
+
+	/**
+	 * Run every module pass, in order. Call once, after the last function
+	 */
+	public void finish() {
+		for (int i = 0; i < modulePasses.size(); i++) {
+			ModulePass pass = modulePasses.get(i);
+			Statistics stats = modulePassStats.get(i);
+			stats.runs++;
+			long start = System.nanoTime();
+			pass.run(context, this);
+			stats.nanos += System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * @return The result of <code>a</code> for <code>f</code>, computing it if it is not
+	 * cached. <code>f</code> must be the function the pipeline is running on
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T getAnalysis(Analysis<T> a, Function f) {
+		if (f != current) {
+			throw new IllegalStateException("analysis of " + f.getName() + " requested while running on "
+					+ (current == null ? "no function" : current.getName()));
+		}
+		Object result = cache.get(a);
+		if (result == null) {
+			Statistics stats = analysisStats.computeIfAbsent(a.getName(), Statistics::new);
+			stats.runs++;
+			long start = System.nanoTime();
+			result = a.compute(f, this);
+			stats.nanos += System.nanoTime() - start;
+			cache.put(a, result);
+		}
+		return (T) result;
+	}
+
+	/**
+	 * @return <code>name</code>, numbered if a pass of that name was added before
+	 */
+	private String label(String name) {
+		int places = 0; //counting the pass just added
+		for (FunctionPass p : functionPasses) {
+			places += p.getName().equals(name) ? 1 : 0;
+		}
+		for (ModulePass p : modulePasses) {
+			places += p.getName().equals(name) ? 1 : 0;
+		}
+		return (places == 1) ? name : name + " #" + places;
+	}
+
+	/**
+	 * Drop every cached analysis that <code>pass</code> does not preserve
+	 */
+	private void invalidate(FunctionPass pass) {
+		Iterator<Analysis<?>> it = cache.keySet().iterator();
+		while (it.hasNext()) {
+			if (!pass.preserves(it.next())) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Print how often each pass and analysis ran, how long they took in total, and
+	 * (for function passes) the total size of the code going in and coming out
+	 */
+	public void printStatistics(PrintStream out) {
+		List<Statistics> passStats = new ArrayList<>(functionPassStats);
+		passStats.addAll(modulePassStats);
+		long total = 0;
+		for (Statistics s : passStats) {
+			total += s.nanos;
+		}
+
+		out.println(String.format("%-20s %8s %12s %7s %14s %14s", "pass", "runs", "time (ms)", "%", "insts before", "insts after"));
+		for (Statistics s : passStats) {
+			out.println(String.format("%-20s %8d %12.2f %6.1f%% %14d %14d", s.name, s.runs, s.nanos / 1e6,
+					(total == 0) ? 0.0 : 100.0 * s.nanos / total, s.sizeBefore, s.sizeAfter));
+		}
+		for (Statistics s : analysisStats.values()) {
+			out.println(String.format("%-20s %8d %12.2f", "  analysis " + s.name, s.runs, s.nanos / 1e6));
+		}
+		out.println(String.format("%-20s %8s %12.2f", "total", "", total / 1e6));
+	}
+}
@@ -0,0 +1,46 @@
+package assembly;
+
+import compiler.CompilationContext;
+
+/**
+ * Turn the 3AC of a function into machine code with {@link RegisterAllocator},
+ * {@link LinearScanAllocator} or {@link GraphColoringAllocator}, whichever the context
+ * asks for
+ */
+public class RegisterAllocationPass extends FunctionPass {
+
+	private final CompilationContext context;
+
+	public RegisterAllocationPass(CompilationContext context) {
+		super("regalloc");
+		this.context = context;
+	}
+
+	@Override
+	public boolean run(Function f, PassManager pm) {
+		ControlFlowGraph cfg = pm.getAnalysis(ControlFlowGraph.ANALYSIS, f);
+		Liveness liveness = pm.getAnalysis(Liveness.ANALYSIS, f);
+		switch (context.getRegisterAllocation()) {
+			case LINEAR_SCAN: {
+				LinearScanAllocator ra = new LinearScanAllocator(context, f, cfg, liveness);
+				ra.run();
+				f.setUsedRegisters(ra.getUsedRegs());
+				break;
+			}
+			case GRAPH_COLORING: {
+				GraphColoringAllocator ra = new GraphColoringAllocator(context, f, cfg, liveness,
+						pm.getAnalysis(LoopInfo.ANALYSIS, f));
+				ra.run();
+				f.setUsedRegisters(ra.getUsedRegs());
+				break;
+			}
+			default: {
+				RegisterAllocator ra = new RegisterAllocator(context, f.getBody(), f.getScope());
+				ra.run(cfg, liveness);
+				f.setUsedRegisters(ra.getUsedRegs());
+				break;
+			}
+		}
+		return true;
+	}
+}
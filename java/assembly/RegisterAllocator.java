@@ -1,52 +1,75 @@
 package assembly;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import ast.visitor.AbstractASTVisitor;
 
 import ast.*;
 import assembly.instructions.*;
-import assembly.instructions.Instruction.OpCode;
-import assembly.instructions.Instruction.Operand;
 import compiler.LocalScope;
 import compiler.Scope;
 import compiler.Scope.SymbolTableEntry;
 import compiler.Scope.Type;
-import compiler.Compiler;
-import compiler.GlobalScope;
+import compiler.CompilationContext;
 
 public class RegisterAllocator {
-    private int regNum;
+    private CompilationContext context;
     private CodeObject body;
     private LocalScope scope;
-    private LinkedHashMap<String, Tuple> regMap = generateHashMap();
+    private final PhysicalRegister[] regs; //by slot: x1 up, then f0 up
+    private final Operand[] holds; //by slot: what the register holds, null if nothing
+    private final HashMap<Operand, Integer> holder = new HashMap<>(); //the other way round
+    private final BitSet free = new BitSet(); //slots that can be given out as they are
+    private final BitSet clean = new BitSet(); //slots holding an unchanged copy, which can be taken back
+    private final BitSet dirty = new BitSet(); //slots holding a value not yet written to memory
+    private final BitSet used = new BitSet(); //slots given out at least once
+    private final int numIntSlots;
     private InstructionList code = new InstructionList();
+    private Liveness liveness;
 
-    public RegisterAllocator(int regNum, CodeObject body, LocalScope scope) {
-        this.regNum = regNum;
+    static final PhysicalRegister scratch = PhysicalRegister.intReg(3); //never allocated; used for global addresses
+
+    public RegisterAllocator(CompilationContext context, CodeObject body, LocalScope scope) {
+        this.context = context;
         this.body = body;
         this.scope = scope;
+        this.numIntSlots = context.getNumIntRegisters() - 1;
+        this.regs = new PhysicalRegister[numIntSlots + context.getNumFloatRegisters()];
+        this.holds = new Operand[regs.length];
+        for (int i = 0; i < numIntSlots; i++) {
+            regs[i] = PhysicalRegister.intReg(i + 1);
+        }
+        for (int i = numIntSlots; i < regs.length; i++) {
+            regs[i] = PhysicalRegister.floatReg(i - numIntSlots);
+        }
+        free.set(0, regs.length);
+        //reserved, or the scratch register: never allocated
+        for (PhysicalRegister r : new PhysicalRegister[] {PhysicalRegister.RA, PhysicalRegister.SP, PhysicalRegister.FP, scratch}) {
+            if (r.getNumber() <= numIntSlots) {
+                free.clear(slotOf(r));
+            }
+        }
     }
 
     public CodeObject run() {
-        List<InstructionList> bbs = getBasicBlocks(body.code);
-
-        for (InstructionList bb : bbs) {
-            List<List<String>> livenessInfo = performLivenessAnalysis(bb);
-            // for (List<String> ls : livenessInfo) {
-            //     for (String s : ls) {
-            //         System.err.print(s);
-            //         System.err.print(" ");
-            //     }
-            //     System.err.println();
-            // }
-            regAllocation(bb, livenessInfo);
+        return run(new ControlFlowGraph(body.code));
+    }
+
+    public CodeObject run(ControlFlowGraph cfg) {
+        return run(cfg, new Liveness(cfg));
+    }
+
+    /**
+     * Allocate registers for the body, whose blocks are given by <code>cfg</code> and
+     * what is live where by <code>liveness</code>
+     */
+    public CodeObject run(ControlFlowGraph cfg, Liveness liveness) {
+        this.liveness = liveness;
+        for (BasicBlock block : cfg.getBlocks()) {
+            regAllocation(block.getCode(), liveness.walk(block));
             //code.addAll(bb);
         }
 
@@ -54,191 +77,178 @@ public class RegisterAllocator {
         return body;
     }
 
-    public List<String> getUsedRegs() {
-        List<String> regs = new ArrayList<>();
+    public List<PhysicalRegister> getUsedRegs() {
+        List<PhysicalRegister> regs = new ArrayList<>();
 
-        for (String key : regMap.keySet()) {
-            Tuple pair = regMap.get(key);
-            if (pair.used) {
-                regs.add(key);
-            }
+        for (int i = used.nextSetBit(0); i >= 0; i = used.nextSetBit(i + 1)) {
+            regs.add(this.regs[i]);
         }
         return regs;
     }
 
-    public List<InstructionList> getBasicBlocks(InstructionList code) {
-        List<InstructionList> bbs = new ArrayList<>();
-        // generate list of basic blocks
-        Set<Integer> leaders = new HashSet<Integer>();
-        leaders.add(1);
-        for(int i = 3; i <= code.size(); i++) {
-            if (((Instruction) (code.toArray()[i - 1])) instanceof Label) {
-                leaders.add(i);
-                continue;
-            }
-            switch (((Instruction) (code.toArray()[i - 1])).getOC()) {
-                case BEQ:
-		        case BGE:
-		        case BGT:
-		        case BLE:
-		        case BLT:
-		        case BNE:
-		        case J:
-                    leaders.add(i + 1);
-                    break;
-                default:
-                    break;
-            }
-        }
+    private int slotOf(PhysicalRegister r) {
+        return (r.getRegClass() == Operand.RegClass.INT) ? r.getNumber() - 1 : numIntSlots + r.getNumber();
+    }
 
-        InstructionList bb = new InstructionList();
-        leaders.remove(1);
-        bb.add((Instruction) (code.toArray()[0]));
-        for (int i = 2; i <= code.size(); i++) {
-            if (leaders.contains(i)) {
-                leaders.remove(i);
-                bbs.add(bb);
-                bb = new InstructionList();
-            }
-            bb.add((Instruction) (code.toArray()[i - 1]));
-        }
-        bbs.add(bb);
-        return bbs;
+    /**
+     * Note that the register in <code>slot</code> now holds an unchanged copy of <code>opr</code>.
+     * An operand is in at most one register, so that <code>holder</code> can name it
+     */
+    private void assign(int slot, Operand opr) {
+        assert !holder.containsKey(opr) : opr + " is already in " + regs[holder.get(opr)];
+        holds[slot] = opr;
+        holder.put(opr, slot);
+        free.clear(slot);
+        clean.set(slot);
+        dirty.clear(slot);
+        used.set(slot);
     }
 
-    static List<String> getVars(List<SymbolTableEntry> stes, boolean isLocal) {
-        List<String> vars = new ArrayList<>();
+    /**
+     * Note that the register in <code>slot</code> holds a newer value than memory
+     */
+    private void markDirty(int slot) {
+        clean.clear(slot);
+        dirty.set(slot);
+    }
 
-        for (SymbolTableEntry ste : stes) {
-            if (isLocal) {
-                vars.add("$l" + ste.addressToString());
-            }
-            else {
-                vars.add("$g" + ste.getName());
-            }
+    /**
+     * Let the register in <code>slot</code> go without writing it back
+     */
+    private void release(int slot) {
+        Operand opr = holds[slot];
+        if (opr != null) {
+            holder.remove(opr, slot);
         }
-
-        return vars;
+        holds[slot] = null;
+        clean.clear(slot);
+        dirty.clear(slot);
+        free.set(slot);
     }
 
-    public List<List<String>> performLivenessAnalysis(InstructionList bb) {
-        List<List<String>> livenessInfo = new ArrayList<>();
-        // generate list (length of bb) of lists of strings which holds live variable info for each line
-        List<SymbolTableEntry> localstes = new ArrayList<>(scope.getEntries());
-        GlobalScope gscope = (GlobalScope) Compiler.symbolTable.getGlobalScope();
-        List<SymbolTableEntry> globalstes = new ArrayList<>(gscope.getEntries());
-        Set<String> lives = new HashSet<>();
-        List<String> globalVars = getVars(globalstes, false);
-        List<String> localVars = getVars(localstes, true);
-
-        lives.addAll(globalVars);
-        lives.addAll(localVars);
-        
-        for (int i = bb.size() - 1; i >= 0; i--) {
-            Set<String> prevlives = new HashSet<>();
-            Set<String> use = new HashSet<>();
-            Set<String> kill = new HashSet<>();
-            Instruction line = (Instruction) (bb.toArray()[i]);
-            List<String> livelist = new ArrayList<>(lives);
-            livenessInfo.add(livelist);
-            if (line.is3AC(line.getDest())) {
-                if (line.getOC() != OpCode.SW && line.getOC() != OpCode.FSW) {
-                    kill.add(line.getDest());
-                }
-                else {
-                    use.add(line.getDest());
-                }
-            }
-            if (line.is3AC(line.getSrc1())) {
-                if (line.getOC() != OpCode.SW && line.getOC() != OpCode.FSW) {
-                    use.add(line.getSrc1());
-                }
-                else {
-                    kill.add(line.getSrc1());
-                }
-            }
-            if (line.is3AC(line.getSrc2())) {
-                use.add(line.getSrc2());
-            }
-
-            prevlives.addAll(use);
-            lives.removeAll(kill);
-            prevlives.addAll(lives);
-
-            lives.clear();
-            lives.addAll(prevlives);
-            prevlives.clear();
+    public void free(PhysicalRegister r, Operand opr, Liveness.Cursor lives, Type type, SymbolTableEntry ste) {
+        int slot = slotOf(r);
+        if (dirty.get(slot) && lives.isLive(opr)) {
+            code.splice(store(r, type, ste));
         }
-        Collections.reverse(livenessInfo);
-        return livenessInfo;
+        release(slot);
     }
 
-    static LinkedHashMap<String, Tuple> generateHashMap() {
-        LinkedHashMap<String, Tuple> hashMap = new LinkedHashMap<String, Tuple>();
-
-        for (int i = 1; i <= 1023; i++) {
-            String var = "";
-            if (i == 1) {
-                var = "ra";
-            }
-            else if (i == 2) {
-                var = "sp";
-            }
-            else if (i == 8) {
-                var = "fp";
-            }
-            String key = "x" + i;
-            Tuple value = new Tuple(var, false, false);
-            hashMap.put(key, value);
+    /**
+     * The other way round from {@link #rvalify}: write <code>r</code> to the memory home
+     * of <code>ste</code>. A string's register holds its address, which never changes,
+     * so nothing is written for one
+     */
+    static InstructionList store(Operand r, Type type, SymbolTableEntry ste) {
+        InstructionList stores = new InstructionList();
+        if (type == Type.STRING) {
+            return stores;
+        }
+        Operand offset = Immediate.ZERO;
+        Operand addr;
+        if (ste.isLocal()) {
+            addr = PhysicalRegister.FP;
+            offset = Immediate.of(ste.getAddress());
+        }
+        else {
+            stores.add(new La(scratch, Immediate.address(ste.getAddress())));
+            addr = scratch;
+        }
+        if (type == Type.FLOAT) {
+            stores.add(new Fsw(r, addr, offset));
+        }
+        else {
+            stores.add(new Sw(r, addr, offset));
         }
+        return stores;
+    }
 
-        for (int i = 0; i < 1024; i++) {
-            String key = "f" + i;
-            Tuple value = new Tuple("", false, false);
-            hashMap.put(key, value);
+    /**
+     * @return The symbol for the memory home of <code>opr</code>: a variable's own, and
+     * for anything else a frame slot in <code>scope</code>, made the first time and kept
+     * in <code>slots</code>
+     */
+    static SymbolTableEntry home(Operand opr, LocalScope scope, Map<Operand, SymbolTableEntry> slots) {
+        if (opr instanceof Variable) {
+            return ((Variable) opr).getSymbol();
         }
+        return slots.computeIfAbsent(opr, k -> scope.addSymbol(
+                (opr.getRegClass() == Operand.RegClass.FLOAT) ? Type.FLOAT : Type.INT, opr.toString()));
+    }
 
-        return hashMap;
+    /**
+     * @return A copy of <code>src</code> to <code>dest</code>, for their register class
+     */
+    static Instruction move(Operand src, Operand dest) {
+        return (dest.getRegClass() == Operand.RegClass.FLOAT) ? new FMv(src, dest) : new Mv(src, dest);
     }
 
-    public void free(String r, String opr, List<String> lives, Type type, SymbolTableEntry ste) {
-        Tuple pair = regMap.get(r);
-        String offset = "0";
-        String addr = ste.addressToString();
-        if (pair.isDirty && lives.contains(opr)) {
-            if (ste.isLocal()) {
-                offset = ste.addressToString();
-                addr = "fp";
-            }
-            if (type == Type.FLOAT) {
-                code.add(new Fsw(r, addr, offset));
-            }
-            else {
-                code.add(new Sw(r, addr, offset));
+    /**
+     * @return By block id, the globals (the liveness indices set in <code>globals</code>)
+     * that may have been written since they were last in step with memory, on leaving
+     * the block. A call puts every global back in step
+     */
+    static BitSet[] dirtyGlobals(ControlFlowGraph cfg, Liveness liveness, BitSet globals) {
+        BitSet[] out = new BitSet[cfg.size()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = new BitSet();
+        }
+        boolean changed = !globals.isEmpty();
+        while (changed) {
+            changed = false;
+            for (BasicBlock b : cfg.reversePostOrder()) {
+                if (b == cfg.getEntry() || b == cfg.getExit()) {
+                    continue;
+                }
+                BitSet d = dirtyIn(b, out);
+                for (Instruction inst : b.getCode()) {
+                    if (inst.getDescriptor().isCall()) {
+                        d.clear();
+                    }
+                    for (Instruction.Slot s : inst.defs()) {
+                        int v = liveness.indexOf(inst.getOperand(s));
+                        if (v >= 0 && globals.get(v)) {
+                            d.set(v);
+                        }
+                    }
+                }
+                if (!d.equals(out[b.getId()])) {
+                    out[b.getId()] = d;
+                    changed = true;
+                }
             }
         }
-        pair.var = "";
-        pair.isDirty = false;
-        regMap.put(r, pair);
+        return out;
     }
 
-    static InstructionList rvalify(String opr, String r, Type type, SymbolTableEntry ste, List<String> lives) {
+    /**
+     * @return The globals that may be dirty on entering <code>b</code>, given what
+     * {@link #dirtyGlobals} found for the blocks
+     */
+    static BitSet dirtyIn(BasicBlock b, BitSet[] out) {
+        BitSet d = new BitSet();
+        for (BasicBlock p : b.predecessors) {
+            d.or(out[p.getId()]);
+        }
+        return d;
+    }
+
+    static InstructionList rvalify(Operand opr, Operand r, Type type, SymbolTableEntry ste, Liveness.Cursor lives) {
         InstructionList loads = new InstructionList();
-        String offset = "0";
-        String addr;
+        Operand offset = Immediate.ZERO;
+        Operand addr;
         if (ste.isLocal()) {
-            addr = "fp";
-            offset = ste.addressToString();
+            addr = PhysicalRegister.FP;
+            offset = Immediate.of(ste.getAddress());
         }
         else {
-            addr = ste.addressToString();
+            Immediate address = Immediate.address(ste.getAddress());
             if (type == Type.INT || type == Type.FLOAT) {
-                String reg = "x3";
-                loads.add(new La(reg, addr));
-                addr = reg;
+                loads.add(new La(scratch, address));
+                addr = scratch;
             }
             else {
-                loads.add(new La(r, addr));
+                loads.add(new La(r, address));
                 addr = r;
             }
             
@@ -257,263 +267,184 @@ public class RegisterAllocator {
         return loads;
     }
 
-    public String ensure(String opr, Type type, List<String> lives, SymbolTableEntry ste) {
-        for (String key : regMap.keySet()) {
-            Tuple pair = regMap.get(key);
-            if (pair.var.equals(opr)) {
-                return key;
-            }
+    public PhysicalRegister ensure(Operand opr, Type type, Liveness.Cursor lives, SymbolTableEntry ste) {
+        Integer slot = holder.get(opr);
+        if (slot != null) {
+            return regs[slot];
         }
-        String r = allocate(opr, type, lives, ste);
-        code.addAll(rvalify(opr, r, type, ste, lives));
+        PhysicalRegister r = allocate(opr, type, lives, ste);
+        code.splice(rvalify(opr, r, type, ste, lives));
 
         return r;
     }
 
-    public boolean isProperType(String key, Type type) {
-        if (key.startsWith("f") && type == Type.FLOAT) {
+    public boolean isProperType(PhysicalRegister key, Type type) {
+        if (key.getRegClass() == Operand.RegClass.FLOAT && type == Type.FLOAT) {
             return true;
         }
-        else if (key.startsWith("x") && (type == Type.INT || type == Type.STRING)) {
+        else if (key.getRegClass() == Operand.RegClass.INT && (type == Type.INT || type == Type.STRING)) {
             return true;
         }
         return false;
     }
 
-    public String allocate(String opr, Type type, List<String> lives, SymbolTableEntry ste) {
-        for (String key : regMap.keySet()) {
-            Tuple pair = regMap.get(key);
-            if (pair.var.isEmpty() && isProperType(key, type) && !key.equals("x3")) {
-                pair.var = opr;
-                pair.used = true;
-                regMap.put(key, pair);
-                return key;
-            }
+    public PhysicalRegister allocate(Operand opr, Type type, Liveness.Cursor lives, SymbolTableEntry ste) {
+        // a new value of opr: whatever register held the old one no longer counts
+        Integer old = holder.get(opr);
+        if (old != null) {
+            release(old);
         }
-        for (String key : regMap.keySet()) {
-            Tuple pair = regMap.get(key);
-            String regToFree;
-            if (!pair.isDirty && isProperType(key, type) && !key.equals("x3")) {
-                regToFree = key;
-                // if (pair.var.startsWith("$t") || pair.var.startsWith("$f")) {
-                //     spilled_temp_handler();
-                // } 
-                free(regToFree, pair.var, lives, type, ste);
-                pair.var = opr;
-                pair.used = true;
-                regMap.put(regToFree, pair);
-                return regToFree;
-            }
+        int lo = (type == Type.FLOAT) ? numIntSlots : 0;
+        int hi = (type == Type.FLOAT) ? regs.length : numIntSlots;
+        int slot = free.nextSetBit(lo);
+        if (slot < 0 || slot >= hi) {
+            // none free: take back a register whose value is also in memory
+            slot = clean.nextSetBit(lo);
+            if (slot < 0 || slot >= hi) {
+                return null;
+            }
+            free(regs[slot], holds[slot], lives, type, ste);
         }
-        return "";
+        assign(slot, opr);
+        return regs[slot];
     }
 
-    public Tuple getTypeSTE(String opr, List<SymbolTableEntry> localstes, GlobalScope gscope) {
-        Type type = Type.INT;
-        SymbolTableEntry ste = new SymbolTableEntry(type, opr, 0);;
-        if (opr.substring(0,2).equals("$l")) {
-            int offset = Integer.valueOf(opr.substring(2));
-            for(SymbolTableEntry s : localstes) {
-                if (s.getAddress() == offset) {
-                    type = s.getType();
-                    ste = s;
-                }
-            }
-        }
-        else if (opr.substring(0,2).equals("$g")) {
-            ste = gscope.getSymbolTableEntry(opr.substring(2));
+    public Tuple getTypeSTE(Operand opr) {
+        Type type;
+        SymbolTableEntry ste;
+        if (opr instanceof Variable) {
+            ste = ((Variable) opr).getSymbol();
             type = ste.getType();
         }
-        else if (opr.substring(0,2).equals("$t")) {
+        else if (opr.getRegClass() == Operand.RegClass.INT) {
             type = Type.INT;
-            ste = new SymbolTableEntry(type, opr, 0);
+            ste = new SymbolTableEntry(type, opr.toString(), 0);
         }
         else {
             type = Type.FLOAT;
-            ste = new SymbolTableEntry(type, opr, 0);
+            ste = new SymbolTableEntry(type, opr.toString(), 0);
         }
         Tuple retval = new Tuple(type, ste);
         return retval;
     }
 
-    public void saveDirtyRegs(List<SymbolTableEntry> localstes, GlobalScope gscope, List<String> lives) {
-        for (String key : regMap.keySet()) {
-            Tuple pair = regMap.get(key);
-            if (pair.isDirty) {
-                Tuple typeste = getTypeSTE(pair.var, localstes, gscope);
-                String addr = typeste.ste.addressToString();
-                if (addr.equals("0x0")) {
-                    continue;
-                }
-                String offset = "0";
-                String reg = "x3";
-                if (!typeste.ste.isLocal()) {
-                    code.add(new La(reg, addr));
-                    addr = reg;
-                }
-                else {
-                    offset = addr;
-                    addr = "fp";
-                }
-                if (typeste.type == Type.INT) {
-                    code.add(new Sw(key, addr, offset));
-                }
-                else {
-                    code.add(new Fsw(key, addr, offset));
-                }
+    /**
+     * Write back every register holding a changed variable that is live on leaving the
+     * block, or (with <code>lives</code> null) every register holding a changed global
+     */
+    public void saveDirtyRegs(Liveness.Cursor lives) {
+        for (int slot = dirty.nextSetBit(0); slot >= 0; slot = dirty.nextSetBit(slot + 1)) {
+            if (!(holds[slot] instanceof Variable)) {
+                continue; //temporaries have no home in memory
+            }
+            Variable var = (Variable) holds[slot];
+            if (lives == null ? var.isLocal() : !lives.isLiveOut(var)) {
+                continue;
+            }
+            code.splice(store(regs[slot], var.getSymbol().getType(), var.getSymbol()));
+            dirty.clear(slot);
+            clean.set(slot);
+        }
+    }
+
+    /**
+     * Forget the registers holding globals, which a call may have changed in memory
+     */
+    public void dropGlobals() {
+        for (int slot = used.nextSetBit(0); slot >= 0; slot = used.nextSetBit(slot + 1)) {
+            if (liveness.isGlobal(holds[slot])) {
+                release(slot);
             }
         }
     }
 
     public void unuse() {
-        for (String key : regMap.keySet()) {
-            Tuple pair = regMap.get(key);
-            if (pair.used) {
-                pair.var = "";
-                pair.isDirty = false;
-                regMap.put(key, pair);
+        for (int slot = used.nextSetBit(0); slot >= 0; slot = used.nextSetBit(slot + 1)) {
+            if (holds[slot] != null) {
+                release(slot);
             }
         }
     }
 
-    public void regAllocation(InstructionList bb, List<List<String>> livenessInfo) {
-        // using livenessinfo and the bb code, allocate registers and expand the macros accordingly
-        List<SymbolTableEntry> localstes = new ArrayList<>(scope.getEntries());
-        GlobalScope gscope = (GlobalScope) Compiler.symbolTable.getGlobalScope();
+    public void regAllocation(InstructionList bb, Liveness.Cursor lives) {
+        // using the liveness cursor and the bb code, allocate registers and expand the macros accordingly
         int idx = 0;
+        Instruction last = bb.getLast();
         code.add(new Blank("Start of BB"));
         for (Instruction line : bb) {
-            String src1 = line.getSrc1();
-            String src2 = line.getSrc2();
-            String dest = line.getDest();
-
-            Tuple src1Tuple = new Tuple(null, null);
-            Tuple src2Tuple = new Tuple(null, null);
-            Tuple destTuple = new Tuple(null, null);
-
-            String Rx = "";
-            String Ry = "";
-            String Rz = "";
-
-            // System.err.println(bb.toString());
-            // System.err.println();
-            // System.err.println(line.toString());
-            // System.err.println();
-
-            String temp = "";
-            if (line.getOC() == OpCode.SW || line.getOC() == OpCode.FSW) {
-                temp = src1;
-                src1 = dest;
-                dest = temp;
-            }
-
-            if (line.is3AC(src1)) {
-                if (line.getOC() == OpCode.SW || line.getOC() == OpCode.FSW) {
-                    src1Tuple = getTypeSTE(src1, localstes, gscope);
-                    Rx = ensure(src1, src1Tuple.type, livenessInfo.get(idx), src1Tuple.ste);
-                    if (!livenessInfo.get(idx).contains(src1)) {
-                        free(Rx, src1, livenessInfo.get(idx), src1Tuple.type, src1Tuple.ste);
-                    }
-                    line.setDest(Rx);
-                }
-                else {
-                    src1Tuple = getTypeSTE(src1, localstes, gscope);
-                    Rx = ensure(src1, src1Tuple.type, livenessInfo.get(idx), src1Tuple.ste);
-                }
-            }
-            if (line.is3AC(src2)) {
-                src2 = line.getSrc2();
-                src2Tuple = getTypeSTE(src2, localstes, gscope);
-                Ry = ensure(src2, src2Tuple.type, livenessInfo.get(idx), src2Tuple.ste);
-            }
-            
-            if (!Rx.isEmpty() && !(line.getOC() == OpCode.SW || line.getOC() == OpCode.FSW)) {
-                if (!livenessInfo.get(idx).contains(src1)) {
-                    free(Rx, src1, livenessInfo.get(idx), src1Tuple.type, src1Tuple.ste);
+            lives.advance(); //now gives what is live after this line
+            boolean assignment = line.isAssignment(); //before its operands are replaced by registers
+            Instruction.Slot[] uses = line.uses();
+            Instruction.Slot[] defs = line.defs();
+
+            // make sure every operand read is in a register, then let go of the ones that die here
+            Operand[] useOprs = new Operand[uses.length];
+            Tuple[] useInfo = new Tuple[uses.length];
+            PhysicalRegister[] useRegs = new PhysicalRegister[uses.length];
+            for (int k = 0; k < uses.length; k++) {
+                useOprs[k] = line.getOperand(uses[k]);
+                if (line.is3AC(useOprs[k])) {
+                    useInfo[k] = getTypeSTE(useOprs[k]);
+                    useRegs[k] = ensure(useOprs[k], useInfo[k].type, lives, useInfo[k].ste);
                 }
-                line.setSrc1(Rx);
             }
-            
-            if (!Ry.isEmpty()) {
-                if (!livenessInfo.get(idx).contains(src2)) {
-                    free(Ry, src2, livenessInfo.get(idx), src2Tuple.type, src2Tuple.ste);
+            for (int k = 0; k < uses.length; k++) {
+                if (useRegs[k] != null) {
+                    if (!lives.isLive(useOprs[k])) {
+                        free(useRegs[k], useOprs[k], lives, useInfo[k].type, useInfo[k].ste);
+                    }
+                    line.setOperand(uses[k], useRegs[k]);
                 }
-                line.setSrc2(Ry);
             }
-            if (line.is3AC(dest)) {
-                if ((line.getOC() == OpCode.SW || line.getOC() == OpCode.FSW)) {
-                    destTuple = getTypeSTE(dest, localstes, gscope);
-                    Rz = allocate(dest, destTuple.type, livenessInfo.get(idx), destTuple.ste);
-                    line.setSrc1(Rz);
-                }
-                else {
-                    destTuple = getTypeSTE(dest, localstes, gscope);
-                    Rz = allocate(dest, destTuple.type, livenessInfo.get(idx), destTuple.ste);
-                    line.setDest(Rz);
-                }
 
-                if (!Rz.isEmpty()) {
-                    Tuple RzInfo = regMap.get(Rz);
-                    boolean isDirty = true;
-                    regMap.put(Rz, new Tuple(RzInfo.var, isDirty, true));
+            PhysicalRegister defReg = null;
+            for (Instruction.Slot slot : defs) {
+                Operand dest = line.getOperand(slot);
+                if (line.is3AC(dest)) {
+                    Tuple destTuple = getTypeSTE(dest);
+                    defReg = allocate(dest, destTuple.type, lives, destTuple.ste);
+                    line.setOperand(slot, defReg);
+
+                    if (defReg != null) {
+                        markDirty(slotOf(defReg));
+                    }
                 }
             }
 
-            if (line.getOC() == OpCode.SW || line.getOC() == OpCode.FSW) {
-                if (Rx != Rz || (Rx.isEmpty() && Rz.isEmpty())) {
-                    if (!Rx.isEmpty() && !Rz.isEmpty()) {
-                        code.add(new Mv(Rx, Rz));
+            if (assignment) {
+                // the variable now lives in a register: copy the value over, unless it is already there
+                PhysicalRegister Rx = useRegs[0];
+                PhysicalRegister Rz = defReg;
+                if (Rx != Rz || (Rx == null && Rz == null)) {
+                    if (Rx != null && Rz != null) {
+                        code.add(move(Rx, Rz));
                     }
                     else {
                         code.add(line);
                     }
                 }
             }
+            else if (line.getDescriptor().isCall()) {
+                // the callee sees globals in memory, and may change them there
+                saveDirtyRegs(null);
+                code.add(line);
+                dropGlobals();
+            }
             else {
                 code.add(line);
             }
             
-            if (idx == bb.size() - 2) {
-                Instruction inst = (Instruction) bb.toArray()[idx + 1];
-                if(inst.getOC() != null) {
-                    switch (inst.getOC()) {
-                        case BEQ:
-                        case BGE:
-                        case BGT:
-                        case BLE:
-                        case BLT:
-                        case BNE:
-                        case J:
-                            saveDirtyRegs(localstes, gscope, livenessInfo.get(idx));
-                            break;
-                        default:
-                            break;
-                    }
-                }
+            // write back dirty registers before leaving the block: ahead of a branch, after anything else
+            if (idx == bb.size() - 2 && last.getDescriptor().isTerminator()) {
+                saveDirtyRegs(lives);
             }
             if (idx == bb.size() - 1) {
-                Instruction inst = (Instruction) bb.toArray()[idx];
-                if (inst.getOC() != null) {
-                    switch (inst.getOC()) {
-                        case BEQ:
-                        case BGE:
-                        case BGT:
-                        case BLE:
-                        case BLT:
-                        case BNE:
-                        case J:
-                            break;
-                        default:
-                            saveDirtyRegs(localstes, gscope, livenessInfo.get(idx));
-                            break;
-                    }
+                InstructionDescriptor desc = last.getDescriptor();
+                if (!desc.isTerminator() && !desc.isPseudo()) {
+                    saveDirtyRegs(lives);
                 }
                 unuse();
             }
-            // for (String key : regMap.keySet()) {
-            //     Tuple pair = regMap.get(key);
-            //     System.err.println(key + ": " + pair.var + " Dirty: " + pair.isDirty);
-            // }
             idx++;
         }
         code.add(new Blank("End of BB"));
@@ -521,29 +452,21 @@ public class RegisterAllocator {
     }
     
     static class Tuple {
-        String var;
-        boolean isDirty;
         SymbolTableEntry ste;
         Type type;
-        boolean used;
 
-        public Tuple(String var, boolean isDirty, boolean used) {
-            this.var = var;
-            this.isDirty = isDirty;
-            this.used = used;
-        }
         public Tuple(Type type, SymbolTableEntry ste) {
             this.type = type;
             this.ste = ste;
         }
 
         public String toString() {
-            return "(" + var + ", " + isDirty + ")";
+            return "(" + type + ", " + ste + ")";
         }
     }
 
     public int getRegNum() {
-        return regNum;
+        return context.getNumIntRegisters();
     }
 
     public CodeObject getBody() {
@@ -0,0 +1,465 @@
+package assembly;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import assembly.instructions.*;
+import assembly.instructions.Instruction.Slot;
+import compiler.CompilationContext;
+import compiler.SymbolTable;
+import compiler.Scope.SymbolTableEntry;
+
+/**
+ * Conversion of a function's 3AC into and out of SSA form.
+ *
+ * <b>Construction</b> ({@link #construct}) places pruned phis: a phi for an operand
+ * goes at the iterated dominance frontier of its definitions, but only in blocks
+ * where the operand is live on entry. Every temporary and local variable is renamed;
+ * globals are renamed only in functions that make no calls, since a callee may read
+ * or write them. Renaming walks the dominator tree, replacing each operand with an
+ * {@link SSAValue}. Phis are {@link Phi} instructions at the top of their block.
+ *
+ * <b>Destruction</b> ({@link #destruct}) maps each version back to the operand it
+ * is a version of. Each phi becomes a copy on each incoming edge; right after
+ * construction these are copies of an operand to itself and vanish, but a pass that
+ * propagates copies can leave a phi reading another operand. The copies on an edge
+ * happen at the same time (a parallel copy), so they are sequentialized: a
+ * destination is written only once no remaining copy needs its old value, and a
+ * cycle (such as a swap) is broken through a temporary. Critical edges are split so
+ * that the copies run only on their own edge. Temporaries that the copies read or
+ * write are given a home in the frame, since they now live across blocks. Mapping
+ * versions back is correct as long as no two versions of the same operand are live
+ * at the same point. Passes that break this, for example by propagating a copy of a
+ * variable past a new definition of it, must rename first.
+ */
+public class SSA {
+
+	private SSA() {
+	}
+
+	/**
+	 * Put the code of the blocks of <code>cfg</code> in SSA form, and make
+	 * <code>f</code>'s code their concatenation. The graph stays valid.
+	 */
+	public static void construct(Function f, ControlFlowGraph cfg, DominatorTree dom) {
+		int n = cfg.size();
+		List<BasicBlock> blocks = cfg.getBlocks();
+
+		boolean hasCalls = false;
+		for (BasicBlock b : blocks) {
+			for (Instruction inst : b.getCode()) {
+				hasCalls |= inst.getDescriptor().isCall();
+			}
+		}
+
+		//local def and upward-exposed use sets, and where each operand is defined
+		List<Set<Operand>> defs = new ArrayList<>(n);
+		List<Set<Operand>> upwardUses = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			defs.add(new HashSet<>());
+			upwardUses.add(new HashSet<>());
+		}
+		Map<Operand, List<BasicBlock>> defBlocks = new LinkedHashMap<>();
+		Set<Operand> globals = new HashSet<>();
+		for (BasicBlock b : blocks) {
+			Set<Operand> d = defs.get(b.getId());
+			Set<Operand> u = upwardUses.get(b.getId());
+			for (Instruction inst : b.getCode()) {
+				if (inst instanceof Phi) {
+					throw new IllegalStateException(f.getName() + " is already in SSA form");
+				}
+				for (Slot s : inst.uses()) {
+					Operand o = inst.getOperand(s);
+					if (renamable(o, hasCalls)) {
+						if (!d.contains(o)) {
+							u.add(o);
+						}
+						if (isGlobal(o)) {
+							globals.add(o);
+						}
+					}
+				}
+				for (Slot s : inst.defs()) {
+					Operand o = inst.getOperand(s);
+					if (renamable(o, hasCalls)) {
+						if (d.add(o)) {
+							defBlocks.computeIfAbsent(o, k -> new ArrayList<>()).add(b);
+						}
+						if (isGlobal(o)) {
+							globals.add(o);
+						}
+					}
+				}
+			}
+		}
+
+		//live-in sets, for pruning; globals are live at the end of the function
+		List<Set<Operand>> liveIn = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			liveIn.add(new HashSet<>());
+		}
+		liveIn.get(cfg.getExit().getId()).addAll(globals);
+		List<BasicBlock> rpo = cfg.reversePostOrder();
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = rpo.size() - 1; i >= 0; i--) {
+				BasicBlock b = rpo.get(i);
+				if (b == cfg.getExit() || b == cfg.getEntry()) {
+					continue;
+				}
+				Set<Operand> in = liveIn.get(b.getId());
+				Set<Operand> d = defs.get(b.getId());
+				for (BasicBlock s : b.successors) {
+					for (Operand o : liveIn.get(s.getId())) {
+						if (!d.contains(o) && in.add(o)) {
+							changed = true;
+						}
+					}
+				}
+				if (in.addAll(upwardUses.get(b.getId()))) {
+					changed = true;
+				}
+			}
+		}
+
+		//phi placement at the iterated dominance frontier
+		Map<BasicBlock, List<Phi>> phis = new HashMap<>();
+		int[] hasPhi = new int[n];
+		int[] queued = new int[n];
+		int round = 0;
+		Deque<BasicBlock> work = new ArrayDeque<>();
+		for (Map.Entry<Operand, List<BasicBlock>> e : defBlocks.entrySet()) {
+			Operand v = e.getKey();
+			round++;
+			for (BasicBlock b : e.getValue()) {
+				queued[b.getId()] = round;
+				work.add(b);
+			}
+			while (!work.isEmpty()) {
+				BasicBlock x = work.poll();
+				if (!dom.isReachable(x)) {
+					continue;
+				}
+				for (BasicBlock y : dom.getFrontier(x)) {
+					if (hasPhi[y.getId()] == round || y == cfg.getExit()) {
+						continue;
+					}
+					hasPhi[y.getId()] = round;
+					if (!liveIn.get(y.getId()).contains(v)) {
+						continue; //pruned: the phi would be dead
+					}
+					phis.computeIfAbsent(y, k -> new ArrayList<>()).add(new Phi(v, y.predecessors.size()));
+					if (queued[y.getId()] != round) {
+						queued[y.getId()] = round;
+						work.add(y);
+					}
+				}
+			}
+		}
+
+		//phis go after the labels at the top of the block
+		for (Map.Entry<BasicBlock, List<Phi>> e : phis.entrySet()) {
+			InstructionList old = e.getKey().getCode();
+			InstructionList code = new InstructionList();
+			boolean placed = false;
+			for (Instruction inst : old) {
+				if (!placed && !inst.getDescriptor().isLabel()) {
+					code.addAll(e.getValue());
+					placed = true;
+				}
+				code.add(inst);
+			}
+			if (!placed) {
+				code.addAll(e.getValue());
+			}
+			e.getKey().setCode(code);
+		}
+
+		rename(cfg, dom, phis, hasCalls);
+
+		InstructionList code = new InstructionList();
+		for (BasicBlock b : blocks) {
+			code.addAll(b.getCode());
+		}
+		f.setCode(code);
+	}
+
+	static private boolean renamable(Operand o, boolean hasCalls) {
+		return o != null && o.isVirtual() && !(hasCalls && isGlobal(o));
+	}
+
+	static private boolean isGlobal(Operand o) {
+		return (o instanceof Variable) && !((Variable) o).isLocal();
+	}
+
+	/**
+	 * Give every definition a new version and every use the version that reaches it,
+	 * walking the dominator tree (with an explicit stack; the tree can be as deep as the
+	 * code is nested)
+	 */
+	static private void rename(ControlFlowGraph cfg, DominatorTree dom, Map<BasicBlock, List<Phi>> phis, boolean hasCalls) {
+		Map<Operand, Deque<SSAValue>> current = new HashMap<>();
+		Map<Operand, Integer> versions = new HashMap<>();
+
+		Deque<BasicBlock> stack = new ArrayDeque<>();
+		Deque<List<Operand>> pushed = new ArrayDeque<>(); //what each block on the stack defined
+		Deque<Integer> nextChild = new ArrayDeque<>();
+		stack.push(cfg.getEntry());
+		pushed.push(new ArrayList<>());
+		nextChild.push(0);
+		while (!stack.isEmpty()) {
+			BasicBlock b = stack.peek();
+			int child = nextChild.pop();
+			if (child == 0) {
+				List<Operand> defined = pushed.peek();
+				for (Instruction inst : b.getCode()) {
+					if (!(inst instanceof Phi)) {
+						for (Slot s : inst.uses()) {
+							Operand o = inst.getOperand(s);
+							if (renamable(o, hasCalls)) {
+								inst.setOperand(s, top(current, o));
+							}
+						}
+					}
+					for (Slot s : inst.defs()) {
+						Operand o = inst.getOperand(s);
+						if (renamable(o, hasCalls)) {
+							int v = versions.merge(o, 1, Integer::sum);
+							SSAValue value = new SSAValue(o, v);
+							current.computeIfAbsent(o, k -> new ArrayDeque<>()).push(value);
+							defined.add(o);
+							inst.setOperand(s, value);
+						}
+					}
+				}
+				for (BasicBlock s : b.successors) {
+					List<Phi> sPhis = phis.get(s);
+					if (sPhis == null) {
+						continue;
+					}
+					int j = s.predecessors.indexOf(b);
+					for (Phi phi : sPhis) {
+						phi.setArg(j, top(current, base(phi.getDest())));
+					}
+				}
+			}
+
+			List<BasicBlock> kids = dom.getChildren(b);
+			if (child < kids.size()) {
+				nextChild.push(child + 1);
+				stack.push(kids.get(child));
+				pushed.push(new ArrayList<>());
+				nextChild.push(0);
+			} else {
+				stack.pop();
+				for (Operand o : pushed.pop()) {
+					current.get(o).pop();
+				}
+			}
+		}
+	}
+
+	static private SSAValue top(Map<Operand, Deque<SSAValue>> current, Operand o) {
+		Deque<SSAValue> versions = current.get(o);
+		return (versions == null || versions.isEmpty()) ? new SSAValue(o, 0) : versions.peek();
+	}
+
+	static private Operand base(Operand o) {
+		return (o instanceof SSAValue) ? ((SSAValue) o).getBase() : o;
+	}
+
+	/**
+	 * Take the code of the blocks of <code>cfg</code> out of SSA form, and make it
+	 * <code>f</code>'s code. The graph is edited along the way (see
+	 * {@link ControlFlowGraph#splitEdges}) and holds the phis no more.
+	 */
+	public static void destruct(Function f, ControlFlowGraph cfg, CompilationContext context) {
+		//the copies each phi stands for, edge by edge, found before any edge is split
+		List<BasicBlock> from = new ArrayList<>();
+		List<BasicBlock> to = new ArrayList<>();
+		List<List<Operand[]>> copies = new ArrayList<>();
+		Homes homes = new Homes(f, context.getSymbolTable());
+		for (BasicBlock s : cfg.getBlocks()) {
+			List<Phi> phis = new ArrayList<>();
+			for (Instruction inst : s.getCode()) {
+				if (inst instanceof Phi) {
+					phis.add((Phi) inst);
+				}
+			}
+			for (int j = 0; j < s.predecessors.size() && !phis.isEmpty(); j++) {
+				List<Operand[]> edge = new ArrayList<>();
+				for (Phi phi : phis) {
+					Operand dest = base(phi.getDest());
+					Operand src = base(phi.getArg(j));
+					if (src != null && !dest.equals(src)) { //null: the predecessor is unreachable
+						edge.add(new Operand[] {homes.home(dest), homes.home(src)});
+					}
+				}
+				if (!edge.isEmpty()) {
+					from.add(s.predecessors.get(j));
+					to.add(s);
+					copies.add(edge);
+				}
+			}
+		}
+
+		InstructionList atEntry = new InstructionList(); //copies on the edge from the entry
+		LabelTable labels = f.getReturnLabel().getTable();
+		for (int e = 0; e < from.size(); e++) {
+			BasicBlock p = from.get(e);
+			InstructionList seq = sequentialize(copies.get(e), homes);
+			if (p == cfg.getEntry()) {
+				atEntry.splice(seq);
+				continue;
+			}
+			if (p.getLast().getDescriptor().isConditional()) {
+				//the edge is critical (or both ways go to the same block): the copies get a block of their own
+				p = cfg.splitEdges(to.get(e), Collections.singletonList(p), labels.create("split_"), f.getReturnLabel());
+			}
+			Instruction last = p.getLast();
+			InstructionList code = new InstructionList();
+			for (Instruction inst : p.getCode()) {
+				if (inst == last && last.getDescriptor().isTerminator()) {
+					code.splice(seq);
+				}
+				code.add(inst);
+			}
+			code.splice(seq); //empty unless p falls through
+			p.setCode(code);
+		}
+
+		InstructionList code = new InstructionList();
+		code.splice(atEntry);
+		for (BasicBlock b : cfg.getBlocks()) {
+			for (Instruction inst : b.getCode()) {
+				if (inst instanceof Phi) {
+					continue;
+				}
+				for (Slot s : Slot.values()) {
+					Operand o = inst.getOperand(s);
+					if (o instanceof SSAValue) {
+						inst.setOperand(s, homes.get(base(o)));
+					}
+				}
+				code.add(inst);
+			}
+		}
+		f.setCode(code);
+	}
+
+	/**
+	 * Turn the parallel copy <code>dest_i = src_i</code> (all at once; the destinations
+	 * are distinct) into a sequence of moves with the same effect
+	 */
+	static InstructionList sequentialize(List<Operand[]> copies, Homes homes) {
+		InstructionList seq = new InstructionList();
+		Map<Operand, Operand> srcOf = new LinkedHashMap<>();  //pending copies: dest -> src
+		Map<Operand, Integer> readers = new HashMap<>();      //how many pending copies read each operand
+		Map<Operand, Operand> location = new HashMap<>();     //where the original value of an operand is now
+		for (Operand[] c : copies) {
+			srcOf.put(c[0], c[1]);
+			readers.merge(c[1], 1, Integer::sum);
+		}
+
+		Deque<Operand> ready = new ArrayDeque<>(); //destinations nobody still needs to read
+		for (Operand d : srcOf.keySet()) {
+			if (!readers.containsKey(d)) {
+				ready.push(d);
+			}
+		}
+		while (!srcOf.isEmpty()) {
+			while (!ready.isEmpty()) {
+				Operand d = ready.pop();
+				Operand src = srcOf.remove(d);
+				seq.add(RegisterAllocator.move(location.getOrDefault(src, src), d));
+				if (readers.merge(src, -1, Integer::sum) == 0) {
+					readers.remove(src);
+					if (srcOf.containsKey(src)) {
+						ready.push(src); //its old value has been copied everywhere it was needed
+					}
+				}
+			}
+			if (!srcOf.isEmpty()) {
+				//only cycles are left, each finished before the next is broken: save one
+				//destination's value and free it up
+				Operand d = srcOf.keySet().iterator().next();
+				Operand t = homes.cycleTemp(d.getRegClass());
+				seq.add(RegisterAllocator.move(d, t));
+				location.put(d, t);
+				readers.remove(d);
+				ready.push(d);
+			}
+		}
+		return seq;
+	}
+
+	/**
+	 * Variables with a frame home (see {@link RegisterAllocator#home}) that stand in for
+	 * the temporaries the copies between blocks read and write. A temporary has no home
+	 * in memory, so the block-local allocator cannot carry one from a block to the next.
+	 */
+	static class Homes {
+		private final Function f;
+		private final SymbolTable symbols;
+		private final Map<Operand, SymbolTableEntry> slots = new HashMap<>();
+		private final Map<Operand, Variable> homed = new HashMap<>();
+		private final Variable[] cycleTemps = new Variable[Operand.RegClass.values().length];
+		private int nextTemp;
+
+		Homes(Function f, SymbolTable symbols) {
+			this.f = f;
+			this.symbols = symbols;
+			for (Instruction inst : f.getCode()) {
+				for (Slot s : Slot.values()) {
+					Operand o = base(inst.getOperand(s));
+					if (o instanceof VirtualRegister) {
+						nextTemp = Math.max(nextTemp, ((VirtualRegister) o).getNumber() + 1);
+					}
+				}
+			}
+		}
+
+		/**
+		 * @return The variable standing in for <code>o</code> if it is a temporary, made
+		 * the first time, else <code>o</code>
+		 */
+		Operand home(Operand o) {
+			if (!(o instanceof VirtualRegister)) {
+				return o;
+			}
+			return homed.computeIfAbsent(o, this::variable);
+		}
+
+		/**
+		 * @return The variable standing in for <code>o</code> if it has one, else <code>o</code>
+		 */
+		Operand get(Operand o) {
+			Variable v = homed.get(o);
+			return (v == null) ? o : v;
+		}
+
+		/**
+		 * @return The variable that holds a value while a cycle of copies is broken. One
+		 * per register class will do: a cycle is finished before the next one is broken
+		 */
+		Variable cycleTemp(Operand.RegClass regClass) {
+			if (cycleTemps[regClass.ordinal()] == null) {
+				cycleTemps[regClass.ordinal()] = variable(new VirtualRegister(regClass, nextTemp++));
+			}
+			return cycleTemps[regClass.ordinal()];
+		}
+
+		private Variable variable(Operand temp) {
+			return new Variable(symbols.adopt(RegisterAllocator.home(temp, f.getScope(), slots)));
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package assembly;
+
+/**
+ * Put a function in SSA form (see {@link SSA#construct})
+ */
+public class SSAConstructionPass extends FunctionPass {
+
+	public SSAConstructionPass() {
+		super("ssa");
+	}
+
+	@Override
+	public boolean run(Function f, PassManager pm) {
+		SSA.construct(f, pm.getAnalysis(ControlFlowGraph.ANALYSIS, f), pm.getAnalysis(DominatorTree.ANALYSIS, f));
+		return true;
+	}
+
+	/**
+	 * Phis are added and operands renamed, but no block or edge changes
+	 */
+	@Override
+	public boolean preserves(Analysis<?> a) {
+		return a == ControlFlowGraph.ANALYSIS || a == DominatorTree.ANALYSIS;
+	}
+}
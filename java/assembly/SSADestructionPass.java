@@ -0,0 +1,22 @@
+package assembly;
+
+import compiler.CompilationContext;
+
+/**
+ * Take a function out of SSA form (see {@link SSA#destruct})
+ */
+public class SSADestructionPass extends FunctionPass {
+
+	private final CompilationContext context;
+
+	public SSADestructionPass(CompilationContext context) {
+		super("out-of-ssa");
+		this.context = context;
+	}
+
+	@Override
+	public boolean run(Function f, PassManager pm) {
+		SSA.destruct(f, pm.getAnalysis(ControlFlowGraph.ANALYSIS, f), context);
+		return true;
+	}
+}
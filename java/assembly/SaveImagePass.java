@@ -0,0 +1,37 @@
+package assembly;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Save each function as a {@link FunctionImage}, in
+ * <i>directory</i>/<i>function</i>.<i>stage</i>.ucir, creating the directory if
+ * need be. Does not change the code
+ */
+public class SaveImagePass extends FunctionPass {
+
+	private final Path directory;
+	private final String stage;
+
+	/**
+	 * @param stage Where in the pipeline this pass is, e.g. "pre-ra"
+	 */
+	public SaveImagePass(Path directory, String stage) {
+		super("save-image");
+		this.directory = directory;
+		this.stage = stage;
+	}
+
+	@Override
+	public boolean run(Function f, PassManager pm) {
+		try {
+			Files.createDirectories(directory); //-save-ir may name one that does not exist yet
+			new FunctionImage(f).write(directory.resolve(f.getName() + "." + stage + ".ucir"));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return false;
+	}
+}
@@ -16,7 +16,7 @@ public class Addi extends Instruction3O {
      * @param imm source operand 2
      * @param dest destination operand
      */
-    public Addi(String src1, String imm, String dest) {
+    public Addi(Operand src1, Operand imm, Operand dest) {
         super(src1, imm, dest);
         this.oc = OpCode.ADDI;
     }
@@ -12,7 +12,7 @@ public class Beq extends InstructionBranch {
      * 
      * @param dest Destination register
      */
-    public Beq(String src1, String src2, String label) {
+    public Beq(Operand src1, Operand src2, LabelRef label) {
         super(src1, src2, label);
         this.oc = OpCode.BEQ;
     }
@@ -9,10 +9,19 @@ public class Blank extends Instruction {
 
     public Blank() {
         comment = "";
+        this.oc = OpCode.BLANK;
     }
 
     public Blank(String c) {
         this.comment = c;
+        this.oc = OpCode.BLANK;
+    }
+
+    /**
+     * @return The text after the ";", or "" for a plain separator
+     */
+    public String getComment() {
+        return comment;
     }
 
     /**
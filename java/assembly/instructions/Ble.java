@@ -12,7 +12,7 @@ public class Ble extends InstructionBranch {
      * 
      * @param dest Destination register
      */
-    public Ble(String src1, String src2, String label) {
+    public Ble(Operand src1, Operand src2, LabelRef label) {
         super(src1, src2, label);
         this.oc = OpCode.BLE;
     }
@@ -0,0 +1,32 @@
+package assembly.instructions;
+
+/**
+ * A floating point constant, printed exactly as it was written in the source
+ */
+public class FloatImmediate extends Operand {
+
+	private final String literal;
+
+	public FloatImmediate(String literal) {
+		this.literal = literal;
+	}
+
+	public double getValue() {
+		return Double.parseDouble(literal);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return (o instanceof FloatImmediate) && ((FloatImmediate) o).literal.equals(literal);
+	}
+
+	@Override
+	public int hashCode() {
+		return literal.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return literal;
+	}
+}
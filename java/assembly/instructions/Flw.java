@@ -15,9 +15,20 @@ public class Flw extends InstructionLS {
      * @param baseAddress register operand holding base address
      * @param offset immediate offset
      */
-    public Flw(String dest, String baseAddress, String offset) {
+    public Flw(Operand dest, Operand baseAddress, Operand offset) {
         super(dest, baseAddress, offset);
         this.oc = OpCode.FLW;
     }
+
+    /**
+     * Initializes a FLW instruction that accesses a slot in the current frame
+     * 
+     * @param dest destination operand
+     * @param slot frame slot (offset from fp)
+     */
+    public Flw(Operand dest, StackSlot slot) {
+        super(dest, slot);
+        this.oc = OpCode.FLW;
+    }
     
 }
\ No newline at end of file
@@ -14,9 +14,20 @@ public class Fsw extends InstructionLS {
      * @param baseAddress register holding base address
      * @param offset immediate holding address offset
      */
-    public Fsw(String src, String baseAddress, String offset) {
+    public Fsw(Operand src, Operand baseAddress, Operand offset) {
         super(src, baseAddress, offset);
         this.oc = OpCode.FSW;
     }
+
+    /**
+     * Initializes a FSW instruction that accesses a slot in the current frame
+     * 
+     * @param src source operand
+     * @param slot frame slot (offset from fp)
+     */
+    public Fsw(Operand src, StackSlot slot) {
+        super(src, slot);
+        this.oc = OpCode.FSW;
+    }
     
 }
\ No newline at end of file
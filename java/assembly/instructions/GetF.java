@@ -12,7 +12,7 @@ public class GetF extends Instruction {
      * 
      * @param dest Destination register
      */
-    public GetF(String dest) {
+    public GetF(Operand dest) {
         super();
         this.dest = dest;
         this.oc = OpCode.GETF;
@@ -0,0 +1,63 @@
+package assembly.instructions;
+
+/**
+ * A constant: an integer immediate or memory offset (printed in decimal), or an
+ * address (printed in hex)
+ */
+public class Immediate extends Operand {
+
+	static final public Immediate ZERO = new Immediate(0, false);
+
+	private final long value;
+	private final boolean isAddress;
+
+	private Immediate(long value, boolean isAddress) {
+		this.value = value;
+		this.isAddress = isAddress;
+	}
+
+	public static Immediate of(long value) {
+		return (value == 0) ? ZERO : new Immediate(value, false);
+	}
+
+	/**
+	 * @param literal An integer literal from the source
+	 */
+	public static Immediate of(String literal) {
+		return of(Long.parseLong(literal));
+	}
+
+	public static Immediate address(long address) {
+		return new Immediate(address, true);
+	}
+
+	public long getValue() {
+		return value;
+	}
+
+	/**
+	 * @return true for an address, which is printed in hex
+	 */
+	public boolean isAddress() {
+		return isAddress;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof Immediate)) {
+			return false;
+		}
+		Immediate i = (Immediate) o;
+		return i.value == value && i.isAddress == isAddress;
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(value);
+	}
+
+	@Override
+	public String toString() {
+		return isAddress ? String.format("0x%x", value) : String.valueOf(value);
+	}
+}
@@ -50,7 +50,15 @@ public abstract class Instruction {
 		FEQ("FEQ.S"),
 		/* FUNCTION CALL AND RETURN */
 		JR("JR"),
-		RET("RET");
+		RET("RET"),
+		/* PSEUDO INSTRUCTIONS */
+		LABEL("LABEL"),
+		BLANK("BLANK"),
+		PUSHI("PUSHINT"),
+		PUSHF("PUSHFLOAT"),
+		POPI("POPINT"),
+		POPF("POPFLOAT"),
+		PHI("PHI");
 
 
 		private String opCodeName;
@@ -63,10 +71,10 @@ public abstract class Instruction {
 		}
 	}
 	
-	String src1; //holds src operand, if needed
-	String src2; //holds src operand, if needed
-	String dest; //holds destination operand, if needed
-	String label; //holds other value (immediate, label)
+	Operand src1; //holds src operand, if needed
+	Operand src2; //holds src operand, if needed
+	Operand dest; //holds destination operand, if needed
+	Operand label; //holds other value (immediate, label)
 	OpCode oc; //op code
 	
 	/** 
@@ -78,31 +86,34 @@ public abstract class Instruction {
     /**
 	 * @return Returns destination of instruction. Useful for code generation
 	 */
-    public String getDest() {
+    public Operand getDest() {
         return this.dest;
 	}
 
-	public String getSrc1() {
+	public Operand getSrc1() {
 		return this.src1;
 	}
 
-	public String getSrc2() {
+	public Operand getSrc2() {
 		return this.src2;
 	}
 	
-	public void setDest(String dest) {
+	public void setDest(Operand dest) {
         this.dest = dest;
 	}
 
-	public void setSrc1(String src1) {
+	public void setSrc1(Operand src1) {
 		this.src1 = src1;
 	}
 
-	public void setSrc2(String src2) {
+	public void setSrc2(Operand src2) {
 		this.src2 = src2;
 	}
 
-	public enum Operand {
+	/**
+	 * The operand fields of an instruction
+	 */
+	public enum Slot {
 		SRC1,
 		SRC2,
 		DEST
@@ -112,7 +123,39 @@ public abstract class Instruction {
 		return oc;
 	}
 
-	public String getOperand(Operand o) {
+	/**
+	 * @return What the op code of this instruction defines, uses and does
+	 */
+	public InstructionDescriptor getDescriptor() {
+		return InstructionDescriptor.of(oc);
+	}
+
+	/**
+	 * A store to a {@link Variable} (or, in SSA form, a version of one) is how 3AC
+	 * assigns to the variable: it writes the variable rather than reading an address
+	 * out of it.
+	 *
+	 * @return true if this instruction is such a store
+	 */
+	public boolean isAssignment() {
+		return getDescriptor().isStore() && (src1 != null) && src1.isVariable();
+	}
+
+	/**
+	 * @return The slots this instruction writes, treating assignments as writes to the variable
+	 */
+	public Slot[] defs() {
+		return isAssignment() ? getDescriptor().getAssignmentDefs() : getDescriptor().getDefs();
+	}
+
+	/**
+	 * @return The slots this instruction reads, treating assignments as writes to the variable
+	 */
+	public Slot[] uses() {
+		return isAssignment() ? getDescriptor().getAssignmentUses() : getDescriptor().getUses();
+	}
+
+	public Operand getOperand(Slot o) {
 		switch (o) {
 			case SRC1: return src1;
 			case SRC2: return src2;
@@ -121,11 +164,27 @@ public abstract class Instruction {
 		}
 	}
 
-	public String getLabel() {
+	public void setOperand(Slot o, Operand opr) {
+		switch (o) {
+			case SRC1: src1 = opr; break;
+			case SRC2: src2 = opr; break;
+			case DEST: dest = opr; break;
+			default: throw new Error("Shouldn't get here");
+		}
+	}
+
+	public Operand getLabel() {
 		return label;
 	}
 
-	public boolean is3AC(Operand o) {
+	/**
+	 * Change the label (branch target) or immediate field
+	 */
+	public void setLabel(Operand label) {
+		this.label = label;
+	}
+
+	public boolean is3AC(Slot o) {
 		switch (o) {
 			case SRC1: return is3AC(src1);
 			case SRC2: return is3AC(src2);
@@ -134,13 +193,16 @@ public abstract class Instruction {
 		}
 	}
 
-	public boolean is3AC(String s) {
-		return ((s != null) && (s.charAt(0) == '$'));
+	/**
+	 * @return true if <code>o</code> still needs a register (a temporary or variable)
+	 */
+	public boolean is3AC(Operand o) {
+		return ((o != null) && o.isVirtual());
 	}
 
 	public boolean is3AC() {
-		return (is3AC(Operand.SRC1) ||
-				is3AC(Operand.SRC2) ||
-				is3AC(Operand.DEST));
+		return (is3AC(Slot.SRC1) ||
+				is3AC(Slot.SRC2) ||
+				is3AC(Slot.DEST));
 	}
 }
\ No newline at end of file
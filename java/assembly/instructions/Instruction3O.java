@@ -7,7 +7,7 @@ package assembly.instructions;
  */
 public abstract class Instruction3O extends Instruction {
 	
-	protected Instruction3O(String src1, String src2, String dest) {
+	protected Instruction3O(Operand src1, Operand src2, Operand dest) {
 		super();
 
 		this.src1 = src1;
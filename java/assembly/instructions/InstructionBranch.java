@@ -7,7 +7,7 @@ package assembly.instructions;
  */
 public abstract class InstructionBranch extends Instruction {
 	
-	protected InstructionBranch(String src1, String src2, String label) {
+	protected InstructionBranch(Operand src1, Operand src2, LabelRef label) {
 		super();
 
 		this.src1 = src1;
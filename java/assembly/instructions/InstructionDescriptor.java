@@ -0,0 +1,251 @@
+package assembly.instructions;
+
+import assembly.instructions.Instruction.OpCode;
+import assembly.instructions.Instruction.Slot;
+import assembly.instructions.Operand.RegClass;
+
+/**
+ * Static description of an op code: which operand slots it defines and uses, the
+ * register class of each slot, and what kind of instruction it is.
+ *
+ * The back end asks these questions instead of switching on op codes, so that adding
+ * an instruction only means adding a line to the table below.
+ *
+ * Note that stores are described as the machine sees them: the value (in dest) and
+ * the base address (in src1) are both used. In 3AC a store to a {@link Variable} is
+ * an assignment to that variable; {@link Instruction#defs()} and
+ * {@link Instruction#uses()} take care of that.
+ */
+public final class InstructionDescriptor {
+
+	static final private int BRANCH = 1;      //transfers control to its label
+	static final private int CONDITIONAL = 2; //...but may fall through
+	static final private int TERMINATOR = 4;  //ends a basic block
+	static final private int CALL = 8;
+	static final private int LOAD = 16;
+	static final private int STORE = 32;
+	static final private int LABEL = 64;
+	static final private int PSEUDO = 128;    //not a machine instruction
+
+	static final private Slot[] NONE = {};
+
+	static final private InstructionDescriptor[] table = new InstructionDescriptor[OpCode.values().length];
+
+	static {
+		//op code        dest            src1            src2            flags
+		op(OpCode.LI,     RegClass.INT,   null,           null,           0);
+		op(OpCode.LA,     RegClass.INT,   null,           null,           0);
+		op(OpCode.ADD,    RegClass.INT,   RegClass.INT,   RegClass.INT,   0);
+		op(OpCode.SUB,    RegClass.INT,   RegClass.INT,   RegClass.INT,   0);
+		op(OpCode.DIV,    RegClass.INT,   RegClass.INT,   RegClass.INT,   0);
+		op(OpCode.MUL,    RegClass.INT,   RegClass.INT,   RegClass.INT,   0);
+		op(OpCode.NEG,    RegClass.INT,   RegClass.INT,   null,           0);
+		op(OpCode.MV,     RegClass.INT,   RegClass.INT,   null,           0);
+		op(OpCode.ADDI,   RegClass.INT,   RegClass.INT,   null,           0);
+		op(OpCode.LW,     RegClass.INT,   RegClass.INT,   null,           LOAD);
+		store(OpCode.SW,  RegClass.INT);
+		op(OpCode.PUTS,   null,           RegClass.INT,   null,           0);
+		op(OpCode.PUTI,   null,           RegClass.INT,   null,           0);
+		op(OpCode.GETI,   RegClass.INT,   null,           null,           0);
+		op(OpCode.HALT,   null,           null,           null,           TERMINATOR);
+
+		op(OpCode.BEQ,    null,           RegClass.INT,   RegClass.INT,   BRANCH | CONDITIONAL | TERMINATOR);
+		op(OpCode.BGE,    null,           RegClass.INT,   RegClass.INT,   BRANCH | CONDITIONAL | TERMINATOR);
+		op(OpCode.BGT,    null,           RegClass.INT,   RegClass.INT,   BRANCH | CONDITIONAL | TERMINATOR);
+		op(OpCode.BLE,    null,           RegClass.INT,   RegClass.INT,   BRANCH | CONDITIONAL | TERMINATOR);
+		op(OpCode.BLT,    null,           RegClass.INT,   RegClass.INT,   BRANCH | CONDITIONAL | TERMINATOR);
+		op(OpCode.BNE,    null,           RegClass.INT,   RegClass.INT,   BRANCH | CONDITIONAL | TERMINATOR);
+		op(OpCode.J,      null,           null,           null,           BRANCH | TERMINATOR);
+
+		op(OpCode.FADDS,  RegClass.FLOAT, RegClass.FLOAT, RegClass.FLOAT, 0);
+		op(OpCode.FSUBS,  RegClass.FLOAT, RegClass.FLOAT, RegClass.FLOAT, 0);
+		op(OpCode.FDIVS,  RegClass.FLOAT, RegClass.FLOAT, RegClass.FLOAT, 0);
+		op(OpCode.FMULS,  RegClass.FLOAT, RegClass.FLOAT, RegClass.FLOAT, 0);
+		op(OpCode.FMVS,   RegClass.FLOAT, RegClass.FLOAT, null,           0);
+		op(OpCode.FNEGS,  RegClass.FLOAT, RegClass.FLOAT, null,           0);
+		op(OpCode.FLW,    RegClass.FLOAT, RegClass.INT,   null,           LOAD);
+		store(OpCode.FSW, RegClass.FLOAT);
+		op(OpCode.GETF,   RegClass.FLOAT, null,           null,           0);
+		op(OpCode.PUTF,   null,           RegClass.FLOAT, null,           0);
+		op(OpCode.FIMMS,  RegClass.FLOAT, null,           null,           0);
+		op(OpCode.FLT,    RegClass.INT,   RegClass.FLOAT, RegClass.FLOAT, 0);
+		op(OpCode.FLE,    RegClass.INT,   RegClass.FLOAT, RegClass.FLOAT, 0);
+		op(OpCode.FEQ,    RegClass.INT,   RegClass.FLOAT, RegClass.FLOAT, 0);
+
+		op(OpCode.JR,     null,           null,           null,           CALL);
+		op(OpCode.RET,    null,           null,           null,           TERMINATOR);
+
+		op(OpCode.LABEL,  null,           null,           null,           LABEL | PSEUDO);
+		op(OpCode.BLANK,  null,           null,           null,           PSEUDO);
+		op(OpCode.PUSHI,  null,           RegClass.INT,   null,           PSEUDO);
+		op(OpCode.PUSHF,  null,           RegClass.FLOAT, null,           PSEUDO);
+		op(OpCode.POPI,   RegClass.INT,   null,           null,           PSEUDO);
+		op(OpCode.POPF,   RegClass.FLOAT, null,           null,           PSEUDO);
+		phi(OpCode.PHI);
+
+		for (OpCode oc : OpCode.values()) {
+			if (table[oc.ordinal()] == null) {
+				throw new Error("No descriptor for " + oc.name());
+			}
+		}
+	}
+
+	private final OpCode oc;
+	private final Slot[] defs;
+	private final Slot[] uses;
+	private final RegClass[] classes; //indexed by Slot.ordinal(), null if the slot holds no register
+	private final int flags;
+
+	//3AC view of a store to a variable: the value is used and the variable is written
+	private final Slot[] assignmentDefs;
+	private final Slot[] assignmentUses;
+
+	private InstructionDescriptor(OpCode oc, Slot[] defs, Slot[] uses, RegClass[] classes, int flags) {
+		this.oc = oc;
+		this.defs = defs;
+		this.uses = uses;
+		this.classes = classes;
+		this.flags = flags;
+		if ((flags & STORE) != 0) {
+			this.assignmentDefs = new Slot[] {Slot.SRC1};
+			this.assignmentUses = new Slot[] {Slot.DEST};
+		} else {
+			this.assignmentDefs = defs;
+			this.assignmentUses = uses;
+		}
+	}
+
+	/**
+	 * An instruction that writes <code>dest</code> (if it has a class) and reads
+	 * whichever of <code>src1</code> and <code>src2</code> have a class
+	 */
+	static private void op(OpCode oc, RegClass dest, RegClass src1, RegClass src2, int flags) {
+		RegClass[] classes = new RegClass[Slot.values().length];
+		classes[Slot.DEST.ordinal()] = dest;
+		classes[Slot.SRC1.ordinal()] = src1;
+		classes[Slot.SRC2.ordinal()] = src2;
+
+		Slot[] defs = (dest == null) ? NONE : new Slot[] {Slot.DEST};
+		Slot[] uses;
+		if (src1 != null && src2 != null) {
+			uses = new Slot[] {Slot.SRC1, Slot.SRC2};
+		} else if (src1 != null) {
+			uses = new Slot[] {Slot.SRC1};
+		} else {
+			uses = NONE;
+		}
+		table[oc.ordinal()] = new InstructionDescriptor(oc, defs, uses, classes, flags);
+	}
+
+	/**
+	 * A store of a <code>value</code>-class register (in dest) to an address held in
+	 * an integer register (src1)
+	 */
+	static private void store(OpCode oc, RegClass value) {
+		RegClass[] classes = new RegClass[Slot.values().length];
+		classes[Slot.DEST.ordinal()] = value;
+		classes[Slot.SRC1.ordinal()] = RegClass.INT;
+		table[oc.ordinal()] = new InstructionDescriptor(oc, NONE, new Slot[] {Slot.DEST, Slot.SRC1}, classes, STORE);
+	}
+
+	/**
+	 * A phi defines dest, of either class. Its arguments are not in operand slots; see {@link Phi}
+	 */
+	static private void phi(OpCode oc) {
+		RegClass[] classes = new RegClass[Slot.values().length];
+		table[oc.ordinal()] = new InstructionDescriptor(oc, new Slot[] {Slot.DEST}, NONE, classes, PSEUDO);
+	}
+
+	public static InstructionDescriptor of(OpCode oc) {
+		return table[oc.ordinal()];
+	}
+
+	public OpCode getOpCode() {
+		return oc;
+	}
+
+	/**
+	 * @return The slots written by the instruction. Do not modify
+	 */
+	public Slot[] getDefs() {
+		return defs;
+	}
+
+	/**
+	 * @return The slots read by the instruction, in operand order. Do not modify
+	 */
+	public Slot[] getUses() {
+		return uses;
+	}
+
+	Slot[] getAssignmentDefs() {
+		return assignmentDefs;
+	}
+
+	Slot[] getAssignmentUses() {
+		return assignmentUses;
+	}
+
+	/**
+	 * @return The register class of slot <code>s</code>, or null if it never holds a register
+	 * (or, for a phi, can hold either)
+	 */
+	public RegClass getRegClass(Slot s) {
+		return classes[s.ordinal()];
+	}
+
+	/**
+	 * @return true for jumps and conditional branches
+	 */
+	public boolean isBranch() {
+		return (flags & BRANCH) != 0;
+	}
+
+	public boolean isConditional() {
+		return (flags & CONDITIONAL) != 0;
+	}
+
+	/**
+	 * @return true if nothing after this instruction is in the same basic block
+	 */
+	public boolean isTerminator() {
+		return (flags & TERMINATOR) != 0;
+	}
+
+	/**
+	 * @return true for function calls. Calls do not end a basic block
+	 */
+	public boolean isCall() {
+		return (flags & CALL) != 0;
+	}
+
+	public boolean isLoad() {
+		return (flags & LOAD) != 0;
+	}
+
+	public boolean isStore() {
+		return (flags & STORE) != 0;
+	}
+
+	public boolean isMemoryAccess() {
+		return (flags & (LOAD | STORE)) != 0;
+	}
+
+	/**
+	 * @return true if the instruction marks a jump target
+	 */
+	public boolean isLabel() {
+		return (flags & LABEL) != 0;
+	}
+
+	/**
+	 * @return true for markers and 3AC-only instructions that the machine never executes
+	 */
+	public boolean isPseudo() {
+		return (flags & PSEUDO) != 0;
+	}
+
+	public String toString() {
+		return oc.name();
+	}
+}
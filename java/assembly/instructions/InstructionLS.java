@@ -6,7 +6,7 @@ package assembly.instructions;
 public abstract class InstructionLS extends Instruction {
 	
 
-	InstructionLS(String reg1, String reg2, String offset) {
+	InstructionLS(Operand reg1, Operand reg2, Operand offset) {
 		super();
 
 		this.dest = reg1;
@@ -14,6 +14,13 @@ public abstract class InstructionLS extends Instruction {
 		this.label = offset;
 	}
 
+	/**
+	 * Access a slot in the current frame: <code>reg1</code> and offset(fp)
+	 */
+	InstructionLS(Operand reg1, StackSlot slot) {
+		this(reg1, PhysicalRegister.FP, Immediate.of(slot.getOffset()));
+	}
+
 	/**
 	 * @return "op dest label(src1)"
 	 */
@@ -5,7 +5,7 @@ package assembly.instructions;
  */
 public abstract class InstructionPut extends Instruction {
 
-    InstructionPut(String src) {
+    InstructionPut(Operand src) {
         this.src1 = src;
     }
 
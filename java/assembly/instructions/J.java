@@ -12,7 +12,7 @@ public class J extends Instruction {
      * 
      * @param label label to jump to
      */
-    public J(String label) {
+    public J(LabelRef label) {
         super();
         this.label = label;
         this.oc = OpCode.J;
@@ -6,11 +6,14 @@ package assembly.instructions;
 public class Label extends Instruction {
 
     /**
-     * Creates a label that prints "label:"
+     * Creates a label that prints "label:", and makes it the definition of
+     * <code>label</code>
      */
-    public Label(String label) {
+    public Label(LabelRef label) {
         super();
         this.label = label;
+        this.oc = OpCode.LABEL;
+        label.setDefinition(this);
     }
 
     /**
@@ -0,0 +1,81 @@
+package assembly.instructions;
+
+import assembly.BasicBlock;
+
+/**
+ * A code location: the target of a branch, jump or call, or the name a {@link Label}
+ * defines.
+ *
+ * Labels are made by a {@link LabelTable}, which hands out exactly one LabelRef per
+ * location, so labels are compared by identity. A label knows the instruction that
+ * defines it and, once a {@link assembly.ControlFlowGraph} has been built over that
+ * code, the block it starts; finding a branch target takes no search or hashing.
+ *
+ * Labels made with {@link LabelTable#create(String)} are not given a number until
+ * their name is first needed, which is normally when the code is emitted.
+ */
+public class LabelRef extends Operand {
+
+	private final LabelTable table;
+	private final String prefix; //of a label that is numbered when first printed
+	private String name;         //null until then
+	private Label definition;
+	private BasicBlock block;
+
+	LabelRef(LabelTable table, String prefix, String name) {
+		this.table = table;
+		this.prefix = prefix;
+		this.name = name;
+	}
+
+	/**
+	 * @return The table this label belongs to, for making more labels like it
+	 */
+	public LabelTable getTable() {
+		return table;
+	}
+
+	/**
+	 * @return The prefix this label was made with by {@link LabelTable#create(String)},
+	 * or null for a label with a fixed name
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
+
+	public String getName() {
+		if (name == null) {
+			name = table.number(this, prefix);
+		}
+		return name;
+	}
+
+	/**
+	 * @return The {@link Label} instruction that defines this label, or null if none
+	 * has been made (e.g., for another function's labels)
+	 */
+	public Label getDefinition() {
+		return definition;
+	}
+
+	void setDefinition(Label definition) {
+		this.definition = definition;
+	}
+
+	/**
+	 * @return The block that starts with this label in the graph that was last built
+	 * over its code, or null
+	 */
+	public BasicBlock getBlock() {
+		return block;
+	}
+
+	public void setBlock(BasicBlock block) {
+		this.block = block;
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+}
@@ -0,0 +1,45 @@
+package assembly.instructions;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The labels of one program (or of one function loaded on its own), each made once.
+ *
+ * Fixed names, such as function entry points, are interned by {@link #get(String)}.
+ * Labels for code the compiler generates are made by {@link #create(String)} with
+ * just a prefix; each is numbered the first time it is printed, in the order the
+ * labels with that prefix are printed, skipping numbers whose names are already
+ * taken. So making a label builds no string, and the numbers in the output follow
+ * the program order of the emitted code rather than the order the code was generated.
+ */
+public class LabelTable {
+
+	private final Map<String, LabelRef> byName = new HashMap<>(); //every label that has a name so far
+	private final Map<String, Integer> lastNumber = new HashMap<>();
+
+	/**
+	 * @return The label called <code>name</code>, made on first use
+	 */
+	public LabelRef get(String name) {
+		return byName.computeIfAbsent(name, n -> new LabelRef(this, null, n));
+	}
+
+	/**
+	 * @return A new label, to be named <code>prefix</code><i>n</i>
+	 */
+	public LabelRef create(String prefix) {
+		return new LabelRef(this, prefix, null);
+	}
+
+	String number(LabelRef label, String prefix) {
+		int n = lastNumber.getOrDefault(prefix, 0);
+		String name;
+		do {
+			name = prefix + (++n);
+		} while (byName.containsKey(name));
+		lastNumber.put(prefix, n);
+		byName.put(name, label);
+		return name;
+	}
+}
@@ -13,7 +13,7 @@ public class Li extends Instruction {
      * @param dest destination operand
      * @param value value to put in destination
      */
-    public Li(String dest, String value) {
+    public Li(Operand dest, Immediate value) {
         super();
         this.dest = dest;
         this.label = value;
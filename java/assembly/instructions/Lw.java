@@ -15,9 +15,20 @@ public class Lw extends InstructionLS {
      * @param baseAddress register operand holding base address
      * @param offset immediate offset
      */
-    public Lw(String dest, String baseAddress, String offset) {
+    public Lw(Operand dest, Operand baseAddress, Operand offset) {
         super(dest, baseAddress, offset);
         this.oc = OpCode.LW;
     }
+
+    /**
+     * Initializes a LW instruction that accesses a slot in the current frame
+     * 
+     * @param dest destination operand
+     * @param slot frame slot (offset from fp)
+     */
+    public Lw(Operand dest, StackSlot slot) {
+        super(dest, slot);
+        this.oc = OpCode.LW;
+    }
     
 }
\ No newline at end of file
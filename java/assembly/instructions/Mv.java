@@ -14,7 +14,7 @@ public class Mv extends Instruction {
      * @param dest destination operand
      */
 
-    public Mv(String src, String dest) {
+    public Mv(Operand src, Operand dest) {
         super();
         this.src1 = src;
         this.dest = dest;
@@ -0,0 +1,57 @@
+package assembly.instructions;
+
+/**
+ * Superclass for instruction operands.
+ *
+ * Operands are objects rather than strings so that the back end can ask what an
+ * operand is (and compare operands) without building or parsing names. They are only
+ * turned into text, by toString, when the code is emitted.
+ *
+ * Operands are immutable, and equal operands name the same location or value, so they
+ * can be shared between instructions and used as map keys.
+ */
+public abstract class Operand {
+
+	/**
+	 * The register file an operand lives in
+	 */
+	public enum RegClass {
+		INT,
+		FLOAT
+	}
+
+	/**
+	 * @return true if the operand still has to be assigned a register (a temporary
+	 * 		or a variable in 3AC)
+	 */
+	public boolean isVirtual() {
+		return false;
+	}
+
+	/**
+	 * @return true if the operand is a program variable (or a version of one), which
+	 * 		has a home in memory
+	 */
+	public boolean isVariable() {
+		return false;
+	}
+
+	/**
+	 * @return true if the operand is a real machine register
+	 */
+	public boolean isPhysical() {
+		return false;
+	}
+
+	/**
+	 * @return The register class of a register operand, null for anything else
+	 */
+	public RegClass getRegClass() {
+		return null;
+	}
+
+	/**
+	 * @return The operand as it appears in assembly
+	 */
+	public abstract String toString();
+}
@@ -0,0 +1,48 @@
+package assembly.instructions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * SSA phi function at the top of a basic block: dest gets the argument that
+ * corresponds to the predecessor control came from. Argument <i>i</i> belongs to
+ * predecessor <i>i</i> of the block, in the order the control-flow graph lists them.
+ *
+ * Only exists between SSA construction and destruction; it is never emitted.
+ */
+public class Phi extends Instruction {
+
+	private final List<Operand> args;
+
+	public Phi(Operand dest, int numPredecessors) {
+		super();
+		this.dest = dest;
+		this.args = new ArrayList<>(Collections.nCopies(numPredecessors, (Operand) null));
+		this.oc = OpCode.PHI;
+	}
+
+	public List<Operand> getArgs() {
+		return Collections.unmodifiableList(args);
+	}
+
+	public Operand getArg(int pred) {
+		return args.get(pred);
+	}
+
+	public void setArg(int pred, Operand o) {
+		args.set(pred, o);
+	}
+
+	/**
+	 * @return "PHI dest, arg0, arg1, ..."
+	 */
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(this.oc).append(" ").append(this.dest);
+		for (Operand a : args) {
+			sb.append(", ").append(a);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,76 @@
+package assembly.instructions;
+
+/**
+ * A machine register: x<i>n</i> or f<i>n</i>. The integer registers with a fixed
+ * role (x0, ra, sp, fp) are printed by name.
+ */
+public class PhysicalRegister extends Operand {
+
+	static final public PhysicalRegister ZERO = new PhysicalRegister(RegClass.INT, 0, "x0");
+	static final public PhysicalRegister RA = new PhysicalRegister(RegClass.INT, 1, "ra");
+	static final public PhysicalRegister SP = new PhysicalRegister(RegClass.INT, 2, "sp");
+	static final public PhysicalRegister FP = new PhysicalRegister(RegClass.INT, 8, "fp");
+
+	private final RegClass regClass;
+	private final int number;
+	private final String name;
+
+	private PhysicalRegister(RegClass regClass, int number, String name) {
+		this.regClass = regClass;
+		this.number = number;
+		this.name = name;
+	}
+
+	/**
+	 * @return Integer register x<i>n</i>
+	 */
+	public static PhysicalRegister intReg(int n) {
+		switch (n) {
+			case 0: return ZERO;
+			case 1: return RA;
+			case 2: return SP;
+			case 8: return FP;
+			default: return new PhysicalRegister(RegClass.INT, n, "x" + n);
+		}
+	}
+
+	/**
+	 * @return Float register f<i>n</i>
+	 */
+	public static PhysicalRegister floatReg(int n) {
+		return new PhysicalRegister(RegClass.FLOAT, n, "f" + n);
+	}
+
+	@Override
+	public boolean isPhysical() {
+		return true;
+	}
+
+	@Override
+	public RegClass getRegClass() {
+		return regClass;
+	}
+
+	public int getNumber() {
+		return number;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof PhysicalRegister)) {
+			return false;
+		}
+		PhysicalRegister r = (PhysicalRegister) o;
+		return r.regClass == regClass && r.number == number;
+	}
+
+	@Override
+	public int hashCode() {
+		return number * 2 + regClass.ordinal();
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
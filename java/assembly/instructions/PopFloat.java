@@ -1,16 +1,17 @@
 package assembly.instructions;
 
-//3AC to push a value on the stack
+//3AC to pop a value off the stack
 
 public class PopFloat extends Instruction {
     
-    public PopFloat(String src) {
+    public PopFloat(Operand dest) {
         super();
-        this.src1 = src;
+        this.dest = dest;
+        this.oc = OpCode.POPF;
     }
 
     public String toString() {
-        return "POPFLOAT " + src1;
+        return "POPFLOAT " + dest;
     }
 
     @Override
@@ -1,16 +1,17 @@
 package assembly.instructions;
 
-//3AC to push a value on the stack
+//3AC to pop a value off the stack
 
 public class PopInt extends Instruction {
     
-    public PopInt(String src) {
+    public PopInt(Operand dest) {
         super();
-        this.src1 = src;
+        this.dest = dest;
+        this.oc = OpCode.POPI;
     }
 
     public String toString() {
-        return "POPINT " + src1;
+        return "POPINT " + dest;
     }
 
     @Override
@@ -4,9 +4,10 @@ package assembly.instructions;
 
 public class PushFloat extends Instruction {
     
-    public PushFloat(String src) {
+    public PushFloat(Operand src) {
         super();
         this.src1 = src;
+        this.oc = OpCode.PUSHF;
     }
 
     public String toString() {
@@ -4,9 +4,10 @@ package assembly.instructions;
 
 public class PushInt extends Instruction {
     
-    public PushInt(String src) {
+    public PushInt(Operand src) {
         super();
         this.src1 = src;
+        this.oc = OpCode.PUSHI;
     }
 
     public String toString() {
@@ -0,0 +1,65 @@
+package assembly.instructions;
+
+/**
+ * One version of a temporary or variable in SSA form: each definition of
+ * <code>base</code> makes a new version, and each use names the version that reaches
+ * it. Version 0 is the value on entry to the function (for a variable, what is in
+ * its home in memory).
+ *
+ * Printed as <i>base</i>.<i>version</i>, e.g. $v3.2.
+ */
+public class SSAValue extends Operand {
+
+	private final Operand base;
+	private final int version;
+
+	public SSAValue(Operand base, int version) {
+		this.base = base;
+		this.version = version;
+	}
+
+	/**
+	 * @return The temporary or variable this is a version of
+	 */
+	public Operand getBase() {
+		return base;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	@Override
+	public boolean isVirtual() {
+		return true;
+	}
+
+	@Override
+	public boolean isVariable() {
+		return base.isVariable();
+	}
+
+	@Override
+	public RegClass getRegClass() {
+		return base.getRegClass();
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof SSAValue)) {
+			return false;
+		}
+		SSAValue v = (SSAValue) o;
+		return v.version == version && v.base.equals(base);
+	}
+
+	@Override
+	public int hashCode() {
+		return base.hashCode() * 31 + version;
+	}
+
+	@Override
+	public String toString() {
+		return base + "." + version;
+	}
+}
@@ -0,0 +1,36 @@
+package assembly.instructions;
+
+/**
+ * A word in the current activation record, at a fixed offset from fp. Locals are at
+ * negative offsets, arguments and the return value at positive ones.
+ */
+public class StackSlot extends Operand {
+
+	private final int offset;
+
+	public StackSlot(int offset) {
+		this.offset = offset;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return (o instanceof StackSlot) && ((StackSlot) o).offset == offset;
+	}
+
+	@Override
+	public int hashCode() {
+		return offset;
+	}
+
+	/**
+	 * @return "offset(fp)"
+	 */
+	@Override
+	public String toString() {
+		return offset + "(fp)";
+	}
+}
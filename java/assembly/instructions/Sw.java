@@ -14,9 +14,20 @@ public class Sw extends InstructionLS {
      * @param baseAddress register holding base address
      * @param offset immediate holding address offset
      */
-    public Sw(String src, String baseAddress, String offset) {
+    public Sw(Operand src, Operand baseAddress, Operand offset) {
         super(src, baseAddress, offset);
         this.oc = OpCode.SW;
     }
+
+    /**
+     * Initializes a SW instruction that accesses a slot in the current frame
+     * 
+     * @param src source operand
+     * @param slot frame slot (offset from fp)
+     */
+    public Sw(Operand src, StackSlot slot) {
+        super(src, slot);
+        this.oc = OpCode.SW;
+    }
     
 }
\ No newline at end of file
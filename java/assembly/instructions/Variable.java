@@ -0,0 +1,81 @@
+package assembly.instructions;
+
+import compiler.Scope;
+import compiler.Scope.SymbolTableEntry;
+
+/**
+ * A program variable in 3AC. Like a temporary it is given a register by the register
+ * allocator, but it also has a home in memory: a {@link StackSlot} for locals and
+ * arguments, a global address otherwise.
+ *
+ * Variables are identified by their symbol id, and printed as $v<i>id</i>.
+ */
+public class Variable extends Operand {
+
+	private final SymbolTableEntry ste;
+
+	public Variable(SymbolTableEntry ste) {
+		this.ste = ste;
+	}
+
+	@Override
+	public boolean isVirtual() {
+		return true;
+	}
+
+	@Override
+	public boolean isVariable() {
+		return true;
+	}
+
+	/**
+	 * @return FLOAT for float variables, INT for ints and strings (which hold an address)
+	 */
+	@Override
+	public RegClass getRegClass() {
+		return (ste.getType() == Scope.Type.FLOAT) ? RegClass.FLOAT : RegClass.INT;
+	}
+
+	public SymbolTableEntry getSymbol() {
+		return ste;
+	}
+
+	public int getId() {
+		return ste.getId();
+	}
+
+	public boolean isLocal() {
+		return ste.isLocal();
+	}
+
+	/**
+	 * @return The frame slot of a local variable or argument
+	 */
+	public StackSlot getSlot() {
+		assert ste.isLocal();
+		return new StackSlot(ste.getAddress());
+	}
+
+	/**
+	 * @return The address of a global variable or string
+	 */
+	public Immediate getAddress() {
+		assert !ste.isLocal();
+		return Immediate.address(ste.getAddress());
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return (o instanceof Variable) && ((Variable) o).getId() == getId();
+	}
+
+	@Override
+	public int hashCode() {
+		return getId();
+	}
+
+	@Override
+	public String toString() {
+		return "$v" + getId();
+	}
+}
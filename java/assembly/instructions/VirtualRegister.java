@@ -0,0 +1,49 @@
+package assembly.instructions;
+
+/**
+ * A temporary in 3AC: an unlimited supply of registers of each class, numbered
+ * separately for each function. Printed as $t<i>n</i> (int) or $f<i>n</i> (float).
+ */
+public class VirtualRegister extends Operand {
+
+	private final RegClass regClass;
+	private final int number;
+
+	public VirtualRegister(RegClass regClass, int number) {
+		this.regClass = regClass;
+		this.number = number;
+	}
+
+	@Override
+	public boolean isVirtual() {
+		return true;
+	}
+
+	@Override
+	public RegClass getRegClass() {
+		return regClass;
+	}
+
+	public int getNumber() {
+		return number;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof VirtualRegister)) {
+			return false;
+		}
+		VirtualRegister r = (VirtualRegister) o;
+		return r.regClass == regClass && r.number == number;
+	}
+
+	@Override
+	public int hashCode() {
+		return number * 2 + regClass.ordinal();
+	}
+
+	@Override
+	public String toString() {
+		return ((regClass == RegClass.INT) ? "$t" : "$f") + number;
+	}
+}
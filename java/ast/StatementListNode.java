@@ -1,6 +1,6 @@
 package ast;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 import ast.visitor.ASTVisitor;
@@ -18,7 +18,7 @@ public class StatementListNode implements ASTNode {
 	 * An empty statement list node
 	 */
 	public StatementListNode() {
-		statements = new LinkedList<StatementNode>();
+		statements = new ArrayList<StatementNode>();
 	}
 	
 	/**
@@ -27,7 +27,7 @@ public class StatementListNode implements ASTNode {
 	 * @param s the statement
 	 */
 	public StatementListNode(StatementNode s) {
-		statements = new LinkedList<StatementNode>();
+		statements = new ArrayList<StatementNode>();
 		statements.add(s);
 	}
 	
@@ -39,7 +39,7 @@ public class StatementListNode implements ASTNode {
 	 * @param sl The rests of the statements
 	 */
 	public StatementListNode(StatementNode s, StatementListNode sl) {
-		statements = new LinkedList<StatementNode>();
+		statements = new ArrayList<StatementNode>();
 		statements.add(s);
 		statements.addAll(sl.statements);
 	}
@@ -52,11 +52,18 @@ public class StatementListNode implements ASTNode {
 	 * @param s The last statement
 	 */
 	public StatementListNode(StatementListNode sl, StatementNode s) {
-		statements = new LinkedList<StatementNode>();
+		statements = new ArrayList<StatementNode>();
 		statements.addAll(sl.statements);
 		statements.add(s);
 	}
 	
+	/**
+	 * Append a statement
+	 */
+	public void addStatement(StatementNode s) {
+		statements.add(s);
+	}
+	
 	@Override
 	public <R> R accept(ASTVisitor<R> visitor) {
 		return visitor.visit(this);
@@ -2,22 +2,27 @@ package ast;
 
 import ast.visitor.ASTVisitor;
 import compiler.Scope.SymbolTableEntry;
-import compiler.Compiler;
+import compiler.SymbolTable;
 
 /**
  * A node for variables
  * 
- * This node tracks the symbol table entry of the variable
+ * This node tracks the symbol table entry of the variable and its symbol id
  * (because the STE is determined by the scope the parser is in when
  * it constructs the node, and can be hard to recover later.)
  */
 public class VarNode extends ExpressionNode {
 	private String id;
 	private SymbolTableEntry ste;
+	private int symbolId;
 	
-	public VarNode(String id) {
+	/**
+	 * @param id The name of the variable
+	 * @param st The symbol table to resolve <code>id</code> in (in whatever scope it is currently in)
+	 */
+	public VarNode(String id, SymbolTable st) {
 		this.setId(id);
-		setSymbol(Compiler.symbolTable.getSymbolTableEntry(id));
+		setSymbol(st.getSymbolTableEntry(id));
 		setType(ste.getType());
 	}
 
@@ -38,7 +43,15 @@ public class VarNode extends ExpressionNode {
 		return ste;
 	}
 
+	/**
+	 * @return The id of the variable's symbol (see {@link compiler.SymbolTable#getSymbol(int)})
+	 */
+	public int getSymbolId() {
+		return symbolId;
+	}
+
 	private void setSymbol(SymbolTableEntry ste) {
 		this.ste = ste;
+		this.symbolId = ste.getId();
 	}
 }
@@ -1,6 +1,10 @@
 package ast.visitor;
 
-import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
 
 import ast.ASTNode;
@@ -13,12 +17,10 @@ import ast.IntLitNode;
 import ast.ReadNode;
 import ast.ReturnNode;
 import ast.StatementListNode;
-import ast.StatementNode;
 import ast.UnaryOpNode;
 import ast.VarNode;
 import ast.WriteNode;
 import ast.CondNode;
-import ast.ExpressionNode;
 import ast.FunctionListNode;
 import ast.FunctionNode;
 import ast.FloatLitNode;
@@ -41,6 +43,10 @@ import ast.FloatLitNode;
  * need to change <code>preprocess</code>). More complicated visitors may need to
  * override both (e.g., to generate labels before visiting children).
  * 
+ * The walk is driven by {@link #traverse(ASTNode)}, which keeps pending nodes on its
+ * own work stack rather than recursing through <code>accept</code>, so very deep trees
+ * (long chains of binary operations, deeply nested blocks) do not overflow the Java stack.
+ * 
  * @param <R> The data type returned by the visitor. For code generation, this is {@link CodeObject}
  */
 public abstract class AbstractASTVisitor<R> implements ASTVisitor<R> {
@@ -49,137 +55,263 @@ public abstract class AbstractASTVisitor<R> implements ASTVisitor<R> {
 
 	@Override
 	public R run(ASTNode node) {
-		return node.accept(this);
+		return traverse(node);
 	}
 
 	@Override
 	public R visit(VarNode node) {
-		preprocess(node);
-		return postprocess(node);
+		return traverse(node);
 	}
 
 	@Override
 	public R visit(IntLitNode node) {
-		preprocess(node);
-		return postprocess(node);
+		return traverse(node);
 	}
 
 	@Override
 	public R visit(FloatLitNode node) {
-		preprocess(node);
-		return postprocess(node);
+		return traverse(node);
 	}
 
 	@Override
 	public R visit(BinaryOpNode node) {
-		preprocess(node);
-		R left = node.getLeft().accept(this);
-		R right = node.getRight().accept(this);
-		return postprocess(node, left, right);
+		return traverse(node);
 	}
 
 	@Override
 	public R visit(UnaryOpNode node) {
-		preprocess(node);
-		R child = node.getExpr().accept(this);
-		return postprocess(node, child);
+		return traverse(node);
 	}
 
 	@Override
 	public R visit(AssignNode node) {
-		preprocess(node);
-		R left = node.getLeft().accept(this);
-		R right = node.getRight().accept(this);
-		return postprocess(node, left, right);
+		return traverse(node);
 	}
 
 	@Override
 	public R visit(StatementListNode node) {
-		preprocess(node);
-		List<R> rs = new LinkedList<R>();
-		for (StatementNode n : node.getStatements()) {
-			rs.add(n.accept(this));	
-		}
-		R retval = postprocess(node, rs);
-		return retval;
+		return traverse(node);
 	}
 
 	@Override
 	public R visit(ReadNode node) {
-		preprocess(node);
-		R var = node.getVarNode().accept(this);
-		return postprocess(node, var);
+		return traverse(node);
 	}
 
 	@Override
 	public R visit(WriteNode node) {
-		preprocess(node);
-		R writeExpr = node.getWriteExpr().accept(this);
-		return postprocess(node, writeExpr);
+		return traverse(node);
 	}
 
 	@Override
 	public R visit(CondNode node) {
-		preprocess(node);
-		R left = node.getLeft().accept(this);
-		R right = node.getRight().accept(this);
-		return postprocess(node, left, right);
+		return traverse(node);
 	}
 
 	@Override
 	public R visit(IfStatementNode node) {
-		preprocess(node);
-		R cond = node.getCondExpr().accept(this);
-		R tlist = node.getThenBlock().accept(this);
-		R elist = null;
-		if (node.getElseBlock() != null) { //only traverse the else block if it exists
-			elist = node.getElseBlock().accept(this);
-		}
-		return postprocess(node, cond, tlist, elist);
+		return traverse(node);
 	}
 
 	@Override
 	public R visit(WhileNode node) {
-		preprocess(node);
-		R cond = node.getCond().accept(this);
-		R slist = node.getSlist().accept(this);
-		return postprocess(node, cond, slist);
+		return traverse(node);
 	}
 
 	@Override
 	public R visit(ReturnNode node) {
-		preprocess(node);
-		R retExpr = node.getRetExpr().accept(this);
-		return postprocess(node, retExpr);
+		return traverse(node);
 	}
 
 	@Override
 	public R visit(FunctionNode node) {
-		preprocess(node);
-		R body = node.getFuncBody().accept(this);
-		return postprocess(node, body);
+		return traverse(node);
 	}
 
 	@Override
 	public R visit(FunctionListNode node) {
-		preprocess(node);
-		List<R> fs = new LinkedList<R>();
-		for (StatementNode n : node.getFunctions()) {
-			fs.add(n.accept(this));	
-		}
-		R retval = postprocess(node, fs);
-		return retval;
+		return traverse(node);
 	}
 
 	@Override
 	public R visit(CallNode node) {
-		preprocess(node);
-		List<R> as = new LinkedList<R>();
-		for (ExpressionNode n : node.getArgs()) {
-			as.add(n.accept(this));
+		return traverse(node);
+	}
+
+	/**
+	 * Walk the subtree rooted at <code>root</code>, calling <code>preprocess</code> on the
+	 * way down and <code>postprocess</code> on the way up, exactly as a recursive walk would.
+	 * 
+	 * Pending nodes are kept on an explicit stack of {@link Frame}s instead of the Java call
+	 * stack, so the depth of the tree is limited only by the heap.
+	 * 
+	 * @param root The node to start from
+	 * @return The result of <code>postprocess</code> for <code>root</code>
+	 */
+	protected R traverse(ASTNode root) {
+		List<? extends ASTNode> rootChildren = preprocessNode(root);
+		if (rootChildren.isEmpty()) {
+			return postprocessNode(root, Collections.<R>emptyList());
+		}
+
+		Deque<Frame> stack = new ArrayDeque<Frame>();
+		stack.push(new Frame(root, rootChildren));
+
+		while (true) {
+			Frame top = stack.peek();
+
+			if (top.next < top.children.size()) {
+				ASTNode child = top.children.get(top.next++);
+				if (child == null) { //e.g., an if statement without an else block
+					top.results.add(null);
+					continue;
+				}
+				List<? extends ASTNode> children = preprocessNode(child);
+				if (children.isEmpty()) { //leaves never need a frame
+					top.results.add(postprocessNode(child, Collections.<R>emptyList()));
+				} else {
+					stack.push(new Frame(child, children));
+				}
+				continue;
+			}
+
+			stack.pop();
+			R result = postprocessNode(top.node, top.results);
+			if (stack.isEmpty()) {
+				return result;
+			}
+			stack.peek().results.add(result);
+		}
+	}
+
+	/**
+	 * A node whose children are still being visited
+	 */
+	private final class Frame {
+		final ASTNode node;
+		final List<? extends ASTNode> children;
+		final List<R> results;
+		int next;
+
+		Frame(ASTNode node, List<? extends ASTNode> children) {
+			this.node = node;
+			this.children = children;
+			this.results = new ArrayList<R>(children.size());
+			this.next = 0;
+		}
+	}
+
+	/**
+	 * Run the <code>preprocess</code> for <code>node</code>'s type
+	 * 
+	 * @return The children of <code>node</code>, in the order they are visited
+	 */
+	private List<? extends ASTNode> preprocessNode(ASTNode node) {
+		if (node instanceof VarNode) {
+			preprocess((VarNode) node);
+			return Collections.emptyList();
+		} else if (node instanceof IntLitNode) {
+			preprocess((IntLitNode) node);
+			return Collections.emptyList();
+		} else if (node instanceof FloatLitNode) {
+			preprocess((FloatLitNode) node);
+			return Collections.emptyList();
+		} else if (node instanceof BinaryOpNode) {
+			BinaryOpNode n = (BinaryOpNode) node;
+			preprocess(n);
+			return Arrays.asList(n.getLeft(), n.getRight());
+		} else if (node instanceof UnaryOpNode) {
+			UnaryOpNode n = (UnaryOpNode) node;
+			preprocess(n);
+			return Collections.singletonList(n.getExpr());
+		} else if (node instanceof AssignNode) {
+			AssignNode n = (AssignNode) node;
+			preprocess(n);
+			return Arrays.asList(n.getLeft(), n.getRight());
+		} else if (node instanceof StatementListNode) {
+			StatementListNode n = (StatementListNode) node;
+			preprocess(n);
+			return n.getStatements();
+		} else if (node instanceof ReadNode) {
+			ReadNode n = (ReadNode) node;
+			preprocess(n);
+			return Collections.singletonList(n.getVarNode());
+		} else if (node instanceof WriteNode) {
+			WriteNode n = (WriteNode) node;
+			preprocess(n);
+			return Collections.singletonList(n.getWriteExpr());
+		} else if (node instanceof CondNode) {
+			CondNode n = (CondNode) node;
+			preprocess(n);
+			return Arrays.asList(n.getLeft(), n.getRight());
+		} else if (node instanceof IfStatementNode) {
+			IfStatementNode n = (IfStatementNode) node;
+			preprocess(n);
+			return Arrays.asList(n.getCondExpr(), n.getThenBlock(), n.getElseBlock());
+		} else if (node instanceof WhileNode) {
+			WhileNode n = (WhileNode) node;
+			preprocess(n);
+			return Arrays.asList(n.getCond(), n.getSlist());
+		} else if (node instanceof ReturnNode) {
+			ReturnNode n = (ReturnNode) node;
+			preprocess(n);
+			return Collections.singletonList(n.getRetExpr());
+		} else if (node instanceof FunctionNode) {
+			FunctionNode n = (FunctionNode) node;
+			preprocess(n);
+			return Collections.singletonList(n.getFuncBody());
+		} else if (node instanceof FunctionListNode) {
+			FunctionListNode n = (FunctionListNode) node;
+			preprocess(n);
+			return n.getFunctions();
+		} else if (node instanceof CallNode) {
+			CallNode n = (CallNode) node;
+			preprocess(n);
+			return n.getArgs();
+		}
+		throw new Error("Unknown AST node " + node.getClass().getName());
+	}
+
+	/**
+	 * Run the <code>postprocess</code> for <code>node</code>'s type
+	 * 
+	 * @param results The results of visiting each child, in order
+	 */
+	private R postprocessNode(ASTNode node, List<R> results) {
+		if (node instanceof VarNode) {
+			return postprocess((VarNode) node);
+		} else if (node instanceof IntLitNode) {
+			return postprocess((IntLitNode) node);
+		} else if (node instanceof FloatLitNode) {
+			return postprocess((FloatLitNode) node);
+		} else if (node instanceof BinaryOpNode) {
+			return postprocess((BinaryOpNode) node, results.get(0), results.get(1));
+		} else if (node instanceof UnaryOpNode) {
+			return postprocess((UnaryOpNode) node, results.get(0));
+		} else if (node instanceof AssignNode) {
+			return postprocess((AssignNode) node, results.get(0), results.get(1));
+		} else if (node instanceof StatementListNode) {
+			return postprocess((StatementListNode) node, results);
+		} else if (node instanceof ReadNode) {
+			return postprocess((ReadNode) node, results.get(0));
+		} else if (node instanceof WriteNode) {
+			return postprocess((WriteNode) node, results.get(0));
+		} else if (node instanceof CondNode) {
+			return postprocess((CondNode) node, results.get(0), results.get(1));
+		} else if (node instanceof IfStatementNode) {
+			return postprocess((IfStatementNode) node, results.get(0), results.get(1), results.get(2));
+		} else if (node instanceof WhileNode) {
+			return postprocess((WhileNode) node, results.get(0), results.get(1));
+		} else if (node instanceof ReturnNode) {
+			return postprocess((ReturnNode) node, results.get(0));
+		} else if (node instanceof FunctionNode) {
+			return postprocess((FunctionNode) node, results.get(0));
+		} else if (node instanceof FunctionListNode) {
+			return postprocess((FunctionListNode) node, results);
+		} else if (node instanceof CallNode) {
+			return postprocess((CallNode) node, results);
 		}
-		R retval = postprocess(node, as);
-		return retval;
+		throw new Error("Unknown AST node " + node.getClass().getName());
 	}
 
 	protected R postprocess(VarNode node) {
@@ -0,0 +1,204 @@
+package compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Compiles many programs in one JVM on a pool of worker threads.
+ *
+ * Every job gets its own {@link Compiler} and {@link CompilationContext}, so jobs share
+ * no compiler state. What they do share is the lexer and parser ATN/DFA caches, which
+ * ANTLR keeps in static fields of the generated classes: after the first few files
+ * every worker parses with warm caches, and the JIT has warmed up as well.
+ *
+ * Usage (through {@link Compiler#main(String[])}):
+ *
+ * <pre>
+ * java compiler.Compiler --batch [-j threads] [options] manifest
+ * java compiler.Compiler --batch [-j threads] [options] in1 out1 [in2 out2 ...]
+ * </pre>
+ *
+ * The options are the ones the single-file compiler takes (see
+ * {@link CompilationContext#setOption(String)}) and apply to every job.
+ *
+ * A manifest has one job per line, "input output" separated by whitespace. Blank lines
+ * and lines starting with # are ignored. Each job's warnings are reported on stderr
+ * when it finishes, every line prefixed with its input file. When the batch is done,
+ * throughput and per-file latency percentiles are reported on stderr.
+ */
+public class BatchCompiler {
+
+	private int threads;
+	private String[] flags;
+
+	public BatchCompiler(int threads, String... flags) {
+		this.threads = threads;
+		this.flags = flags;
+	}
+
+	public static void main(String args[]) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<String> flags = new ArrayList<String>();
+		int i = 0;
+		while (i < args.length && args[i].startsWith("-")) {
+			if (args[i].equals("-j") && i + 1 < args.length) {
+				threads = Integer.parseInt(args[i + 1]);
+				i += 2;
+			} else if (new CompilationContext().setOption(args[i])) {
+				flags.add(args[i++]);
+			} else {
+				System.err.println("Unknown option " + args[i]);
+				System.exit(2);
+				return;
+			}
+		}
+		List<String> rest = Arrays.asList(args).subList(i, args.length);
+
+		List<String[]> jobs;
+		try {
+			if (rest.size() == 1) {
+				jobs = readManifest(rest.get(0));
+			} else if (!rest.isEmpty() && rest.size() % 2 == 0) {
+				jobs = new ArrayList<String[]>();
+				for (int j = 0; j < rest.size(); j += 2) {
+					jobs.add(new String[] {rest.get(j), rest.get(j + 1)});
+				}
+			} else {
+				System.err.println("usage: Compiler --batch [-j threads] [options] (manifest | in out [in out ...])");
+				System.exit(2);
+				return;
+			}
+		} catch (IOException e) {
+			System.err.println("Could not read manifest " + rest.get(0));
+			e.printStackTrace();
+			System.exit(1);
+			return;
+		}
+
+		int failures = new BatchCompiler(threads, flags.toArray(new String[0])).run(jobs);
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	static List<String[]> readManifest(String manifest) throws IOException {
+		List<String[]> jobs = new ArrayList<String[]>();
+		for (String line : Files.readAllLines(Paths.get(manifest))) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] parts = line.split("\\s+");
+			if (parts.length != 2) {
+				throw new IOException("Bad manifest line: " + line);
+			}
+			jobs.add(parts);
+		}
+		return jobs;
+	}
+
+	/**
+	 * Compile every job and report statistics on stderr
+	 *
+	 * @param jobs Pairs of {input, output} file names
+	 * @return The number of jobs that failed
+	 */
+	public int run(List<String[]> jobs) {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<Long>> results = new ArrayList<Future<Long>>();
+
+		long start = System.nanoTime();
+		for (String[] job : jobs) {
+			results.add(pool.submit(() -> compileOne(job[0], job[1], flags)));
+		}
+
+		long[] latencies = new long[jobs.size()];
+		int done = 0;
+		int failures = 0;
+		for (int i = 0; i < results.size(); i++) {
+			try {
+				latencies[done++] = results.get(i).get();
+			} catch (ExecutionException e) {
+				failures++;
+				done--;
+				System.err.println("Failed to compile " + jobs.get(i)[0] + ": " + e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		long wall = System.nanoTime() - start;
+		pool.shutdown();
+
+		report(Arrays.copyOf(latencies, done), failures, wall);
+		return failures;
+	}
+
+	/**
+	 * Compile one program. Its warnings are collected while it compiles and then
+	 * written to stderr all at once, each line prefixed with <code>input</code>, so
+	 * that those of jobs running at the same time do not interleave.
+	 *
+	 * @param flags Options for {@link CompilationContext#setOption(String)}
+	 * @return How long the compilation took, in nanoseconds
+	 * @throws IllegalArgumentException If one of the flags is not a known option
+	 * @throws CompileException If the program has errors
+	 */
+	static long compileOne(String input, String output, String... flags) throws IOException {
+		long start = System.nanoTime();
+		Compiler compiler = new Compiler();
+		for (String flag : flags) {
+			if (!compiler.getContext().setOption(flag)) {
+				throw new IllegalArgumentException("unknown flag " + flag);
+			}
+		}
+		ByteArrayOutputStream diagnostics = new ByteArrayOutputStream();
+		compiler.getContext().setDiagnostics(new PrintStream(diagnostics, true));
+		try (FileOutputStream out = new FileOutputStream(output)) { //the emitter does the buffering
+			compiler.compile(MappedCharStream.fromFileName(input), out);
+		} finally {
+			report(input, diagnostics.toString());
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static void report(String input, String diagnostics) {
+		if (diagnostics.isEmpty()) {
+			return;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (String line : diagnostics.split("\n")) {
+			sb.append(input).append(": ").append(line).append('\n');
+		}
+		System.err.print(sb); //one write, so lines of other jobs do not come in between
+	}
+
+	private void report(long[] latencies, int failures, long wall) {
+		Arrays.sort(latencies);
+		double seconds = wall / 1e9;
+		System.err.println(String.format("compiled %d files (%d failed) in %.2f s on %d threads: %.1f files/s",
+				latencies.length, failures, seconds, threads, latencies.length / seconds));
+		if (latencies.length > 0) {
+			System.err.println(String.format("latency ms: p50 %.2f  p90 %.2f  p99 %.2f  max %.2f",
+					percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99),
+					latencies[latencies.length - 1] / 1e6));
+		}
+	}
+
+	static double percentile(long[] sorted, int p) {
+		int idx = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, idx)] / 1e6;
+	}
+
+}
@@ -0,0 +1,107 @@
+package compiler;
+
+import java.io.OutputStream;
+
+import org.antlr.v4.runtime.CharStreams;
+
+import assembly.AssemblyEmitter;
+import assembly.CodeGenerator;
+import assembly.CodeObject;
+import ast.ASTNode;
+import ast.FunctionNode;
+
+/**
+ * Times code generation on deeply nested programs, to check that it scales linearly
+ * with the size of the program rather than with size times nesting depth.
+ *
+ * Usage: java compiler.CodeGenBenchmark [max depth] [iterations]
+ *
+ * For each shape (a long chain of additions, nested ifs, nested whiles) and each depth
+ * from 1000 doubling up to the maximum, a program is generated and parsed once, and
+ * then the code generator is timed over the given number of iterations. Register
+ * allocation is left out so that only the generation of the 3AC is measured; its
+ * output is discarded.
+ */
+public class CodeGenBenchmark {
+
+	static final private int minDepth = 1000;
+
+	public static void main(String args[]) throws InterruptedException {
+		int maxDepth = (args.length > 0) ? Integer.parseInt(args[0]) : 32000;
+		int iterations = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+
+		//the parser recurses once per level of nesting, so give it a deep stack
+		Thread t = new Thread(null, () -> {
+			for (String shape : new String[] {"add chain", "nested if", "nested while"}) {
+				for (int depth = minDepth; depth <= maxDepth; depth *= 2) {
+					run(shape, depth, iterations);
+				}
+			}
+		}, "benchmark", 1L << 30);
+		t.start();
+		t.join();
+	}
+
+	private static void run(String shape, int depth, int iterations) {
+		String program = generate(shape, depth);
+
+		long size = 0;
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < iterations + 2; i++) { //the first two runs are warm-up
+			CompilationContext context = new CompilationContext();
+			ASTNode ast = new Compiler(context).parse(CharStreams.fromString(program));
+
+			long[] instructions = new long[1];
+			CodeGenerator cg = new CodeGenerator(context, new AssemblyEmitter(context, OutputStream.nullOutputStream())) {
+				@Override
+				protected CodeObject postprocess(FunctionNode node, CodeObject body) {
+					instructions[0] += body.getCode().size(); //skip register allocation and emission
+					return body;
+				}
+			};
+
+			long start = System.nanoTime();
+			cg.run(ast);
+			long time = System.nanoTime() - start;
+
+			if (i >= 2) {
+				best = Math.min(best, time);
+			}
+			size = instructions[0];
+		}
+
+		System.out.println(String.format("%-13s depth %7d %9d instructions %9.2f ms %7.1f ns/instruction",
+				shape, depth, size, best / 1e6, (double) best / size));
+	}
+
+	private static String generate(String shape, int depth) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("int main() {\n int a;\n int b;\n a = 0;\n b = 1;\n");
+
+		switch (shape) {
+			case "add chain":
+				sb.append(" a = b");
+				for (int i = 0; i < depth; i++) {
+					sb.append(" + b");
+				}
+				sb.append(";\n");
+				break;
+			case "nested if":
+			case "nested while":
+				String keyword = shape.equals("nested if") ? "if" : "while";
+				for (int i = 0; i < depth; i++) {
+					sb.append(keyword).append(" (a < b) { a = a + b;\n");
+				}
+				for (int i = 0; i < depth; i++) {
+					sb.append("}\n");
+				}
+				break;
+			default:
+				throw new IllegalArgumentException(shape);
+		}
+
+		sb.append(" print(a);\n return 0;\n}\n");
+		return sb.toString();
+	}
+
+}
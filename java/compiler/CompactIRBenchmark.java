@@ -0,0 +1,122 @@
+package compiler;
+
+import java.io.OutputStream;
+
+import org.antlr.v4.runtime.CharStreams;
+
+import assembly.AssemblyEmitter;
+import assembly.CodeGenerator;
+import assembly.CodeObject;
+import assembly.CompactIR;
+import assembly.InstructionList;
+import assembly.instructions.Instruction;
+import assembly.instructions.Instruction.Slot;
+import assembly.instructions.Operand;
+import assembly.instructions.VirtualRegister;
+import ast.ASTNode;
+import ast.FunctionNode;
+
+/**
+ * Compares the heap footprint and scan speed of a function's 3AC held as
+ * {@link Instruction} objects and as {@link CompactIR}.
+ *
+ * Usage: java compiler.CompactIRBenchmark [statements]
+ *
+ * Generates one function with the given number of statements, keeps its 3AC, and
+ * measures the heap retained by each representation and the time to count the
+ * virtual-register operands in it, and the integer temporaries among them.
+ */
+public class CompactIRBenchmark {
+
+	public static void main(String args[]) {
+		int statements = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("int main() {\n int a;\n int b;\n a = 0;\n b = 1;\n");
+		for (int i = 0; i < statements; i++) {
+			sb.append(" a = a * b + ").append(i).append(";\n");
+		}
+		sb.append(" print(a);\n return 0;\n}\n");
+
+		long before = usedHeap();
+		CompilationContext context = new CompilationContext();
+		ASTNode ast = new Compiler(context).parse(CharStreams.fromString(sb.toString()));
+
+		InstructionList[] body = new InstructionList[1];
+		CodeGenerator cg = new CodeGenerator(context, new AssemblyEmitter(context, OutputStream.nullOutputStream())) {
+			@Override
+			protected CodeObject postprocess(FunctionNode node, CodeObject co) {
+				body[0] = (InstructionList) co.getCode(); //keep the 3AC; skip register allocation and emission
+				return new CodeObject();
+			}
+		};
+		cg.run(ast);
+		ast = null; //only the code (and the symbol table) is left
+		cg = null;
+		InstructionList code = body[0];
+		long objects = usedHeap() - before;
+
+		before = usedHeap();
+		CompactIR ir = new CompactIR(code);
+		long compact = usedHeap() - before;
+
+		if (!ir.toInstructionList().toString().equals(code.toString())) {
+			throw new AssertionError("round trip changed the code");
+		}
+
+		int n = code.size();
+		System.out.println(String.format("%d instructions, %d pooled operands", n, ir.getNumOperands()));
+		System.out.println(String.format("objects:  %8.1f bytes/instruction (includes the operands)", (double) objects / n));
+		System.out.println(String.format("compact:  %8.1f bytes/instruction (on top of the operands)", (double) compact / n));
+
+		long best = Long.MAX_VALUE;
+		int count = 0;
+		int temps = 0;
+		for (int i = 0; i < 10; i++) {
+			long start = System.nanoTime();
+			count = temps = 0;
+			for (Instruction inst : code) {
+				for (Slot s : inst.getDescriptor().getUses()) {
+					if (inst.is3AC(s)) {
+						count++;
+						Operand o = inst.getOperand(s);
+						if (o instanceof VirtualRegister && o.getRegClass() == Operand.RegClass.INT) {
+							temps++;
+						}
+					}
+				}
+			}
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		System.out.println(String.format("scan objects: %7.2f ms (%d uses, %d int temporaries)", best / 1e6, count, temps));
+
+		best = Long.MAX_VALUE;
+		for (int i = 0; i < 10; i++) {
+			long start = System.nanoTime();
+			count = temps = 0;
+			for (CompactIR.Cursor c = ir.cursor(); c.hasNext(); ) {
+				c.next();
+				for (Slot s : c.getDescriptor().getUses()) {
+					int id = c.getOperandId(s);
+					if (ir.isVirtual(id)) {
+						count++;
+						if (c.isTemporary(s) && c.getRegClass(s) == Operand.RegClass.INT) {
+							temps++;
+						}
+					}
+				}
+			}
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		System.out.println(String.format("scan compact: %7.2f ms (%d uses, %d int temporaries)", best / 1e6, count, temps));
+	}
+
+	private static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+}
@@ -0,0 +1,235 @@
+package compiler;
+
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import assembly.instructions.LabelTable;
+
+/**
+ * Everything that belongs to a single compilation: the symbol table, the register
+ * configuration of the target, the output options, the labels of the program, and
+ * where its warnings go.
+ *
+ * One of these is created per input program and handed to the parser, the AST and
+ * the back end, so several compilations can run in the same JVM (one after another
+ * or at the same time) without sharing any state.
+ */
+public class CompilationContext {
+
+	static final public int defaultNumIntRegisters = 1024;
+	static final public int defaultNumFloatRegisters = 1024;
+
+	private SymbolTable symbolTable;
+	private PrintStream diagnostics = System.err; //warnings and reports, never the assembly output
+
+	private int numIntRegisters;
+	private int numFloatRegisters;
+
+	//debugging comments in the generated assembly, all off by default
+	private boolean symbolTableComments;
+	private boolean irHeaders;
+	private boolean blankMarkers;
+
+	private boolean timePasses; //report time spent in each back end pass to the diagnostics
+	private Path imageDirectory; //where to save each function before and after register allocation, or null
+
+	private boolean loopSimplify; //give every loop a preheader and dedicated exits
+	private boolean ssa; //take the code into SSA form and back out before register allocation
+
+	private int optimizationLevel;
+	private RegisterAllocation registerAllocation; //as asked for, or null to go by the optimization level
+
+	/**
+	 * How registers are allocated
+	 */
+	public enum RegisterAllocation {
+		LOCAL,          //block by block, assembly.RegisterAllocator
+		LINEAR_SCAN,    //over the whole function, assembly.LinearScanAllocator
+		GRAPH_COLORING  //over the whole function, assembly.GraphColoringAllocator
+	}
+
+	private LabelTable labels;
+
+	public CompilationContext() {
+		this(defaultNumIntRegisters, defaultNumFloatRegisters);
+	}
+
+	/**
+	 * @param numIntRegisters Number of integer registers (x0 up to x<i>n-1</i>) on the target
+	 * @param numFloatRegisters Number of float registers (f0 up to f<i>n-1</i>) on the target
+	 */
+	public CompilationContext(int numIntRegisters, int numFloatRegisters) {
+		this.symbolTable = new SymbolTable(diagnostics);
+		this.numIntRegisters = numIntRegisters;
+		this.numFloatRegisters = numFloatRegisters;
+		this.labels = new LabelTable();
+	}
+
+	public SymbolTable getSymbolTable() {
+		return symbolTable;
+	}
+
+	/**
+	 * Throw away the symbol table and start a fresh one, e.g., before reparsing
+	 */
+	public SymbolTable resetSymbolTable() {
+		symbolTable = new SymbolTable(diagnostics);
+		return symbolTable;
+	}
+
+	/**
+	 * @return Where this compilation reports warnings (such as shadowed declarations)
+	 * and -time-passes statistics: stderr unless set otherwise
+	 */
+	public PrintStream getDiagnostics() {
+		return diagnostics;
+	}
+
+	/**
+	 * Report this compilation's warnings to <code>diagnostics</code>, e.g., to keep them
+	 * apart from those of compilations running at the same time
+	 */
+	public void setDiagnostics(PrintStream diagnostics) {
+		this.diagnostics = diagnostics;
+		symbolTable.setDiagnostics(diagnostics);
+	}
+
+	public int getNumIntRegisters() {
+		return numIntRegisters;
+	}
+
+	public int getNumFloatRegisters() {
+		return numFloatRegisters;
+	}
+
+	/**
+	 * Turn on an option given on the command line (or in a compile server request):
+	 *
+	 * <pre>
+	 * -symtab    print the symbol table as comments before the code
+	 * -ir        print the ";Current temp" / ";IR Code" header before the code
+	 * -blanks    keep the ";" separators and basic block markers in the code
+	 * -comments  all of the above
+	 *
+	 * -time-passes  print the time and code size of each back end pass to the diagnostics
+	 * -save-ir=<i>dir</i>  save each function before and after register allocation, see
+	 *               {@link assembly.FunctionImage}
+	 * -ssa       take the code into SSA form and back out before register allocation
+	 *               ({@link assembly.SSA}); no pass uses the SSA form yet
+	 * -loop-simplify  give every loop a preheader and dedicated exit blocks
+	 *               ({@link assembly.LoopSimplify})
+	 * -O<i>n</i>    optimization level, 0 (the default) to 9; see {@link #getOptimizationLevel()}
+	 * -regalloc=linear  allocate registers by linear scan over the whole function
+	 *               ({@link assembly.LinearScanAllocator})
+	 * -regalloc=coloring  allocate registers by graph coloring with coalescing
+	 *               ({@link assembly.GraphColoringAllocator}); the default from -O2
+	 * -regalloc=local   allocate registers block by block; the default below -O2
+	 * </pre>
+	 *
+	 * @param flag The option, including its leading dash
+	 * @return false if the option is not recognized
+	 */
+	public boolean setOption(String flag) {
+		switch (flag) {
+			case "-symtab":
+				symbolTableComments = true;
+				return true;
+			case "-ir":
+				irHeaders = true;
+				return true;
+			case "-blanks":
+				blankMarkers = true;
+				return true;
+			case "-comments":
+				symbolTableComments = irHeaders = blankMarkers = true;
+				return true;
+			case "-time-passes":
+				timePasses = true;
+				return true;
+			case "-ssa":
+				ssa = true;
+				return true;
+			case "-loop-simplify":
+				loopSimplify = true;
+				return true;
+			case "-regalloc=linear":
+				registerAllocation = RegisterAllocation.LINEAR_SCAN;
+				return true;
+			case "-regalloc=coloring":
+				registerAllocation = RegisterAllocation.GRAPH_COLORING;
+				return true;
+			case "-regalloc=local":
+				registerAllocation = RegisterAllocation.LOCAL;
+				return true;
+			default:
+				if (flag.matches("-O[0-9]")) {
+					optimizationLevel = flag.charAt(2) - '0';
+					return true;
+				}
+				if (flag.startsWith("-save-ir=") && flag.length() > "-save-ir=".length()) {
+					imageDirectory = Paths.get(flag.substring("-save-ir=".length()));
+					return true;
+				}
+				return false;
+		}
+	}
+
+	public boolean emitsSymbolTable() {
+		return symbolTableComments;
+	}
+
+	public boolean emitsIRHeaders() {
+		return irHeaders;
+	}
+
+	public boolean emitsBlankMarkers() {
+		return blankMarkers;
+	}
+
+	public boolean timesPasses() {
+		return timePasses;
+	}
+
+	public boolean roundTripsSSA() {
+		return ssa;
+	}
+
+	public boolean simplifiesLoops() {
+		return loopSimplify;
+	}
+
+	/**
+	 * @return The directory to save function images in, or null if they are not saved
+	 */
+	public Path getImageDirectory() {
+		return imageDirectory;
+	}
+
+	/**
+	 * @return 0 and 1: registers are allocated block by block. 2 and up: registers are
+	 * allocated by graph coloring. Either can be changed with -regalloc
+	 */
+	public int getOptimizationLevel() {
+		return optimizationLevel;
+	}
+
+	/**
+	 * @return The register allocator asked for with -regalloc, or else the one for the
+	 * optimization level
+	 */
+	public RegisterAllocation getRegisterAllocation() {
+		if (registerAllocation != null) {
+			return registerAllocation;
+		}
+		return (optimizationLevel >= 2) ? RegisterAllocation.GRAPH_COLORING : RegisterAllocation.LOCAL;
+	}
+
+	/**
+	 * @return The labels of the program; passes that add code make new labels here
+	 */
+	public LabelTable getLabels() {
+		return labels;
+	}
+
+}
@@ -0,0 +1,38 @@
+package compiler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A program that cannot be compiled, such as one with syntax errors. Carries every
+ * message reported for it, so that whoever started the compilation (the command
+ * line, a batch job, a compile server request) can pass them on.
+ */
+public class CompileException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final List<String> messages;
+
+	public CompileException(List<String> messages) {
+		super(String.join("; ", messages));
+		this.messages = Collections.unmodifiableList(new ArrayList<>(messages));
+	}
+
+	/**
+	 * @param cause What went wrong after the errors were reported, such as a grammar
+	 * 		action failing on a context that error recovery left half built
+	 */
+	public CompileException(List<String> messages, Throwable cause) {
+		super(String.join("; ", messages), cause);
+		this.messages = Collections.unmodifiableList(new ArrayList<>(messages));
+	}
+
+	/**
+	 * @return The messages, one per error, in the order they were reported
+	 */
+	public List<String> getMessages() {
+		return messages;
+	}
+}
@@ -0,0 +1,286 @@
+package compiler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ConnectException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A long-lived compiler process that takes compile requests over a local Unix domain
+ * socket. Keeping the JVM alive means every request after the first runs with a warm
+ * JIT and warm parser caches, so a request costs milliseconds instead of a JVM start.
+ *
+ * Usage: java compiler.CompileServer [socket path] [threads]
+ *
+ * The socket defaults to {@link #defaultSocketPath()}. Each connection carries one
+ * request line and gets one response line. The fields of a request are separated by
+ * NUL characters, so that paths may contain spaces; a request with no NUL in it is
+ * split at whitespace instead, which is enough for STATS and SHUTDOWN typed by hand:
+ *
+ * <pre>
+ * COMPILE &lt;input&gt; &lt;output&gt; [options...] -&gt;  OK &lt;ms&gt;  |  ERROR &lt;message&gt;
+ * STATS                                  -&gt;  OK requests=... failures=... p50=... p90=... p99=... (ms)
+ * SHUTDOWN                               -&gt;  OK
+ * </pre>
+ *
+ * Paths should be absolute, since the server's working directory is not the client's,
+ * and cannot contain newlines.
+ * The options are the same as the command-line compiler's (-symtab, -ir, ...). A
+ * program with syntax or declaration errors gets an ERROR reply with the messages; so
+ * does one that makes the compiler fail (an allocator giving up, say), whose stack
+ * trace also goes to stderr.
+ * Requests are handled concurrently on a worker pool; <code>runme</code> is the usual
+ * client and falls back to an in-process compile when no server is listening. A
+ * client that does not send its request line within {@link #requestTimeoutMillis} is
+ * disconnected, so that it does not hold a worker. A server will not start while
+ * another one answers on its socket, nor in a fallback directory that is not private to
+ * its user; <code>runme</code> only uses a socket that belongs to its user.
+ *
+ * Unix domain socket channels need Java 16 or later; the Makefile leaves this class out
+ * of the build on older JDKs.
+ */
+public class CompileServer {
+
+	static final private int latencyWindow = 10000;
+	static final public long requestTimeoutMillis = 10000;
+
+	private Path socketPath;
+	private ExecutorService pool;
+	private ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(); //request timeouts
+	private volatile boolean running;
+
+	private AtomicLong requests = new AtomicLong();
+	private AtomicLong failures = new AtomicLong();
+	private long[] latencies = new long[latencyWindow]; //most recent compile times, as a ring buffer
+	private long latencyCount = 0;
+
+	public CompileServer(Path socketPath, int threads) {
+		this.socketPath = socketPath;
+		this.pool = Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * @return $MICROC_DAEMON_SOCKET if set, otherwise a socket in $XDG_RUNTIME_DIR, or
+	 * 		failing that in {@link #fallbackDirectory()}. This has to agree with the path
+	 * 		<code>runme</code> uses.
+	 */
+	public static Path defaultSocketPath() {
+		String env = System.getenv("MICROC_DAEMON_SOCKET");
+		if (env != null && !env.isEmpty()) {
+			return Paths.get(env);
+		}
+		String runtime = System.getenv("XDG_RUNTIME_DIR");
+		if (runtime != null && !runtime.isEmpty()) {
+			return Paths.get(runtime, "microc-compiler.sock");
+		}
+		return fallbackDirectory().resolve("compiler.sock");
+	}
+
+	/**
+	 * @return A per-user directory in $TMPDIR (or /tmp), which the server creates
+	 * 		readable by its user only
+	 */
+	static Path fallbackDirectory() {
+		String tmp = System.getenv("TMPDIR");
+		if (tmp == null || tmp.isEmpty()) {
+			tmp = "/tmp";
+		}
+		return Paths.get(tmp, "microc-compiler-" + System.getProperty("user.name"));
+	}
+
+	public static void main(String args[]) {
+		Path socket = (args.length > 0) ? Paths.get(args[0]) : defaultSocketPath();
+		int threads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+		try {
+			new CompileServer(socket, threads).serve();
+		} catch (IOException e) {
+			System.err.println("Could not listen on " + socket);
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Accept connections until a SHUTDOWN request arrives
+	 */
+	public void serve() throws IOException {
+		Path dir = socketPath.toAbsolutePath().getParent();
+		if (!Files.isDirectory(dir)) {
+			Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+		}
+		if (dir.equals(fallbackDirectory().toAbsolutePath()) && !isPrivate(dir)) {
+			//someone else made it first, in a shared $TMPDIR: they could answer in our place
+			throw new IOException(dir + " is not private to " + System.getProperty("user.name"));
+		}
+		if (Files.exists(socketPath)) {
+			if (answers(socketPath)) {
+				throw new IOException("another compile server is listening on " + socketPath);
+			}
+			Files.delete(socketPath); //left behind by a server that did not shut down cleanly
+		}
+		running = true;
+
+		try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+			server.bind(UnixDomainSocketAddress.of(socketPath));
+			System.err.println("compile server listening on " + socketPath);
+
+			while (running) {
+				SocketChannel client;
+				try {
+					client = server.accept();
+				} catch (IOException e) {
+					if (!running) break; //closed by shutdown
+					throw e;
+				}
+				pool.execute(() -> handle(client, server)); //not submit: an Error must not vanish into a Future
+			}
+		} finally {
+			pool.shutdown();
+			timer.shutdownNow();
+			Files.deleteIfExists(socketPath);
+		}
+	}
+
+	/**
+	 * @return Whether <code>dir</code> belongs to this user, and no one else may use it
+	 */
+	private static boolean isPrivate(Path dir) throws IOException {
+		if (!Files.getOwner(dir).getName().equals(System.getProperty("user.name"))) {
+			return false;
+		}
+		for (PosixFilePermission p : Files.getPosixFilePermissions(dir)) {
+			if (!p.name().startsWith("OWNER_")) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return Whether something accepts connections on the socket. Only a refused
+	 * connection counts as no: any other failure is passed on rather than taken as
+	 * licence to delete the socket.
+	 */
+	private static boolean answers(Path socket) throws IOException {
+		try {
+			SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+			return true;
+		} catch (ConnectException e) {
+			return false;
+		}
+	}
+
+	private void handle(SocketChannel client, ServerSocketChannel server) {
+		try (SocketChannel c = client;
+				BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(c), StandardCharsets.UTF_8));
+				PrintWriter out = new PrintWriter(Channels.newOutputStream(c), true)) {
+			//a channel's streams ignore socket timeouts, so an idle client is cut off by closing it
+			ScheduledFuture<?> timeout = timer.schedule(() -> close(c), requestTimeoutMillis, TimeUnit.MILLISECONDS);
+			String line = in.readLine();
+			timeout.cancel(false);
+			if (line == null) {
+				return;
+			}
+			out.println(respond(fields(line)));
+
+			if (!running) {
+				server.close(); //unblocks accept() in serve()
+			}
+		} catch (IOException e) {
+			System.err.println("compile server: " + e);
+		}
+	}
+
+	private static void close(SocketChannel c) {
+		try {
+			c.close(); //the blocked read fails with an AsynchronousCloseException
+		} catch (IOException e) {
+			System.err.println("compile server: " + e);
+		}
+	}
+
+	/**
+	 * @return The fields of a request line: separated by NULs if it has any (a trailing
+	 * NUL is allowed), otherwise by whitespace
+	 */
+	static String[] fields(String line) {
+		if (line.indexOf('\0') >= 0) {
+			return line.split("\0"); //drops the empty field after a trailing NUL
+		}
+		return line.trim().split("\\s+");
+	}
+
+	String respond(String[] request) {
+		switch (request[0]) {
+			case "COMPILE":
+				if (request.length < 3) {
+					return "ERROR usage: COMPILE <input> <output> [flags...]";
+				}
+				return compile(request[1], request[2], Arrays.copyOfRange(request, 3, request.length));
+			case "STATS":
+				return stats();
+			case "SHUTDOWN":
+				running = false;
+				return "OK";
+			default:
+				return "ERROR unknown request " + request[0];
+		}
+	}
+
+	private String compile(String input, String output, String[] flags) {
+		requests.incrementAndGet();
+		try {
+			long time = BatchCompiler.compileOne(input, output, flags);
+			record(time);
+			return String.format("OK %.2f", time / 1e6);
+		} catch (IOException e) {
+			failures.incrementAndGet();
+			return "ERROR " + e;
+		} catch (IllegalArgumentException | CompileException e) {
+			failures.incrementAndGet();
+			return "ERROR " + e.getMessage();
+		} catch (RuntimeException | Error e) { //keep serving after a program the compiler cannot handle
+			failures.incrementAndGet();
+			System.err.println("compile server: " + input + ":");
+			e.printStackTrace();
+			return "ERROR " + e;
+		}
+	}
+
+	private synchronized void record(long time) {
+		latencies[(int) (latencyCount++ % latencyWindow)] = time;
+	}
+
+	private synchronized String stats() {
+		long[] window = Arrays.copyOf(latencies, (int) Math.min(latencyCount, latencyWindow));
+		Arrays.sort(window);
+		if (window.length == 0) {
+			return String.format("OK requests=%d failures=%d", requests.get(), failures.get());
+		}
+		return String.format("OK requests=%d failures=%d p50=%.2f p90=%.2f p99=%.2f max=%.2f",
+				requests.get(), failures.get(),
+				BatchCompiler.percentile(window, 50), BatchCompiler.percentile(window, 90),
+				BatchCompiler.percentile(window, 99), window[window.length - 1] / 1e6);
+	}
+
+}
@@ -1,77 +1,165 @@
 package compiler;
 
 import java.io.IOException;
-
-import org.antlr.v4.runtime.CharStreams;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 
+import assembly.AssemblyEmitter;
 import assembly.CodeGenerator;
-import assembly.CodeObject;
 import ast.ASTNode;
 
-import java.util.Collection;
-
 public class Compiler {
 
-	static public SymbolTable symbolTable = new SymbolTable();
+	private CompilationContext context;
 
 	public Compiler() {
-		
+		this(new CompilationContext());
 	}
 
-	public static void main(String args[]) {
-		
-		
-		try {
-			MicroCLexer lexer = new MicroCLexer(CharStreams.fromFileName(args[0]));
-			
-			MicroCParser parser = new MicroCParser(new CommonTokenStream(lexer));
-
-			parser.setSymbolTable(symbolTable);
-			
-			parser.program(); //parse the program to build the ast
-			
-			//Print out the symbol table. Helpful for debugging
-			symbolTable.printTable();
-
-			ASTNode ast = parser.getAST();
-
-			// Uncomment this line to print out your AST for debugging purposes
-			// PrintVisitor pv = new PrintVisitor();
-			// pv.run(ast);
+	public Compiler(CompilationContext context) {
+		this.context = context;
+	}
 
-			CodeGenerator cg = new CodeGenerator();
-			CodeObject co = cg.run(ast);
+	public static void main(String args[]) {
 
-			// Print out ".section .text"
-			System.out.println(".section .text");
+		if (args.length > 0 && args[0].equals("--batch")) {
+			BatchCompiler.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
 
-			// Print out the code. Runme script will redirect as necessary
-			System.out.println(co);
+		if (args.length == 0) {
+			System.err.println("usage: Compiler <input file> [-symtab] [-ir] [-blanks] [-comments] [-time-passes] [-ssa] [-loop-simplify] [-O<n>] [-regalloc=linear|coloring|local] [-save-ir=<dir>]");
+			System.exit(2);
+		}
 
-			//Print out strings
-			printStrings();
+		Compiler compiler = new Compiler();
+		for (int i = 1; i < args.length; i++) {
+			if (!compiler.getContext().setOption(args[i])) {
+				System.err.println("Unknown option " + args[i]);
+				System.exit(2);
+			}
+		}
 
+		try {
+			compiler.compile(MappedCharStream.fromFileName(args[0]), System.out);
 		} catch (IOException e) {
 			System.out.println("File not found");
 			e.printStackTrace();
 			System.exit(1);
-		}		
+		} catch (DeclarationException e) {
+			//these have always gone to stdout, so that runme puts them in the output file
+			for (String message : e.getMessages()) {
+				System.out.println(message);
+			}
+			System.exit(1);
+		} catch (CompileException e) {
+			for (String message : e.getMessages()) {
+				System.err.println(message);
+			}
+			System.exit(1);
+		}
 	}
 
-	private static void printStrings() {
-		System.out.println();
-		System.out.println(".section .strings");
+	/**
+	 * Compile one program, writing the assembly to <code>out</code>
+	 *
+	 * @param input The source to compile
+	 * @param out Where to write the generated code (flushed, but not closed)
+	 */
+	public void compile(CharStream input, OutputStream out) {
+		ASTNode ast = parse(input); //parse the program to build the ast
+
+		// Uncomment this line to print out your AST for debugging purposes
+		// PrintVisitor pv = new PrintVisitor();
+		// pv.run(ast);
+
+		//Symbol table comments (if requested) and ".section .text"
+		AssemblyEmitter emitter = new AssemblyEmitter(context, out);
+		emitter.begin();
+
+		//Each function is written out as soon as its code is generated
+		CodeGenerator cg = new CodeGenerator(context, emitter);
+		cg.run(ast);
+
+		//Print out strings
+		emitter.finish();
+	}
+
+	/**
+	 * Parse a program and return its AST.
+	 *
+	 * The first attempt uses SLL prediction with a bail-out error strategy, which is
+	 * much cheaper than full LL and is enough for almost every input. Only if it fails
+	 * do we rewind and reparse with full LL prediction and normal error recovery.
+	 * The grammar actions build the AST, so the parse tree is never kept.
+	 *
+	 * @param input The source to parse
+	 * @return The AST for the program
+	 * @throws CompileException If the program has syntax errors, with their messages
+	 */
+	ASTNode parse(CharStream input) {
+		List<String> errors = new ArrayList<>(); //this compilation's own, not the process's stderr
+		BaseErrorListener collect = new BaseErrorListener() {
+			@Override
+			public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+					int charPositionInLine, String msg, RecognitionException e) {
+				errors.add("line " + line + ":" + charPositionInLine + " " + msg);
+			}
+		};
+
+		MicroCLexer lexer = new MicroCLexer(input);
+		lexer.removeErrorListeners();
+		lexer.addErrorListener(collect);
+		CommonTokenStream tokens = new CommonTokenStream(lexer);
+		MicroCParser parser = new MicroCParser(tokens);
+		parser.setBuildParseTree(false);
 
-		Scope g = symbolTable.getGlobalScope();
+		parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+		parser.setErrorHandler(new BailErrorStrategy());
+		parser.removeErrorListeners();
+		parser.setSymbolTable(context.getSymbolTable());
 
-		Collection<Scope.SymbolTableEntry> stes = g.getEntries();
-		for (Scope.SymbolTableEntry ste : stes) {
-			if (ste.getType() == Scope.Type.STRING) {
-				Scope.StringSymbolTableEntry sste = (Scope.StringSymbolTableEntry) ste;
-				System.out.println(String.format("0x%x", sste.getAddress()) + " " + sste.getValue());
+		try {
+			parser.program();
+		} catch (ParseCancellationException e) {
+			//SLL failed; the actions may have partially filled the symbol table, so start over
+			tokens.seek(0);
+			parser.reset();
+			parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+			parser.setErrorHandler(new DefaultErrorStrategy());
+			parser.addErrorListener(collect);
+			parser.setSymbolTable(context.resetSymbolTable());
+			try {
+				parser.program();
+			} catch (RuntimeException | Error x) {
+				//error recovery runs the actions on half-built contexts, which can make them fail
+				if (errors.isEmpty()) {
+					throw x;
+				}
+				throw new CompileException(errors, x);
 			}
 		}
+		if (!errors.isEmpty()) {
+			throw new CompileException(errors);
+		}
+
+		return parser.getAST();
 	}
-	
-}
\ No newline at end of file
+
+	public CompilationContext getContext() {
+		return context;
+	}
+
+}
@@ -0,0 +1,17 @@
+package compiler;
+
+import java.util.List;
+
+/**
+ * A program with a declaration error. Its messages are the symbol table's: the shadow
+ * warnings reported so far, then the error itself. The command-line compiler prints
+ * them to stdout, where they end up in the output file.
+ */
+public class DeclarationException extends CompileException {
+
+	private static final long serialVersionUID = 1L;
+
+	public DeclarationException(List<String> messages) {
+		super(messages);
+	}
+}
@@ -30,10 +30,10 @@ import java.util.List;
 		return ste;
 	}
 
-	public ErrorType addFunctionSymbol(compiler.Scope.Type returnType, String name, List<compiler.Scope.Type> argTypes) {
-		ErrorType retVal = checkSymbol(name);
-		table.put(name, new FunctionSymbolTableEntry(returnType, name, argTypes));
-		return retVal;
+	public SymbolTableEntry addFunctionSymbol(compiler.Scope.Type returnType, String name, List<compiler.Scope.Type> argTypes) {
+		SymbolTableEntry ste = new FunctionSymbolTableEntry(returnType, name, argTypes);
+		table.put(name, ste);
+		return ste;
 	}
 
 	@Override
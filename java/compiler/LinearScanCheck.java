@@ -0,0 +1,72 @@
+package compiler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that the linear-scan allocator gets by with few registers wherever the
+ * block-local allocator does.
+ *
+ * Usage: java compiler.LinearScanCheck [int registers] [float registers] [sources...]
+ *
+ * Each source (by default every samples/*.micro) is compiled with -regalloc=local and
+ * with -regalloc=linear, with 6 integer and 2 float registers unless given. With three
+ * integer registers reserved, that leaves two to allocate, so an instruction's operands
+ * often hold every register while other values are live across it, and those have to
+ * go to memory. The check fails (exit status 1) if a program the local allocator
+ * compiles makes the linear-scan allocator give up.
+ */
+public class LinearScanCheck {
+
+	public static void main(String args[]) throws IOException {
+		int intRegisters = (args.length > 0) ? Integer.parseInt(args[0]) : 6;
+		int floatRegisters = (args.length > 1) ? Integer.parseInt(args[1]) : 2;
+		List<Path> sources = new ArrayList<>();
+		for (int i = 2; i < args.length; i++) {
+			sources.add(Paths.get(args[i]));
+		}
+		if (sources.isEmpty()) {
+			try (DirectoryStream<Path> samples = Files.newDirectoryStream(Paths.get("samples"), "*.micro")) {
+				samples.forEach(sources::add);
+			}
+			sources.sort(null);
+		}
+
+		boolean failed = false;
+		for (Path source : sources) {
+			String local = compile(source, intRegisters, floatRegisters, "-regalloc=local");
+			String linear = compile(source, intRegisters, floatRegisters, "-regalloc=linear");
+			if (local != null) {
+				System.out.println("skip " + source + ": " + local);
+			} else if (linear != null) {
+				System.out.println("FAIL " + source + ": " + linear);
+				failed = true;
+			} else {
+				System.out.println("ok   " + source);
+			}
+		}
+		System.exit(failed ? 1 : 0);
+	}
+
+	/**
+	 * @return Why the program did not compile, or null if it did
+	 */
+	private static String compile(Path source, int intRegisters, int floatRegisters, String regalloc) throws IOException {
+		CompilationContext context = new CompilationContext(intRegisters, floatRegisters);
+		context.setOption(regalloc);
+		try {
+			new Compiler(context).compile(MappedCharStream.fromFileName(source.toString()), OutputStream.nullOutputStream());
+			return null;
+		} catch (CompileException e) {
+			return e.getMessage();
+		} catch (RuntimeException | Error e) { //the allocators give up with an Error
+			return e.toString();
+		}
+	}
+}
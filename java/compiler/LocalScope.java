@@ -25,10 +25,10 @@ public class LocalScope extends Scope {
 		argsOffset = startingArgsOffset;
 	}
 
-	public ErrorType addArgument(Scope.Type type, String name) {
-		ErrorType retVal = checkSymbol(name);
-		table.put(name, genArgument(type, name));
-		return retVal;
+	public SymbolTableEntry addArgument(Scope.Type type, String name) {
+		SymbolTableEntry ste = genArgument(type, name);
+		table.put(name, ste);
+		return ste;
 	}
 
 	protected SymbolTableEntry genArgument(Scope.Type type, String name) {
@@ -59,6 +59,23 @@ public class LocalScope extends Scope {
 		return retval;
 	}
 
+	/**
+	 * Restored arguments and locals count towards the frame layout as if they had
+	 * been declared here
+	 */
+	@Override
+	public SymbolTableEntry restoreSymbol(Scope.Type type, String name, int address, boolean isLocal, int id) {
+		SymbolTableEntry ste = super.restoreSymbol(type, name, address, isLocal, id);
+		if (address >= startingArgsOffset) {
+			argsOffset = Math.max(argsOffset, address + 4);
+			numArgs++;
+		} else {
+			localsOffset = Math.min(localsOffset, address - 4);
+			numLocals++;
+		}
+		return ste;
+	}
+
 	public int getNumLocals() {
 		return numLocals;
 	}
@@ -0,0 +1,118 @@
+package compiler;
+
+import java.io.OutputStream;
+
+import org.antlr.v4.runtime.CharStreams;
+
+import assembly.AssemblyEmitter;
+import assembly.CodeGenerator;
+import assembly.CodeObject;
+import assembly.ControlFlowGraph;
+import assembly.DominatorTree;
+import assembly.Function;
+import assembly.LoopInfo;
+import assembly.LoopSimplify;
+import ast.ASTNode;
+import ast.FunctionNode;
+
+/**
+ * Times the loop analyses on functions with thousands of loops, to check that they
+ * scale with the size of the function rather than with size times nesting depth.
+ *
+ * Usage: java compiler.LoopBenchmark [max loops] [iterations]
+ *
+ * For each shape (loops one after another, loops nested in each other, and nests of
+ * ten loops one after another) and each number of loops from 1000 doubling up to the
+ * maximum, a program is generated and parsed, and for each iteration its 3AC is
+ * generated again. Only building the dominator tree and the loop nest and adding the
+ * preheaders and exit blocks ({@link LoopSimplify}) is timed; the function is then
+ * dropped.
+ */
+public class LoopBenchmark {
+
+	static final private int minLoops = 1000;
+
+	public static void main(String args[]) throws InterruptedException {
+		int maxLoops = (args.length > 0) ? Integer.parseInt(args[0]) : 32000;
+		int iterations = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+
+		//the parser recurses once per level of nesting, so give it a deep stack
+		Thread t = new Thread(null, () -> {
+			for (String shape : new String[] {"sequential", "nested", "nests of 10"}) {
+				for (int loops = minLoops; loops <= maxLoops; loops *= 2) {
+					run(shape, loops, iterations);
+				}
+			}
+		}, "benchmark", 1L << 30);
+		t.start();
+		t.join();
+	}
+
+	private static void run(String shape, int loops, int iterations) {
+		String program = generate(shape, loops);
+
+		long blocks = 0;
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < iterations + 2; i++) { //the first two runs are warm-up
+			CompilationContext context = new CompilationContext();
+			ASTNode ast = new Compiler(context).parse(CharStreams.fromString(program));
+
+			long[] time = new long[1];
+			long[] size = new long[1];
+			CodeGenerator cg = new CodeGenerator(context, new AssemblyEmitter(context, OutputStream.nullOutputStream())) {
+				@Override
+				protected CodeObject postprocess(FunctionNode node, CodeObject body) {
+					Function f = new Function(node.getFuncName(), node.getScope(), body,
+							context.getLabels().get("func_ret_" + node.getFuncName()));
+					long start = System.nanoTime();
+					ControlFlowGraph cfg = new ControlFlowGraph(f.getCode());
+					LoopInfo loopInfo = new LoopInfo(new DominatorTree(cfg));
+					LoopSimplify.run(f, cfg, loopInfo, context);
+					time[0] += System.nanoTime() - start;
+					size[0] += cfg.size();
+					return new CodeObject(); //skip the rest of the back end and emission
+				}
+			};
+			cg.run(ast);
+
+			if (i >= 2) {
+				best = Math.min(best, time[0]);
+			}
+			blocks = size[0];
+		}
+
+		System.out.println(String.format("%-11s %6d loops %8d blocks %9.2f ms %7.1f ns/block",
+				shape, loops, blocks, best / 1e6, (double) best / blocks));
+	}
+
+	private static String generate(String shape, int loops) {
+		int nest;
+		switch (shape) {
+			case "sequential":
+				nest = 1;
+				break;
+			case "nested":
+				nest = loops;
+				break;
+			case "nests of 10":
+				nest = 10;
+				break;
+			default:
+				throw new IllegalArgumentException(shape);
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("int main() {\n int a;\n int b;\n a = 0;\n b = 1;\n");
+		for (int done = 0; done < loops; done += nest) {
+			for (int i = 0; i < nest; i++) {
+				sb.append("while (a < b) { a = a + b;\n");
+			}
+			for (int i = 0; i < nest; i++) {
+				sb.append("}\n");
+			}
+		}
+		sb.append(" print(a);\n return 0;\n}\n");
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,143 @@
+package compiler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+/**
+ * A character stream that reads an ASCII source file straight out of a memory-mapped
+ * buffer, one byte per character.
+ *
+ * {@link CharStreams#fromFileName(String)} decodes the whole file into an array of
+ * code points (4 bytes per character) on the heap before the lexer starts. MicroC
+ * programs are plain ASCII, so the mapped bytes already are the characters and
+ * nothing has to be copied; the OS pages the file in as the lexer reaches it.
+ *
+ * Use {@link #fromFileName(String)}, which falls back to the ordinary decoding stream
+ * for files that contain non-ASCII bytes (or are too large to map in one piece).
+ */
+public class MappedCharStream implements CharStream {
+
+	private ByteBuffer data;
+	private int size;
+	private int p; //index of the next character to consume
+	private String sourceName;
+
+	private MappedCharStream(ByteBuffer data, String sourceName) {
+		this.data = data;
+		this.size = data.limit();
+		this.p = 0;
+		this.sourceName = sourceName;
+	}
+
+	/**
+	 * Open a source file, memory-mapped if it is all ASCII
+	 *
+	 * @param fileName The file to read
+	 * @return A stream over the contents of the file
+	 */
+	public static CharStream fromFileName(String fileName) throws IOException {
+		Path path = Paths.get(fileName);
+		ByteBuffer data;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				return CharStreams.fromPath(path);
+			}
+			data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); //stays valid after close
+		}
+
+		for (int i = 0; i < data.limit(); i++) {
+			if (data.get(i) < 0) { //high bit set: not ASCII, so let the UTF-8 decoder handle it
+				return CharStreams.fromPath(path);
+			}
+		}
+
+		return new MappedCharStream(data, fileName);
+	}
+
+	@Override
+	public void consume() {
+		if (p >= size) {
+			assert LA(1) == IntStream.EOF;
+			throw new IllegalStateException("cannot consume EOF");
+		}
+		p++;
+	}
+
+	@Override
+	public int LA(int i) {
+		if (i == 0) {
+			return 0; //undefined
+		}
+		if (i < 0) {
+			i++; //LA(-1) is the last character consumed, at p - 1
+		}
+		int pos = p + i - 1;
+		if (pos < 0 || pos >= size) {
+			return IntStream.EOF;
+		}
+		return data.get(pos);
+	}
+
+	/**
+	 * The whole file is always available, so marks are free
+	 */
+	@Override
+	public int mark() {
+		return -1;
+	}
+
+	@Override
+	public void release(int marker) {
+	}
+
+	@Override
+	public int index() {
+		return p;
+	}
+
+	@Override
+	public void seek(int index) {
+		p = Math.min(index, size);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public String getSourceName() {
+		return (sourceName == null || sourceName.isEmpty()) ? IntStream.UNKNOWN_SOURCE_NAME : sourceName;
+	}
+
+	@Override
+	public String getText(Interval interval) {
+		int start = interval.a;
+		int stop = Math.min(interval.b, size - 1);
+		if (start >= size || stop < start) {
+			return "";
+		}
+
+		byte[] bytes = new byte[stop - start + 1];
+		ByteBuffer view = data.duplicate(); //leave the shared buffer's position alone
+		view.position(start);
+		view.get(bytes);
+		return new String(bytes, StandardCharsets.US_ASCII);
+	}
+
+	@Override
+	public String toString() {
+		return getText(Interval.of(0, size - 1));
+	}
+
+}
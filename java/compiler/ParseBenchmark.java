@@ -0,0 +1,76 @@
+package compiler;
+
+import java.io.IOException;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+
+/**
+ * Compares the default ANTLR parse (full LL prediction, parse tree kept) against
+ * the two-stage SLL/LL parse that {@link Compiler} uses.
+ *
+ * Usage: java compiler.ParseBenchmark &lt;input file&gt; [iterations]
+ *
+ * Each mode is warmed up and then timed over the given number of iterations. After
+ * the last iteration the heap still in use (with the parser and its results live)
+ * is reported, which is where the retained parse tree shows up.
+ */
+public class ParseBenchmark {
+
+	public static void main(String args[]) {
+		try {
+			CharStream input = CharStreams.fromFileName(args[0]);
+			int iterations = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+
+			run("LL + parse tree", input, iterations, false);
+			run("SLL/LL, no tree", input, iterations, true);
+		} catch (IOException e) {
+			System.out.println("File not found");
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	private static void run(String name, CharStream input, int iterations, boolean fast) {
+		Object result = null;
+
+		//warm up the ATN and DFA caches before timing
+		for (int i = 0; i < 2; i++) {
+			result = parse(input, fast);
+		}
+
+		long total = 0;
+		for (int i = 0; i < iterations; i++) {
+			result = null;
+			long start = System.nanoTime();
+			result = parse(input, fast);
+			total += System.nanoTime() - start;
+		}
+
+		Runtime rt = Runtime.getRuntime();
+		System.gc();
+		long used = rt.totalMemory() - rt.freeMemory();
+
+		System.out.println(String.format("%-16s %8.1f ms/parse %8d KB live heap", name,
+				total / 1e6 / iterations, used / 1024));
+
+		//keep the result reachable until the heap has been measured
+		if (result == null) {
+			System.out.println("no result");
+		}
+	}
+
+	private static Object parse(CharStream input, boolean fast) {
+		input.seek(0);
+
+		if (fast) {
+			return new Compiler().parse(input);
+		}
+
+		MicroCParser parser = new MicroCParser(new CommonTokenStream(new MicroCLexer(input)));
+		parser.setSymbolTable(new SymbolTable());
+		return parser.program();
+	}
+
+}
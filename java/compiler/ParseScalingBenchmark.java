@@ -0,0 +1,109 @@
+package compiler;
+
+import org.antlr.v4.runtime.CharStreams;
+
+import ast.ASTNode;
+
+/**
+ * Times parsing and AST construction on programs of growing size, to check that the
+ * cost per statement stays flat (building the statement, function and argument lists
+ * is linear) up to a million statements.
+ *
+ * Usage: java compiler.ParseScalingBenchmark [max statements] [iterations]
+ *
+ * Two series are run, each from 10,000 statements growing tenfold up to the maximum.
+ * In the first, all of the statements are in one function, so its statement list
+ * grows to the full size; in the second, there is one function per 1000 statements,
+ * so the function list grows instead. The statements are a run of assignments and
+ * calls with several arguments, and each program is parsed over the given number of
+ * iterations. The last column is the time per statement relative to the smallest
+ * size of the series; it should stay close to 1.
+ */
+public class ParseScalingBenchmark {
+
+	static final private int minStatements = 10000;
+	static final private int statementsPerFunction = 1000; //in the series that scales the number of functions
+
+	public static void main(String args[]) {
+		int maxStatements = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+		int iterations = (args.length > 1) ? Integer.parseInt(args[1]) : 3;
+
+		run(generate(minStatements, 1), minStatements, 10); //warm up the JIT and the parser's DFA cache, so the first size is not penalized
+		run(generate(minStatements, minStatements / statementsPerFunction), minStatements, 10);
+
+		System.out.println("one function:");
+		double base = 0;
+		for (int statements = minStatements; statements <= maxStatements; statements *= 10) {
+			base = report(statements, 1, iterations, base);
+		}
+		System.out.println(statementsPerFunction + " statements per function:");
+		base = 0;
+		for (int statements = minStatements; statements <= maxStatements; statements *= 10) {
+			base = report(statements, statements / statementsPerFunction, iterations, base);
+		}
+	}
+
+	/**
+	 * Time one size and print a line for it
+	 *
+	 * @param base The time per statement of the smallest size of the series, or 0 if this is it
+	 * @return The time per statement of the smallest size of the series
+	 */
+	private static double report(int statements, int functions, int iterations, double base) {
+		double perStatement = run(generate(statements, functions), statements, iterations);
+		if (base == 0) {
+			base = perStatement;
+		}
+		System.out.println(String.format("%9d statements %7d functions %7.1f ns/statement %6.2fx", statements,
+				functions, perStatement, perStatement / base));
+		return base;
+	}
+
+	/**
+	 * @return The best time per statement, in ns
+	 */
+	private static double run(String program, int statements, int iterations) {
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < iterations + 2; i++) { //the first two runs are warm-up
+			long start = System.nanoTime();
+			ASTNode ast = new Compiler().parse(CharStreams.fromString(program));
+			long time = System.nanoTime() - start;
+			if (ast == null) {
+				throw new IllegalStateException("no AST");
+			}
+			if (i >= 2) {
+				best = Math.min(best, time);
+			}
+		}
+		return (double) best / statements;
+	}
+
+	/**
+	 * @return A program of about <code>statements</code> statements split evenly over
+	 * <code>functions</code> functions, each calling the one before (the first calls g)
+	 */
+	private static String generate(int statements, int functions) {
+		int perFunction = statements / functions;
+		StringBuilder sb = new StringBuilder();
+		sb.append("int g(int a, int b, int c);\n");
+		for (int f = 0; f < functions; f++) {
+			sb.append("int f").append(f).append("(int a, int b, int c);\n");
+		}
+		sb.append("int g(int a, int b, int c) {\n return a;\n}\n");
+		for (int f = 0; f < functions; f++) {
+			String callee = (f > 0) ? "f" + (f - 1) : "g";
+			sb.append("int f").append(f).append("(int a, int b, int c) {\n int x;\n x = a;\n");
+			for (int i = 2; i < perFunction; i++) {
+				if (i % 4 == 0) {
+					sb.append(" x = ").append(callee).append("(x, b, c + ").append(i).append(");\n");
+				} else {
+					sb.append(" x = x * b + c - ").append(i).append(";\n");
+				}
+			}
+			sb.append(" return x;\n}\n");
+		}
+		sb.append("int main() {\n print(f").append(functions - 1).append("(1, 2, 3));\n return 0;\n}\n");
+		return sb.toString();
+	}
+
+}
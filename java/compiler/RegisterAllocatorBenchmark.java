@@ -0,0 +1,95 @@
+package compiler;
+
+import java.io.OutputStream;
+
+import org.antlr.v4.runtime.CharStreams;
+
+import assembly.AssemblyEmitter;
+import assembly.CodeGenerator;
+import assembly.CodeObject;
+import assembly.RegisterAllocator;
+import ast.ASTNode;
+import ast.FunctionNode;
+
+/**
+ * Times the register allocator on one large straight-line block, to check that the
+ * cost per instruction does not grow with the number of registers or of values held
+ * in them.
+ *
+ * Usage: java compiler.RegisterAllocatorBenchmark [statements] [variables] [iterations]
+ *
+ * A function is generated with the given number of variables and of statements of
+ * the form <code>v<i>i</i> = v<i>j</i> + v<i>k</i> * v<i>l</i></code>, so that
+ * every variable stays in a register once it has been read. For each iteration the
+ * function's 3AC is generated again (allocation rewrites it in place), and only the
+ * allocation is timed. It runs with the default number of registers and with the
+ * smallest number that holds every variable.
+ */
+public class RegisterAllocatorBenchmark {
+
+	public static void main(String args[]) {
+		int statements = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+		int variables = (args.length > 1) ? Integer.parseInt(args[1]) : 500;
+		int iterations = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+
+		String program = generate(statements, variables);
+		run(program, CompilationContext.defaultNumIntRegisters, iterations);
+		run(program, variables + 16, iterations); //room for the variables, the reserved registers and a few temporaries
+	}
+
+	private static void run(String program, int registers, int iterations) {
+		long size = 0;
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < iterations + 2; i++) { //the first two runs are warm-up
+			CompilationContext context = new CompilationContext(registers, registers);
+			ASTNode ast = new Compiler(context).parse(CharStreams.fromString(program));
+
+			long[] time = new long[1];
+			long[] instructions = new long[1];
+			CodeGenerator cg = new CodeGenerator(context, new AssemblyEmitter(context, OutputStream.nullOutputStream())) {
+				@Override
+				protected CodeObject postprocess(FunctionNode node, CodeObject body) {
+					instructions[0] += body.getCode().size();
+					RegisterAllocator ra = new RegisterAllocator(context, body, node.getScope());
+					long start = System.nanoTime();
+					ra.run();
+					time[0] += System.nanoTime() - start;
+					return new CodeObject(); //skip the rest of the back end and emission
+				}
+			};
+			cg.run(ast);
+
+			if (i >= 2) {
+				best = Math.min(best, time[0]);
+			}
+			size = instructions[0];
+		}
+
+		System.out.println(String.format("%5d registers %9d instructions %9.2f ms %7.1f ns/instruction",
+				registers, size, best / 1e6, (double) best / size));
+	}
+
+	private static String generate(int statements, int variables) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("int main() {\n");
+		for (int v = 0; v < variables; v++) {
+			sb.append(" int v").append(v).append(";\n");
+		}
+		for (int v = 0; v < variables; v++) {
+			sb.append(" v").append(v).append(" = ").append(v).append(";\n");
+		}
+		long seed = 1;
+		for (int i = 0; i < statements; i++) {
+			int[] v = new int[4];
+			for (int k = 0; k < 4; k++) {
+				seed = seed * 6364136223846793005L + 1442695040888963407L; //fixed, so every run sees the same program
+				v[k] = (int) ((seed >>> 33) % variables);
+			}
+			sb.append(" v").append(v[0]).append(" = v").append(v[1])
+				.append(" + v").append(v[2]).append(" * v").append(v[3]).append(";\n");
+		}
+		sb.append(" print(v0);\n return 0;\n}\n");
+		return sb.toString();
+	}
+
+}
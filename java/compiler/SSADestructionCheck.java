@@ -0,0 +1,150 @@
+package compiler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import assembly.CodeObject;
+import assembly.ControlFlowGraph;
+import assembly.Function;
+import assembly.InstructionList;
+import assembly.SSA;
+import assembly.instructions.*;
+
+/**
+ * Checks that taking code out of SSA form keeps the meaning of phis that read other
+ * operands, as copy propagation leaves them.
+ *
+ * Usage: java compiler.SSADestructionCheck
+ *
+ * The function is a loop-carried swap after renaming and propagating the copies of
+ * <code>t = x; x = y; y = t</code>: the phi for <code>x</code> reads the version of
+ * <code>y</code> on the back edge, and the other way round. The loop is a single block
+ * ending in a conditional branch back to itself, so the back edge is critical, and
+ * <code>y</code> is a temporary, so it lives across blocks. After {@link SSA#destruct}
+ * the code is run on a small interpreter; the check fails (exit status 1) unless the
+ * values come out swapped once each time the back edge is taken.
+ */
+public class SSADestructionCheck {
+
+	public static void main(String args[]) {
+		int iterations = 6;
+		CompilationContext context = new CompilationContext();
+		SymbolTable symbols = context.getSymbolTable();
+		symbols.pushScope("main");
+		LocalScope scope = (LocalScope) symbols.currentScope();
+		symbols.addVariable(Scope.Type.INT, "x");
+		symbols.addVariable(Scope.Type.INT, "i");
+		symbols.addVariable(Scope.Type.INT, "r");
+		Operand x = new Variable(symbols.getSymbolTableEntry("x"));
+		Operand i = new Variable(symbols.getSymbolTableEntry("i"));
+		Operand r = new Variable(symbols.getSymbolTableEntry("r"));
+		Operand y = new VirtualRegister(Operand.RegClass.INT, 1);
+		Operand n = new VirtualRegister(Operand.RegClass.INT, 2);
+		symbols.popScope();
+
+		LabelTable labels = context.getLabels();
+		LabelRef loop = labels.create("loop_");
+		LabelRef ret = labels.get("main_ret");
+
+		Phi px = new Phi(new SSAValue(x, 2), 2);
+		Phi py = new Phi(new SSAValue(y, 2), 2);
+		Phi pi = new Phi(new SSAValue(i, 2), 2);
+		px.setArg(0, new SSAValue(x, 1));
+		px.setArg(1, new SSAValue(y, 2)); //crossed: x gets the old y
+		py.setArg(0, new SSAValue(y, 1));
+		py.setArg(1, new SSAValue(x, 2)); //and y the old x
+		pi.setArg(0, new SSAValue(i, 1));
+		pi.setArg(1, new SSAValue(i, 3));
+
+		Function f = new Function("main", scope, new CodeObject(), ret);
+		InstructionList code = f.getCode();
+		code.add(new Li(new SSAValue(x, 1), Immediate.of(1)));
+		code.add(new Li(new SSAValue(y, 1), Immediate.of(2)));
+		code.add(new Li(new SSAValue(i, 1), Immediate.of(0)));
+		code.add(new Li(new SSAValue(n, 1), Immediate.of(iterations)));
+		code.add(new Label(loop));
+		code.add(px);
+		code.add(py);
+		code.add(pi);
+		code.add(new Addi(new SSAValue(i, 2), Immediate.of(1), new SSAValue(i, 3)));
+		code.add(new Blt(new SSAValue(i, 3), new SSAValue(n, 1), loop));
+		code.add(new Mv(new SSAValue(x, 2), x)); //results, read back by the interpreter
+		code.add(new Mv(new SSAValue(y, 2), r));
+
+		SSA.destruct(f, new ControlFlowGraph(f.getCode()), context);
+
+		Map<Operand, Long> values = run(f.getCode(), ret);
+		long gotX = values.getOrDefault(x, -1L);
+		long gotY = values.getOrDefault(r, -1L);
+		long wantX = (iterations % 2 == 0) ? 2 : 1; //the back edge is taken one time less than the loop runs
+		if (gotX != wantX || gotY != 3 - wantX) {
+			System.out.println("FAIL: x = " + gotX + ", y = " + gotY + ", expected " + wantX + ", " + (3 - wantX));
+			System.out.print(f.getCode());
+			System.exit(1);
+		}
+		System.out.println("ok");
+	}
+
+	/**
+	 * Run straight-line code with branches and moves until it jumps to <code>ret</code>
+	 * or runs off the end
+	 *
+	 * @return The value of each operand written
+	 */
+	private static Map<Operand, Long> run(InstructionList code, LabelRef ret) {
+		Instruction[] insts = code.toArray(new Instruction[0]);
+		Map<Operand, Integer> targets = new HashMap<>();
+		for (int pc = 0; pc < insts.length; pc++) {
+			if (insts[pc] instanceof Label) {
+				targets.put(insts[pc].getLabel(), pc);
+			}
+		}
+		Map<Operand, Long> values = new HashMap<>();
+		int pc = 0;
+		for (int steps = 0; pc < insts.length; steps++) {
+			if (steps > 10000) {
+				throw new IllegalStateException("does not terminate");
+			}
+			Instruction inst = insts[pc++];
+			switch (inst.getOC()) {
+				case LABEL:
+					break;
+				case LI:
+					values.put(inst.getDest(), ((Immediate) inst.getLabel()).getValue());
+					break;
+				case MV:
+					values.put(inst.getDest(), value(values, inst.getSrc1()));
+					break;
+				case ADDI:
+					values.put(inst.getDest(), value(values, inst.getSrc1()) + ((Immediate) inst.getSrc2()).getValue());
+					break;
+				case BLT:
+					if (value(values, inst.getSrc1()) < value(values, inst.getSrc2())) {
+						pc = target(targets, inst.getLabel(), ret, insts.length);
+					}
+					break;
+				case J:
+					pc = target(targets, inst.getLabel(), ret, insts.length);
+					break;
+				default:
+					throw new IllegalStateException("cannot run " + inst);
+			}
+		}
+		return values;
+	}
+
+	private static long value(Map<Operand, Long> values, Operand o) {
+		Long v = values.get(o);
+		if (v == null) {
+			throw new IllegalStateException(o + " is read before it is written");
+		}
+		return v;
+	}
+
+	private static int target(Map<Operand, Integer> targets, Operand label, LabelRef ret, int end) {
+		if (label == ret) {
+			return end;
+		}
+		return targets.get(label);
+	}
+}
@@ -1,5 +1,6 @@
 package compiler;
 
+import java.io.PrintStream;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -45,23 +46,50 @@ public abstract class Scope{
 	public String getName() {
 		return name;
 	}
+
+	/**
+	 * @return The enclosing scope (for a function, the global scope), or null
+	 */
+	public Scope getParent() {
+		return parentTable;
+	}
 	
-	public ErrorType addSymbol(Type type, String name) {
-		ErrorType retVal = checkSymbol(name);
-		table.put(name, genSymbol(type, name));
-		return retVal;
+	/**
+	 * Declare a symbol in this scope. Redeclaration and shadowing are checked by
+	 * {@link SymbolTable}, which knows every binding that is visible here.
+	 *
+	 * @return The new entry
+	 */
+	public SymbolTableEntry addSymbol(Type type, String name) {
+		SymbolTableEntry ste = genSymbol(type, name);
+		table.put(name, ste);
+		return ste;
 	}
 
 	abstract protected SymbolTableEntry genSymbol(Type type, String name);
 	
-	public ErrorType addSymbol(Type type, String name, String value) {
-		ErrorType retVal = checkSymbol(name);
-		table.put(name, genStringSymbol(type, name, value));
-		return retVal;
+	public SymbolTableEntry addSymbol(Type type, String name, String value) {
+		SymbolTableEntry ste = genStringSymbol(type, name, value);
+		table.put(name, ste);
+		return ste;
 	}
 
 	abstract protected StringSymbolTableEntry genStringSymbol(Type type, String name, String value);
 	
+	/**
+	 * Put back a symbol saved from an earlier compilation (see
+	 * {@link assembly.FunctionImage}), keeping its address and id rather than
+	 * allocating new ones
+	 *
+	 * @return The new entry
+	 */
+	public SymbolTableEntry restoreSymbol(Type type, String name, int address, boolean isLocal, int id) {
+		SymbolTableEntry ste = new SymbolTableEntry(type, name, address, isLocal);
+		ste.setId(id);
+		table.put(name, ste);
+		return ste;
+	}
+
 	public Scope addSubScope(String name) {
 		Scope newScope = new LocalScope(this);
 		newScope.setName(name);
@@ -83,40 +111,24 @@ public abstract class Scope{
 	
 	protected abstract SymbolTableEntry searchLocalScope(String name);
 
-	protected ErrorType checkSymbol(String name) {
-		SymbolTableEntry ste = searchLocalScope(name);
-		if (ste != null) { //if the symbol is already in the local scope
-			//if the symbol is a function scope, and it has not been defined yet, return REDEC
-			if (ste instanceof FunctionSymbolTableEntry) {
-				FunctionSymbolTableEntry fste = (FunctionSymbolTableEntry) ste;
-				if (!fste.isDefined()) {
-					return ErrorType.REDEC;
-				}
-			}
-			return ErrorType.ERROR;
-		} else { //no error at current scope
-			if (parentTable == null) return ErrorType.NONE;
-			if (parentTable.checkSymbol(name) != ErrorType.NONE) {
-				return ErrorType.SHADOW;
-			}
-		}
-		return ErrorType.NONE;
-	}
-	
 	public void printTable() {
-		printLocalTable();
+		printTable(System.out);
+	}
+
+	public void printTable(PrintStream out) {
+		printLocalTable(out);
 		for (Scope st : subScopes) {
-			st.printTable();
+			st.printTable(out);
 		}
 	}
 	
-	protected void printLocalTable() {
-		System.out.println("; Symbol table " + name);
+	protected void printLocalTable(PrintStream out) {
+		out.println("; Symbol table " + name);
 		
 		for (SymbolTableEntry ste : table.values())
-			System.out.println(ste);
+			out.println(ste);
 			
-		System.out.println();
+		out.println();
 	}
 	
 	static public class SymbolTableEntry {
@@ -125,8 +137,10 @@ public abstract class Scope{
 		private Scope.Type type;
 		private int address;
 		private boolean isLocal;
+		private int id; //dense index assigned by the SymbolTable, -1 if the entry was never declared there
 		
 		public SymbolTableEntry(Scope.Type type, String name, int address, boolean isLocal) {
+			this.id = -1;
 			this.setName(name);
 			this.setType(type);
 			this.setAddress(address);
@@ -173,6 +187,17 @@ public abstract class Scope{
 		public boolean isLocal() {
 			return this.isLocal;
 		}
+
+		/**
+		 * @return This symbol's index in {@link SymbolTable#getSymbol(int)}
+		 */
+		public int getId() {
+			return id;
+		}
+
+		void setId(int id) {
+			this.id = id;
+		}
 		
 	}
 	
@@ -1,28 +1,70 @@
 package compiler;
 
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Stack;
 
 import compiler.Scope.FunctionSymbolTableEntry;
 
+/**
+ * The symbols of one program, and the scopes they were declared in.
+ *
+ * Every declared symbol gets a dense integer id (its index in {@link #getSymbol(int)}),
+ * so later phases can refer to symbols by number instead of by name. While parsing,
+ * names are resolved through a single hash map holding the innermost visible
+ * declaration of each name, rather than by searching each enclosing scope in turn.
+ */
 public class SymbolTable {
 	
 	private Scope globalScope;
 	private Stack<Scope> scopeStack;
 	private LinkedList<String> errors;
+	private PrintStream diagnostics; //where warnings go, see CompilationContext#getDiagnostics()
+
+	private ArrayList<Scope.SymbolTableEntry> symbols; //every declared symbol, indexed by id
+	private HashMap<String, Binding> bindings; //innermost visible declaration of each name
+
+	/**
+	 * A declaration visible from the current scope, linked to the one it hides (if any)
+	 */
+	static private class Binding {
+		Scope.SymbolTableEntry ste;
+		Scope scope;
+		Binding hidden;
+
+		Binding(Scope.SymbolTableEntry ste, Scope scope, Binding hidden) {
+			this.ste = ste;
+			this.scope = scope;
+			this.hidden = hidden;
+		}
+	}
 
 	public SymbolTable() {
+		this(System.err);
+	}
+
+	/**
+	 * @param diagnostics Where warnings are reported
+	 */
+	public SymbolTable(PrintStream diagnostics) {
 		this(0x10000000, 0x20000000);
+		this.diagnostics = diagnostics;
 	}
 
 	public SymbolTable(int stringBase, int globalBase) {
+		diagnostics = System.err;
 		setGlobalScope(new GlobalScope(stringBase, globalBase));
 
 		scopeStack = new Stack<Scope>();
 		scopeStack.push(getGlobalScope());
 
 		errors = new LinkedList<String>();
+
+		symbols = new ArrayList<Scope.SymbolTableEntry>();
+		bindings = new HashMap<String, Binding>();
 	}
 	
 	public Scope currentScope() {
@@ -31,15 +73,17 @@ public class SymbolTable {
 	
 	public void addVariable(Scope.Type type, String name, String value) {
 		assert(type == Scope.Type.STRING);
-		Scope.ErrorType e = currentScope().addSymbol(type, name, value);
+		Scope.ErrorType e = checkSymbol(name);
+		declare(currentScope().addSymbol(type, name, value));
 	    processError(name, e);
 	}
 
 	public void addVariable(Scope.Type type, String name) {
 		assert (type != Scope.Type.STRING);
-		Scope.ErrorType e = currentScope().addSymbol(type, name);
+		Scope.ErrorType e = checkSymbol(name);
+		declare(currentScope().addSymbol(type, name));
 		if (e != Scope.ErrorType.NONE) {
-			System.out.println("Found " + e + " adding " + type + " " + name);
+			diagnostics.println("Found " + e + " adding " + type + " " + name);
 		}
 	    processError(name, e);
 	}
@@ -48,29 +92,96 @@ public class SymbolTable {
 		assert(currentScope() instanceof LocalScope);
 
 		LocalScope ls = (LocalScope) currentScope();
-		Scope.ErrorType e = ls.addArgument(type, name);
+		Scope.ErrorType e = checkSymbol(name);
+		declare(ls.addArgument(type, name));
 		processError(name, e);
 	}
 
 	public void addFunction(Scope.Type returnType, String name, List<Scope.Type> argTypes) {
 		assert(currentScope() instanceof GlobalScope);
 		GlobalScope gs = (GlobalScope) currentScope();
-		Scope.ErrorType e = gs.addFunctionSymbol(returnType, name, argTypes);
+		Scope.ErrorType e = checkSymbol(name);
+		declare(gs.addFunctionSymbol(returnType, name, argTypes));
 		processError(name, e);
 	}
 
+	/**
+	 * Check a new declaration of <code>name</code> in the current scope against the
+	 * declarations that are already visible
+	 */
+	private Scope.ErrorType checkSymbol(String name) {
+		Binding b = bindings.get(name);
+		if (b == null) {
+			return Scope.ErrorType.NONE;
+		}
+		if (b.scope != currentScope()) {
+			return Scope.ErrorType.SHADOW;
+		}
+		//already in the current scope: fine only if it's a function that is declared but not yet defined
+		if (b.ste instanceof FunctionSymbolTableEntry && !((FunctionSymbolTableEntry) b.ste).isDefined()) {
+			return Scope.ErrorType.REDEC;
+		}
+		return Scope.ErrorType.ERROR;
+	}
+
+	/**
+	 * Give a new entry of the current scope its id and make it the visible binding for its name
+	 */
+	private void declare(Scope.SymbolTableEntry ste) {
+		ste.setId(symbols.size());
+		symbols.add(ste);
+
+		Binding b = bindings.get(ste.getName());
+		if (b != null && b.scope == currentScope()) {
+			b = b.hidden; //redeclaration replaces the old entry
+		}
+		bindings.put(ste.getName(), new Binding(ste, currentScope(), b));
+	}
+
+	/**
+	 * Give an entry that the back end added to a function's scope (such as a frame
+	 * slot for a temporary, see assembly.RegisterAllocator#home) an id of its own, so
+	 * that the code can name it as a variable. It is not visible by name
+	 *
+	 * @return The entry
+	 */
+	public Scope.SymbolTableEntry adopt(Scope.SymbolTableEntry ste) {
+		ste.setId(symbols.size());
+		symbols.add(ste);
+		return ste;
+	}
+
+	/**
+	 * @return The innermost declaration of <code>name</code> visible from the current scope, or null
+	 */
 	public Scope.SymbolTableEntry getSymbolTableEntry(String name) {
-		return currentScope().getSymbolTableEntry(name);
+		Binding b = bindings.get(name);
+		return (b == null) ? null : b.ste;
 	}
 
 	public Scope.FunctionSymbolTableEntry getFunctionSymbol(String name) {
-		Scope.SymbolTableEntry ste = globalScope.getSymbolTableEntry(name);
+		Scope.SymbolTableEntry ste = globalScope.searchLocalScope(name);
 
 		assert(ste != null);
 		assert(ste instanceof FunctionSymbolTableEntry);
 
 		return (Scope.FunctionSymbolTableEntry) ste;
 	}
+
+	/**
+	 * @param id An id from {@link Scope.SymbolTableEntry#getId()}
+	 * @return The symbol with that id
+	 */
+	public Scope.SymbolTableEntry getSymbol(int id) {
+		return symbols.get(id);
+	}
+
+	/**
+	 * @return How many symbols have been declared; ids run from 0 to this minus one
+	 */
+	public int getNumSymbols() {
+		return symbols.size();
+	}
 	
 	public void pushScope(String name) {
 		Scope s = currentScope().addSubScope(name);
@@ -78,7 +189,17 @@ public class SymbolTable {
 	}
 	
 	public void popScope() {
-		scopeStack.pop();
+		Scope s = scopeStack.pop();
+
+		//uncover whatever the popped scope's declarations were hiding
+		for (Scope.SymbolTableEntry ste : s.getEntries()) {
+			Binding b = bindings.get(ste.getName());
+			if (b.hidden == null) {
+				bindings.remove(ste.getName());
+			} else {
+				bindings.put(ste.getName(), b.hidden);
+			}
+		}
 	}
 	
 	public void processError(String name, Scope.ErrorType e) {
@@ -90,20 +211,21 @@ public class SymbolTable {
 				break;
 			case ERROR :
 				errors.add("DECLARATION ERROR " + name);
-				printErrors();
-				System.exit(1);
-				break;
+				//don't exit: other compilations may be sharing this JVM
+				throw new DeclarationException(errors);
 		}
 	}
 	
-	public void printErrors() {
-		for (String error : errors) {
-			System.out.println(error);
-		}
+	public void setDiagnostics(PrintStream diagnostics) {
+		this.diagnostics = diagnostics;
 	}
 	
 	public void printTable() {
-		getGlobalScope().printTable();
+		printTable(System.out);
+	}
+
+	public void printTable(PrintStream out) {
+		getGlobalScope().printTable(out);
 	}
 	
 	public Scope getGlobalScope() {
@@ -0,0 +1,47 @@
+#!/bin/bash
+#
+# Regression check: compile each sample that has an expected output, run it on a simulator
+# and compare what it prints with the expectation.
+#
+# usage: SIMULATOR=<command> scripts/check-samples.sh [compiler options]
+#
+# The simulator is run as '$SIMULATOR <assembly file> [inputs...]', with the inputs taken from
+# samples/<name>.in if there is one, and lines it prints starting with '#' (statistics) are
+# ignored. Samples without a samples/<name>.expected are skipped. Run from the repository root
+# after 'make compiler'; run it once per optimization level (e.g. with no options, -ssa, -O2).
+
+if [[ -z $SIMULATOR ]]
+then
+    echo "set SIMULATOR to the command that runs an assembly file" >&2
+    exit 1
+fi
+
+OUT=$(mktemp)
+trap 'rm -f $OUT' EXIT
+
+FAILED=0
+for SAMPLE in samples/*.micro
+do
+    NAME=${SAMPLE%.micro}
+    if [[ ! -f $NAME.expected ]]
+    then
+        continue
+    fi
+    INPUTS=()
+    if [[ -f $NAME.in ]]
+    then
+        read -r -a INPUTS < $NAME.in
+    fi
+    if ! ./runme $SAMPLE $OUT "$@"
+    then
+        echo "FAIL $SAMPLE: does not compile"
+        FAILED=1
+    elif ! diff <($SIMULATOR $OUT "${INPUTS[@]}" | grep -v '^#') $NAME.expected > /dev/null
+    then
+        echo "FAIL $SAMPLE"
+        FAILED=1
+    else
+        echo "ok   $SAMPLE"
+    fi
+done
+exit $FAILED
@@ -0,0 +1,39 @@
+#!/bin/bash
+#
+# Cold-start benchmark: time a full single-file compile (one fresh JVM per run) with and
+# without the class-data-sharing archive built by 'make cds'.
+#
+# usage: scripts/startup-bench.sh [input file] [runs]
+#
+# Run from the repository root after 'make compiler' and 'make cds'.
+
+INPUT=${1:-samples/fib.micro}
+RUNS=${2:-20}
+OUT=$(mktemp)
+trap 'rm -f $OUT' EXIT
+
+if [[ ! -f classes/compiler.jsa || ! -f classes/compiler.jar || ! -f classes/compiler.classpath ]]
+then
+    echo "no archive found; run 'make compiler' and 'make cds' first" >&2
+    exit 1
+fi
+# the archive is only used with the classpath it was dumped with; all three runs share it
+CP=$(< classes/compiler.classpath)
+
+# time_runs <label> <java args...>: average wall time of RUNS compiles
+time_runs() {
+    local label=$1
+    shift
+    java "$@" compiler.Compiler $INPUT > $OUT # warm the file cache
+    local start=$(date +%s%N)
+    for ((i = 0; i < RUNS; i++))
+    do
+        java "$@" compiler.Compiler $INPUT > $OUT
+    done
+    local end=$(date +%s%N)
+    awk -v l="$label" -v ns=$((end - start)) -v n=$RUNS 'BEGIN { printf "%-28s %7.1f ms/run\n", l, ns / n / 1e6 }'
+}
+
+time_runs "no CDS (-Xshare:off)" -Xshare:off -cp "$CP"
+time_runs "JDK archive only" -cp "$CP"
+time_runs "application archive" -XX:SharedArchiveFile=classes/compiler.jsa -Xshare:auto -cp "$CP"